@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLContext;
+import snap.gfx3d.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class sets up an offscreen renderer for benchmarks: a JGLRenderer for a bar scene of given size with its
+ * RenderImage, rendered once so context, framebuffer and resources exist before measurement starts.
+ */
+public class GLBenchmarkContext {
+
+    // The scene
+    private Scene3D  _scene;
+
+    // The renderer
+    private JGLRenderer  _renderer;
+
+    // The RenderImage
+    private RenderImage  _renderImage;
+
+    /**
+     * Constructor for given number of bars and image size.
+     */
+    public GLBenchmarkContext(int aBarCount, int aWidth, int aHeight)
+    {
+        // Create scene and set camera size
+        _scene = TestScenes.createBarScene(aBarCount);
+        Camera camera = _scene.getCamera();
+        camera.setViewWidth(aWidth);
+        camera.setViewHeight(aHeight);
+
+        // Create renderer and RenderImage (pixel scale 1 so results don't depend on display)
+        _renderer = new JGLRenderer(camera);
+        _renderImage = _renderer.getRenderImage();
+        _renderImage.setPixelScale(1);
+
+        // Render once
+        _renderImage.renderAll();
+    }
+
+    /**
+     * Returns the scene.
+     */
+    public Scene3D getScene()  { return _scene; }
+
+    /**
+     * Returns the renderer.
+     */
+    public JGLRenderer getRenderer()  { return _renderer; }
+
+    /**
+     * Returns the RenderImage.
+     */
+    public RenderImage getRenderImage()  { return _renderImage; }
+
+    /**
+     * Returns the triangle arrays of scene shapes.
+     */
+    public List<VertexArray> getTriangleArrays()
+    {
+        List<VertexArray> triangleArrays = new ArrayList<>();
+        addTriangleArrays(_scene, triangleArrays);
+        return triangleArrays;
+    }
+
+    /**
+     * Adds triangle arrays of given shape and its children to given list.
+     */
+    private void addTriangleArrays(Shape3D aShape, List<VertexArray> theList)
+    {
+        if (aShape instanceof ParentShape) {
+            for (Shape3D child : ((ParentShape) aShape).getChildren())
+                addTriangleArrays(child, theList);
+        }
+        else {
+            for (VertexArray va = aShape.getTriangleArray(); va != null; va = va.getNext())
+                theList.add(va);
+        }
+    }
+
+    /**
+     * Makes GL context current on this thread and returns GL.
+     */
+    public GL2 makeCurrent()
+    {
+        GLContext context = _renderImage.getDrawable().getContext();
+        context.makeCurrent();
+        return context.getGL().getGL2();
+    }
+
+    /**
+     * Releases GL context from this thread.
+     */
+    public void release()
+    {
+        _renderImage.getDrawable().getContext().release();
+    }
+
+    /**
+     * Releases renderer resources and destroys drawable.
+     */
+    public void dispose()
+    {
+        makeCurrent();
+        try { _renderer.disposeResources(); }
+        finally { release(); }
+        GLAutoDrawable drawable = _renderImage.getDrawable();
+        drawable.destroy();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import org.openjdk.jmh.annotations.*;
+import snap.gfx3d.Camera;
+import snap.gfx3d.VertexArray;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for JGLProgram per-draw setup: program bind, matrix uniforms and vertex attribute/index buffer setup
+ * for every triangle array in scene (without the draw itself). Programs and vertex buffers are looked up once in setup,
+ * so only attribute setup (and its reset) is measured, not the renderer's resource registry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgramBenchmark {
+
+    // The number of bars in scene
+    @Param({ "10", "100", "1000" })
+    public int  barCount;
+
+    // The benchmark context
+    private GLBenchmarkContext  _context;
+
+    // The scene triangle arrays and their programs and vertex buffers
+    private VertexArray[]  _triangleArrays;
+    private JGLProgram[]  _programs;
+    private JGLVertexBuffers[]  _vertexBuffers;
+
+    // The camera matrices
+    private double[]  _projMatrix, _viewMatrix;
+
+    /**
+     * Creates context, makes it current for trial and uploads vertex buffers.
+     */
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        // Create context and make current
+        _context = new GLBenchmarkContext(barCount, 512, 512);
+        _context.makeCurrent();
+
+        // Get triangle arrays and their programs and vertex buffers
+        List<VertexArray> triangleArrays = _context.getTriangleArrays();
+        _triangleArrays = triangleArrays.toArray(new VertexArray[0]);
+        _programs = new JGLProgram[_triangleArrays.length];
+        _vertexBuffers = new JGLVertexBuffers[_triangleArrays.length];
+        JGLRenderer renderer = _context.getRenderer();
+        for (int i = 0; i < _triangleArrays.length; i++) {
+            _programs[i] = renderer.getProgram(_triangleArrays[i]);
+            _vertexBuffers[i] = renderer.getVertexBuffers(_triangleArrays[i]);
+        }
+
+        // Get camera matrices
+        Camera camera = renderer.getCamera();
+        _projMatrix = camera.getCameraToClipArray();
+        _viewMatrix = camera.getSceneToCameraArray();
+    }
+
+    /**
+     * Releases context.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        _context.release();
+        _context.dispose();
+    }
+
+    /**
+     * Sets up program, uniforms and attributes for each triangle array, then resets attributes (as a draw would).
+     */
+    @Benchmark
+    public void attributeSetup()
+    {
+        for (int i = 0; i < _triangleArrays.length; i++) {
+
+            // Bind program and set matrices
+            VertexArray triangleArray = _triangleArrays[i];
+            JGLProgram program = _programs[i];
+            program.useProgram();
+            program.setProjectionMatrix(_projMatrix);
+            program.setViewMatrix(_viewMatrix);
+            program.setModelMatrix(JGLProgram.IDENTITY_MATRIX);
+
+            // Set attributes and index buffer
+            JGLVertexBuffers vertexBuffers = _vertexBuffers[i];
+            program.setPoints(vertexBuffers.getPointsBufferId(), vertexBuffers.getPointCount());
+            if (vertexBuffers.getColorsBufferId() != 0)
+                program.setColors(vertexBuffers.getColorsBufferId());
+            else program.setColor(triangleArray.getColor());
+            if (vertexBuffers.getIndexBufferId() != 0)
+                program.setIndexArray(vertexBuffers.getIndexBufferId(), vertexBuffers.getIndexCount());
+
+            // Disable attributes, unbind program and clear state (so nothing leaks into next invocation)
+            program.resetAttributes();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import org.openjdk.jmh.annotations.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for a full frame (JGLRenderer.renderAll via RenderImage) and readback (RenderImage.getImage).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderBenchmark {
+
+    // The number of bars in scene
+    @Param({ "10", "100", "1000" })
+    public int  barCount;
+
+    // The image size
+    @Param({ "512" })
+    public int  imageSize;
+
+    // The benchmark context
+    private GLBenchmarkContext  _context;
+
+    /**
+     * Creates context and renders first frame.
+     */
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        _context = new GLBenchmarkContext(barCount, imageSize, imageSize);
+    }
+
+    /**
+     * Releases context.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        _context.dispose();
+    }
+
+    /**
+     * Renders a frame (with GL finish, so GPU work is included).
+     */
+    @Benchmark
+    public void renderAll()
+    {
+        _context.getRenderImage().renderAll();
+        _context.makeCurrent().glFinish();
+        _context.release();
+    }
+
+    /**
+     * Reads back last frame (resolve + glReadPixels + image copy).
+     */
+    @Benchmark
+    public BufferedImage getImage()
+    {
+        return _context.getRenderImage().getImage();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for shader compile and program link (source load, compile of both shaders, link, then delete).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShaderBenchmark {
+
+    // The shader name
+    @Param({ "Points_Color", "Points_Colors", "Points_Color_Tex" })
+    public String  shaderName;
+
+    // The benchmark context
+    private GLBenchmarkContext  _context;
+
+    // The GL
+    private GL2  _gl;
+
+    /**
+     * Creates context and makes it current for trial.
+     */
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        _context = new GLBenchmarkContext(1, 64, 64);
+        _gl = _context.makeCurrent();
+    }
+
+    /**
+     * Releases context.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        _context.release();
+        _context.dispose();
+    }
+
+    /**
+     * Compiles shaders, links program and deletes all.
+     */
+    @Benchmark
+    public int compileAndLink()
+    {
+        // Compile and link
+        JGLShader vertShader = new JGLShader(JGLShader.ShaderType.Vertex, shaderName);
+        JGLShader fragShader = new JGLShader(JGLShader.ShaderType.Fragment, shaderName);
+        JGLProgram program = new JGLProgram(vertShader, fragShader);
+        int programId = program.getId();
+
+        // Delete
+        program.disposeShaderProgram();
+        _gl.glDeleteShader(vertShader.getId());
+        _gl.glDeleteShader(fragShader.getId());
+        return programId;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import org.openjdk.jmh.annotations.*;
+import snap.gfx.Image;
+import snap.gfx3d.Texture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for texture upload (as done by JGLRenderer.getTexture on first use): each invocation acquires a
+ * texture from resources (uploading it) and releases it (deleting it).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TextureBenchmark {
+
+    // The texture size
+    @Param({ "256", "1024", "2048" })
+    public int  textureSize;
+
+    // The benchmark context
+    private GLBenchmarkContext  _context;
+
+    // The resources
+    private JGLResources  _resources;
+
+    // The texture
+    private Texture  _texture;
+
+    /**
+     * Creates context, makes it current for trial and creates texture.
+     */
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        _context = new GLBenchmarkContext(1, 64, 64);
+        _context.makeCurrent();
+        _resources = _context.getRenderer().getResources();
+        Image image = Image.getImageForSize(textureSize, textureSize, true);
+        _texture = new Texture(image);
+    }
+
+    /**
+     * Releases context.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        _context.release();
+        _context.dispose();
+    }
+
+    /**
+     * Uploads and deletes texture.
+     */
+    @Benchmark
+    public void uploadTexture()
+    {
+        _resources.acquireTexture(_texture);
+        _resources.releaseTexture(_texture);
+    }
+}
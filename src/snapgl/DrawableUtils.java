@@ -5,6 +5,7 @@ package snapgl;
 import com.jogamp.opengl.*;
 import jogamp.opengl.GLDrawableHelper;
 import snap.gfx.GFXEnv;
+import java.awt.GraphicsEnvironment;
 
 /**
  * Handy JOGL utility methods.
@@ -15,6 +16,14 @@ public class DrawableUtils {
      * Creates default capabilities.
      */
     public static GLCapabilities getDefaultOffscreenCapabilities()
+    {
+        return getOffscreenCapabilities(4);
+    }
+
+    /**
+     * Creates offscreen capabilities for given number of samples (0 for no multi-sampling).
+     */
+    public static GLCapabilities getOffscreenCapabilities(int aSampleCount)
     {
         // Configure Debug/trace
         System.setProperty("jogl.debug.DebugGL", "true");
@@ -30,8 +39,10 @@ public class DrawableUtils {
         glCaps.setDoubleBuffered(false);
 
         // Configure basic multi-sampling
-        glCaps.setSampleBuffers(true);
-        glCaps.setNumSamples(4);
+        if (aSampleCount > 0) {
+            glCaps.setSampleBuffers(true);
+            glCaps.setNumSamples(aSampleCount);
+        }
 
         // Increase depth buffer
         glCaps.setDepthBits(24);
@@ -66,7 +77,7 @@ public class DrawableUtils {
         GLProfile profile = glCaps.getGLProfile();
 
         // Get size for screen scale
-        double screenScale = GFXEnv.getEnv().getScreenScale();
+        double screenScale = getScreenScale();
         int winW = (int) Math.round(aW * screenScale);
         int winH = (int) Math.round(aH * screenScale);
 
@@ -78,6 +89,16 @@ public class DrawableUtils {
         return drawable;
     }
 
+    /**
+     * Returns the screen scale (or 1 if running headless, e.g. on a server with Mesa software GL).
+     */
+    public static double getScreenScale()
+    {
+        if (GraphicsEnvironment.isHeadless())
+            return 1;
+        return GFXEnv.getEnv().getScreenScale();
+    }
+
     /**
      * Resizes drawable.
      */
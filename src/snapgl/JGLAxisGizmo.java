@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import snap.gfx.Color;
+import snap.gfx3d.VertexArray;
+
+/**
+ * This class draws X, Y and Z axes (red, green, blue cylinders from origin) with the shader pipeline. The mesh is
+ * built once into GPU buffers (and rebuilt only when radius or height change), and is drawn in the nearest sliver of
+ * the depth range so it shows in front of the scene without clearing the depth buffer. Render restores the culling,
+ * depth range and program it changes, so it can be mixed with fixed-function or other shader drawing.
+ */
+public class JGLAxisGizmo {
+
+    // The program
+    private JGLProgram  _program;
+
+    // The vertex buffers for axis mesh
+    private JGLVertexBuffers  _vertexBuffers;
+
+    // The radius and height of current mesh
+    private double  _radius, _height;
+
+    // The matrices read from fixed-function state (for renderForCurrentMatrices())
+    private double[]  _projMatrix = new double[16], _viewMatrix = new double[16];
+
+    // The saved depth range and program (restored after render)
+    private double[]  _depthRange = new double[2];
+    private int[]  _programId = new int[1];
+
+    // Constant for number of sides of each axis cylinder
+    private static final int SLICES = 16;
+
+    // Constant for the part of depth range (from near) that axes are drawn in
+    public static final double DEPTH_RANGE = 0.001;
+
+    // Constant for axis colors
+    private static final Color[] AXIS_COLORS = { Color.RED, Color.GREEN, Color.BLUE };
+
+    /**
+     * Constructor.
+     */
+    public JGLAxisGizmo()  { }
+
+    /**
+     * Renders axes for current fixed-function projection and modelview matrices.
+     */
+    public void renderForCurrentMatrices(GL2 gl, double aRadius, double aHeight)
+    {
+        gl.glGetDoublev(GL2.GL_PROJECTION_MATRIX, _projMatrix, 0);
+        gl.glGetDoublev(GL2.GL_MODELVIEW_MATRIX, _viewMatrix, 0);
+        render(gl, _projMatrix, _viewMatrix, aRadius, aHeight);
+    }
+
+    /**
+     * Renders axes for given projection and view matrices (column-major) with given cylinder radius and height.
+     */
+    public void render(GL2 gl, double[] aProjMatrix, double[] aViewMatrix, double aRadius, double aHeight)
+    {
+        // Make sure program and mesh are created
+        if (_program == null)
+            createProgram();
+        if (_vertexBuffers == null || aRadius != _radius || aHeight != _height)
+            createMesh(gl, aRadius, aHeight);
+
+        // Save culling, depth range and program
+        boolean cullFace = gl.glIsEnabled(GL2.GL_CULL_FACE);
+        gl.glGetDoublev(GL2.GL_DEPTH_RANGE, _depthRange, 0);
+        gl.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, _programId, 0);
+
+        // Draw in front: limit depth range to nearest sliver, and draw both sides
+        gl.glDepthRange(0, DEPTH_RANGE);
+        gl.glDisable(GL2.GL_CULL_FACE);
+
+        // Run program
+        JGLProgram program = _program;
+        program.useProgram();
+        program.setProjectionMatrix(aProjMatrix);
+        program.setViewMatrix(aViewMatrix);
+        program.setModelMatrix(JGLProgram.IDENTITY_MATRIX);
+        program.setPoints(_vertexBuffers.getPointsBufferId(), _vertexBuffers.getPointCount());
+        program.setColors(_vertexBuffers.getColorsBufferId());
+        program.runProgram();
+
+        // Restore
+        JoglUtils.setEnabled(gl, GL2.GL_CULL_FACE, cullFace);
+        gl.glDepthRange(_depthRange[0], _depthRange[1]);
+        gl.glUseProgram(_programId[0]);
+    }
+
+    /**
+     * Creates the program.
+     */
+    private void createProgram()
+    {
+        JGLShader vertShader = new JGLShader(JGLShader.ShaderType.Vertex, "Points_Colors");
+        JGLShader fragShader = new JGLShader(JGLShader.ShaderType.Fragment, "Points_Colors");
+        _program = new JGLProgram(vertShader, fragShader);
+    }
+
+    /**
+     * Creates (or recreates) mesh buffers for given radius and height.
+     */
+    private void createMesh(GL2 gl, double aRadius, double aHeight)
+    {
+        // Create VertexArray with cylinder for each axis
+        VertexArray vertexArray = new VertexArray();
+        for (int axis = 0; axis < 3; axis++)
+            addAxisCylinder(vertexArray, axis, aRadius, aHeight);
+
+        // Upload to buffers
+        if (_vertexBuffers == null)
+            _vertexBuffers = new JGLVertexBuffers();
+        _vertexBuffers.setVertexArray(gl, vertexArray);
+        _radius = aRadius;
+        _height = aHeight;
+    }
+
+    /**
+     * Adds triangles for a capped cylinder along given axis (0=X, 1=Y, 2=Z) to given VertexArray.
+     */
+    private static void addAxisCylinder(VertexArray aVA, int anAxis, double aRadius, double aHeight)
+    {
+        Color color = AXIS_COLORS[anAxis];
+        for (int i = 0; i < SLICES; i++) {
+
+            // Get slice edge offsets around axis
+            double angle0 = Math.PI * 2 * i / SLICES;
+            double angle1 = Math.PI * 2 * (i + 1) / SLICES;
+            double u0 = Math.cos(angle0) * aRadius, v0 = Math.sin(angle0) * aRadius;
+            double u1 = Math.cos(angle1) * aRadius, v1 = Math.sin(angle1) * aRadius;
+
+            // Add side quad (2 triangles), bottom cap and top cap triangles
+            addAxisPoint(aVA, anAxis, u0, v0, 0, color);
+            addAxisPoint(aVA, anAxis, u1, v1, 0, color);
+            addAxisPoint(aVA, anAxis, u1, v1, aHeight, color);
+            addAxisPoint(aVA, anAxis, u0, v0, 0, color);
+            addAxisPoint(aVA, anAxis, u1, v1, aHeight, color);
+            addAxisPoint(aVA, anAxis, u0, v0, aHeight, color);
+            addAxisPoint(aVA, anAxis, 0, 0, 0, color);
+            addAxisPoint(aVA, anAxis, u1, v1, 0, color);
+            addAxisPoint(aVA, anAxis, u0, v0, 0, color);
+            addAxisPoint(aVA, anAxis, 0, 0, aHeight, color);
+            addAxisPoint(aVA, anAxis, u0, v0, aHeight, color);
+            addAxisPoint(aVA, anAxis, u1, v1, aHeight, color);
+        }
+    }
+
+    /**
+     * Adds a point with given offsets around axis and distance along axis (rotated so axis is X, Y or Z).
+     */
+    private static void addAxisPoint(VertexArray aVA, int anAxis, double u, double v, double w, Color aColor)
+    {
+        switch (anAxis) {
+            case 0: aVA.addPoint(w, u, v); break;
+            case 1: aVA.addPoint(v, w, u); break;
+            default: aVA.addPoint(u, v, w);
+        }
+        aVA.addColor(aColor);
+    }
+
+    /**
+     * Releases GL resources.
+     */
+    public void dispose(GL2 gl)
+    {
+        if (_program != null) {
+            _program.disposeShaderProgram();
+            gl.glDeleteShader(_program.getVertexShader().getId());
+            gl.glDeleteShader(_program.getFragmentShader().getId());
+        }
+        if (_vertexBuffers != null)
+            _vertexBuffers.dispose(gl);
+        _program = null;
+        _vertexBuffers = null;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLContext;
+import snap.gfx3d.Camera;
+import snap.gfx3d.Scene3D;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class renders batches of (Scene3D, Camera, size) jobs to images on a fixed pool of worker threads.
+ * Each worker thread owns its own RenderImage (and offscreen drawable from DrawableUtils) and one renderer on a
+ * private camera, so no GL context is ever shared between threads and job cameras are never changed or listened to.
+ * A job whose render fails completes its future exceptionally.
+ *
+ * Offscreen drawables are created on the default device, so a display is required: on a server without one, run
+ * under a virtual display (e.g., xvfb-run with Mesa software GL via LIBGL_ALWAYS_SOFTWARE=1). AWT can still be
+ * headless (java.awt.headless=true).
+ */
+public class JGLBatchRenderer {
+
+    // The number of worker threads
+    private int  _poolSize;
+
+    // The executor that runs jobs
+    private ExecutorService  _executor;
+
+    // The Worker for current worker thread
+    private ThreadLocal<Worker>  _worker = new ThreadLocal<>();
+
+    // All workers (so drawables can be destroyed on shutdown)
+    private List<Worker>  _workers = Collections.synchronizedList(new ArrayList<>());
+
+    // The number of samples for worker images
+    private int  _sampleCount = RenderImage.DEFAULT_SAMPLE_COUNT;
+
+    // The number of completed jobs
+    private AtomicInteger  _completedCount = new AtomicInteger();
+
+    // The time of first submit and last completion (in nanos)
+    private AtomicLong  _startTime = new AtomicLong(), _endTime = new AtomicLong();
+
+    /**
+     * Constructor for given number of worker threads.
+     */
+    public JGLBatchRenderer(int aPoolSize)
+    {
+        _poolSize = aPoolSize;
+
+        // Create executor with named daemon threads
+        AtomicInteger threadCount = new AtomicInteger();
+        _executor = Executors.newFixedThreadPool(aPoolSize, runnable -> {
+            Thread thread = new Thread(runnable, "JGLBatchRenderer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the number of worker threads.
+     */
+    public int getPoolSize()  { return _poolSize; }
+
+    /**
+     * Returns the number of samples for multi-sampling worker images.
+     */
+    public int getSampleCount()  { return _sampleCount; }
+
+    /**
+     * Sets the number of samples for multi-sampling worker images (0 for none).
+     */
+    public void setSampleCount(int aValue)  { _sampleCount = aValue; }
+
+    /**
+     * Submits a job and returns future for rendered image.
+     */
+    public Future<BufferedImage> submit(RenderJob aJob)
+    {
+        _startTime.compareAndSet(0, System.nanoTime());
+        return _executor.submit(() -> renderJob(aJob));
+    }
+
+    /**
+     * Submits all jobs in given queue/collection and returns futures for rendered images (in same order).
+     */
+    public List<Future<BufferedImage>> submitAll(Collection<RenderJob> theJobs)
+    {
+        List<Future<BufferedImage>> futures = new ArrayList<>(theJobs.size());
+        for (RenderJob job : theJobs)
+            futures.add(submit(job));
+        return futures;
+    }
+
+    /**
+     * Returns the number of completed jobs.
+     */
+    public int getCompletedCount()  { return _completedCount.get(); }
+
+    /**
+     * Returns the jobs per second from first submit to last completed job.
+     */
+    public double getJobsPerSecond()
+    {
+        long elapsed = _endTime.get() - _startTime.get();
+        return elapsed > 0 ? _completedCount.get() * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Resets the stats.
+     */
+    public void resetStats()
+    {
+        _completedCount.set(0);
+        _startTime.set(0);
+        _endTime.set(0);
+    }
+
+    /**
+     * Renders given job on current worker thread.
+     */
+    protected BufferedImage renderJob(RenderJob aJob)
+    {
+        // Get worker RenderImage and set size
+        Worker worker = getWorker();
+        RenderImage renderImage = worker._renderImage;
+        int width = aJob.getWidth();
+        int height = aJob.getHeight();
+        renderImage.setSize(width, height);
+
+        // Set worker camera to view job scene like job camera, at job size
+        Camera camera = worker._camera;
+        JoglUtils.copyCameraSettings(aJob.getCamera(), camera);
+        camera.setScene(aJob.getScene());
+        camera.setViewWidth(width);
+        camera.setViewHeight(height);
+
+        // Render (throwing on failure, so future doesn't complete with last job's pixels) and read image
+        renderImage.renderOrThrow();
+        BufferedImage image = renderImage.getImage();
+        if (image == null)
+            throw new IllegalStateException("JGLBatchRenderer.renderJob: No image rendered");
+
+        // Update stats and return
+        _completedCount.incrementAndGet();
+        _endTime.accumulateAndGet(System.nanoTime(), Math::max);
+        return image;
+    }
+
+    /**
+     * Returns the Worker for current worker thread.
+     */
+    private Worker getWorker()
+    {
+        // If already set, just return
+        Worker worker = _worker.get();
+        if (worker != null) return worker;
+
+        // Create worker RenderImage
+        RenderImage renderImage = new RenderImage(1, 1);
+        renderImage.setPixelScale(1);
+        renderImage.setSampleCount(_sampleCount);
+
+        // Create worker with private camera and renderer that renders it to RenderImage (reused for every job)
+        worker = new Worker();
+        worker._renderImage = renderImage;
+        worker._camera = new Camera();
+        worker._renderer = new JGLRenderer(worker._camera);
+        worker._renderer.setRenderImage(renderImage);
+
+        // Set, add and return
+        _worker.set(worker);
+        _workers.add(worker);
+        return worker;
+    }
+
+    /**
+     * Shuts down worker threads (after queued jobs complete) and destroys drawables. If jobs don't complete in time,
+     * workers are interrupted and queued jobs are dropped. Drawables are only destroyed once all workers have stopped.
+     */
+    public void shutdown()
+    {
+        // Shutdown executor and wait (if jobs don't complete in time, interrupt workers and wait for them to stop)
+        _executor.shutdown();
+        boolean terminated = awaitTermination();
+        if (!terminated) {
+            _executor.shutdownNow();
+            terminated = awaitTermination();
+        }
+
+        // If workers are still running, leave drawables (destroying a context in use by a worker could crash)
+        if (!terminated) {
+            System.err.println("JGLBatchRenderer.shutdown: Workers still running, drawables not destroyed");
+            return;
+        }
+
+        // Release renderer GL resources and destroy drawables
+        for (Worker worker : _workers) {
+            GLAutoDrawable drawable = worker._renderImage.getDrawable();
+            GLContext glc = drawable.getContext();
+            glc.makeCurrent();
+            try { worker._renderer.disposeResources(); }
+            finally { glc.release(); }
+            drawable.destroy();
+        }
+        _workers.clear();
+    }
+
+    /**
+     * Waits for executor to terminate and returns whether it did.
+     */
+    private boolean awaitTermination()
+    {
+        try { return _executor.awaitTermination(1, TimeUnit.MINUTES); }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return _executor.isTerminated();
+        }
+    }
+
+    /**
+     * The GL state owned by a worker thread.
+     */
+    private static class Worker {
+
+        // The RenderImage
+        private RenderImage  _renderImage;
+
+        // The private camera (set from each job camera)
+        private Camera  _camera;
+
+        // The renderer for private camera
+        private JGLRenderer  _renderer;
+    }
+
+    /**
+     * A render job: a Scene3D viewed from Camera, rendered at given size. The camera is only read (its view is copied
+     * to a worker camera at job size), so it can be shared by jobs and shown on screen.
+     */
+    public static class RenderJob {
+
+        // The scene
+        private Scene3D  _scene;
+
+        // The camera
+        private Camera  _camera;
+
+        // The size
+        private int  _width, _height;
+
+        /**
+         * Constructor.
+         */
+        public RenderJob(Scene3D aScene, Camera aCamera, int aWidth, int aHeight)
+        {
+            _scene = aScene;
+            _camera = aCamera;
+            _width = aWidth;
+            _height = aHeight;
+        }
+
+        /**
+         * Returns the scene.
+         */
+        public Scene3D getScene()  { return _scene; }
+
+        /**
+         * Returns the camera the scene is viewed from.
+         */
+        public Camera getCamera()  { return _camera; }
+
+        /**
+         * Returns the width.
+         */
+        public int getWidth()  { return _width; }
+
+        /**
+         * Returns the height.
+         */
+        public int getHeight()  { return _height; }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * This class holds a GPU buffer object for a float or int array, with a shadow copy of the last uploaded values. On
+ * update, only the span that differs from the shadow copy is uploaded (with glBufferSubData), so appending to or
+ * changing part of a large array only uploads the changed part. Buffer storage grows geometrically, so repeated
+ * appends don't reallocate each time.
+ */
+public class JGLBuffer {
+
+    // The buffer target (GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER)
+    private int  _target;
+
+    // The buffer id
+    private int  _id;
+
+    // The allocated capacity (in values)
+    private int  _capacity;
+
+    // The shadow copy of uploaded values (float[] or int[]) and number of values
+    private float[]  _floatShadow;
+    private int[]  _intShadow;
+    private int  _length;
+
+    // The number of bytes uploaded by last update
+    private int  _uploadByteCount;
+
+    // The number of times storage has been allocated
+    private int  _allocCount;
+
+    // The staging buffer for sub-range uploads, per thread (each thread uploads only with its own context current)
+    private static final ThreadLocal<Staging>  _staging = ThreadLocal.withInitial(Staging::new);
+
+    // Constant for growth factor of capacity when values outgrow it
+    private static final double GROWTH_FACTOR = 1.5;
+
+    // Constant for value size in bytes (float and int are both 4)
+    private static final int VALUE_SIZE = Buffers.SIZEOF_FLOAT;
+
+    /**
+     * Constructor for given target (GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER).
+     */
+    public JGLBuffer(int aTarget)
+    {
+        _target = aTarget;
+    }
+
+    /**
+     * Returns the buffer id (or 0 if no values uploaded).
+     */
+    public int getId()  { return _id; }
+
+    /**
+     * Returns the number of values.
+     */
+    public int getLength()  { return _length; }
+
+    /**
+     * Returns the allocated capacity (in values).
+     */
+    public int getCapacity()  { return _capacity; }
+
+    /**
+     * Returns the number of bytes uploaded by last update.
+     */
+    public int getUploadByteCount()  { return _uploadByteCount; }
+
+    /**
+     * Returns the number of times storage has been allocated.
+     */
+    public int getAllocCount()  { return _allocCount; }
+
+    /**
+     * Updates buffer to given float values, uploading only the span that changed.
+     */
+    public void setValues(GL2 gl, float[] theValues)
+    {
+        // Get changed span
+        float[] shadow = _floatShadow;
+        int oldLength = _length, newLength = theValues.length;
+        int start = oldLength == 0 ? 0 : Arrays.mismatch(shadow, 0, oldLength, theValues, 0, newLength);
+        if (start < 0) { _uploadByteCount = 0; return; }
+        int end = newLength;
+        if (newLength == oldLength)
+            while (end > start && Float.floatToRawIntBits(shadow[end - 1]) == Float.floatToRawIntBits(theValues[end - 1]))
+                end--;
+
+        // Upload span
+        uploadSpan(gl, theValues, start, end);
+    }
+
+    /**
+     * Updates buffer to given float values, where caller knows only given range (in values) changed since last update,
+     * so no search for changed span is needed. Falls back to setValues() if length changed.
+     */
+    public void setValues(GL2 gl, float[] theValues, int aStart, int anEnd)
+    {
+        // If length changed (or no shadow), search for changed span
+        if (theValues.length != _length || _floatShadow == null) {
+            setValues(gl, theValues);
+            return;
+        }
+
+        // Upload given range
+        int start = Math.max(aStart, 0), end = Math.min(anEnd, theValues.length);
+        if (start >= end) { _uploadByteCount = 0; return; }
+        uploadSpan(gl, theValues, start, end);
+    }
+
+    /**
+     * Uploads given span of given float values and updates shadow.
+     */
+    private void uploadSpan(GL2 gl, float[] theValues, int aStart, int anEnd)
+    {
+        // Make sure storage fits (if reallocated, everything needs upload)
+        float[] shadow = _floatShadow;
+        int start = aStart, end = anEnd, newLength = theValues.length;
+        if (ensureCapacity(gl, newLength)) {
+            start = 0;
+            end = newLength;
+            shadow = null;
+        }
+
+        // Upload span and update shadow
+        if (start < end) {
+            FloatBuffer staging = _staging.get().getFloats(end - start);
+            staging.put(theValues, start, end - start).flip();
+            uploadStaging(gl, staging, start, end);
+        }
+        else _uploadByteCount = 0;
+        if (shadow == null || shadow.length < newLength)
+            _floatShadow = shadow = Arrays.copyOf(theValues, _capacity);
+        else System.arraycopy(theValues, start, shadow, start, end - start);
+        _length = newLength;
+    }
+
+    /**
+     * Updates buffer to given int values, uploading only the span that changed.
+     */
+    public void setValues(GL2 gl, int[] theValues)
+    {
+        // Get changed span
+        int[] shadow = _intShadow;
+        int oldLength = _length, newLength = theValues.length;
+        int start = oldLength == 0 ? 0 : Arrays.mismatch(shadow, 0, oldLength, theValues, 0, newLength);
+        if (start < 0) { _uploadByteCount = 0; return; }
+        int end = newLength;
+        if (newLength == oldLength)
+            while (end > start && shadow[end - 1] == theValues[end - 1])
+                end--;
+
+        // Make sure storage fits (if reallocated, everything needs upload)
+        if (ensureCapacity(gl, newLength)) {
+            start = 0;
+            end = newLength;
+            shadow = null;
+        }
+
+        // Upload span and update shadow
+        if (start < end) {
+            IntBuffer staging = _staging.get().getInts(end - start);
+            staging.put(theValues, start, end - start).flip();
+            uploadStaging(gl, staging, start, end);
+        }
+        else _uploadByteCount = 0;
+        if (shadow == null || shadow.length < newLength)
+            _intShadow = shadow = Arrays.copyOf(theValues, _capacity);
+        else System.arraycopy(theValues, start, shadow, start, end - start);
+        _length = newLength;
+    }
+
+    /**
+     * Makes sure buffer storage fits given number of values, growing geometrically (and shrinking if much too big).
+     * Returns true if storage was (re)allocated.
+     */
+    private boolean ensureCapacity(GL2 gl, int aLength)
+    {
+        // If fits (and not more than 4x too big), just return
+        if (_id != 0 && aLength <= _capacity && aLength >= _capacity / 4)
+            return false;
+
+        // Get new capacity: exact on first allocation, grown geometrically after
+        int capacity = _id == 0 || aLength < _capacity ? aLength : Math.max(aLength, (int) (_capacity * GROWTH_FACTOR));
+        if (_id == 0) {
+            int[] ids = { 0 };
+            gl.glGenBuffers(1, ids, 0);
+            _id = ids[0];
+        }
+
+        // Allocate storage (static on first allocation, dynamic once it has changed size)
+        int usage = _allocCount == 0 ? GL2.GL_STATIC_DRAW : GL2.GL_DYNAMIC_DRAW;
+        gl.glBindBuffer(_target, _id);
+        gl.glBufferData(_target, (long) Math.max(capacity, 1) * VALUE_SIZE, null, usage);
+        gl.glBindBuffer(_target, 0);
+        _capacity = capacity;
+        _allocCount++;
+
+        // Reset shadow (everything is uploaded after reallocation)
+        _floatShadow = null;
+        _intShadow = null;
+        _length = 0;
+        return true;
+    }
+
+    /**
+     * Uploads given staging buffer to given value range.
+     */
+    private void uploadStaging(GL2 gl, Buffer theStaging, int aStart, int anEnd)
+    {
+        int byteCount = (anEnd - aStart) * VALUE_SIZE;
+        gl.glBindBuffer(_target, _id);
+        gl.glBufferSubData(_target, (long) aStart * VALUE_SIZE, byteCount, theStaging);
+        gl.glBindBuffer(_target, 0);
+        _uploadByteCount = byteCount;
+    }
+
+    /**
+     * Releases GL resources.
+     */
+    public void dispose(GL2 gl)
+    {
+        if (_id != 0)
+            gl.glDeleteBuffers(1, new int[] { _id }, 0);
+        _id = _capacity = _length = 0;
+        _floatShadow = null;
+        _intShadow = null;
+    }
+
+    /**
+     * A direct staging buffer with float and int views (grown as needed).
+     */
+    private static class Staging {
+
+        // The direct buffer and its float and int views
+        private ByteBuffer  _bytes;
+        private FloatBuffer  _floats;
+        private IntBuffer  _ints;
+
+        /**
+         * Returns the float view with room for given number of values (cleared).
+         */
+        public FloatBuffer getFloats(int aLength)
+        {
+            ensureCapacity(aLength);
+            _floats.clear();
+            return _floats;
+        }
+
+        /**
+         * Returns the int view with room for given number of values (cleared).
+         */
+        public IntBuffer getInts(int aLength)
+        {
+            ensureCapacity(aLength);
+            _ints.clear();
+            return _ints;
+        }
+
+        /**
+         * Makes sure buffer has room for given number of values.
+         */
+        private void ensureCapacity(int aLength)
+        {
+            int byteCount = aLength * VALUE_SIZE;
+            if (_bytes != null && _bytes.capacity() >= byteCount)
+                return;
+            _bytes = ByteBuffer.allocateDirect(Math.max(byteCount, 64 * 1024)).order(ByteOrder.nativeOrder());
+            _floats = _bytes.asFloatBuffer();
+            _ints = _bytes.asIntBuffer();
+        }
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.common.nio.PointerBuffer;
+import com.jogamp.opengl.GL2;
+import snap.gfx.Color;
+import snap.gfx3d.VertexArray;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * This class packs many small VertexArrays into shared points, colors and index buffers (an arena), so arrays with
+ * the same draw state can be drawn with one glMultiDrawElements instead of one draw call each.
+ *
+ * Each VertexArray gets its own span of vertices and indexes (with some room to grow). When an array changes, only its
+ * spans are rewritten - nothing is merged or rebuilt. Indexes are stored rebased to the array's vertex span, and
+ * arrays without indexes or colors get sequential indexes and their color repeated per vertex, so all arrays draw with
+ * the same program. Arena buffers grow geometrically, keeping span offsets.
+ */
+public class JGLDrawArena {
+
+    // The buffer ids
+    private int  _pointsBufferId, _colorsBufferId, _indexBufferId;
+
+    // The vertex and index span allocators
+    private SpanAllocator  _vertexSpans = new SpanAllocator(), _indexSpans = new SpanAllocator();
+
+    // The entries for VertexArrays
+    private Map<VertexArray, Entry>  _entries = new IdentityHashMap<>();
+
+    // The current frame number and number of entries used in frame
+    private long  _frameNumber = 1;
+    private int  _frameEntryCount;
+
+    // The draw groups: single-sided and double-sided
+    private DrawGroup[]  _drawGroups = { new DrawGroup(false), new DrawGroup(true) };
+
+    // The number of bytes uploaded by last entry update
+    private int  _uploadByteCount;
+
+    // The staging buffers for uploads (grown as needed)
+    private FloatBuffer  _floatStaging;
+    private IntBuffer  _intStaging;
+
+    // Constant for initial capacity (in vertices and indexes)
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    /**
+     * Constructor.
+     */
+    public JGLDrawArena()  { }
+
+    /**
+     * Returns the points buffer id.
+     */
+    public int getPointsBufferId()  { return _pointsBufferId; }
+
+    /**
+     * Returns the colors buffer id.
+     */
+    public int getColorsBufferId()  { return _colorsBufferId; }
+
+    /**
+     * Returns the index buffer id.
+     */
+    public int getIndexBufferId()  { return _indexBufferId; }
+
+    /**
+     * Returns the number of VertexArrays in arena.
+     */
+    public int getEntryCount()  { return _entries.size(); }
+
+    /**
+     * Returns the number of bytes uploaded by last call to updateEntry().
+     */
+    public int getUploadByteCount()  { return _uploadByteCount; }
+
+    /**
+     * Returns the draw groups (single-sided and double-sided).
+     */
+    public DrawGroup[] getDrawGroups()  { return _drawGroups; }
+
+    /**
+     * Returns the entry for given VertexArray, adding it or rewriting its changed spans as needed.
+     */
+    public Entry updateEntry(GL2 gl, VertexArray aVA)
+    {
+        // Make sure buffers exist
+        _uploadByteCount = 0;
+        if (_pointsBufferId == 0)
+            createBuffers(gl);
+
+        // Get entry (create if missing) and mark used in frame
+        Entry entry = _entries.get(aVA);
+        if (entry == null)
+            _entries.put(aVA, entry = new Entry());
+        if (entry._frameNumber != _frameNumber) {
+            entry._frameNumber = _frameNumber;
+            _frameEntryCount++;
+        }
+
+        // Get arrays and check for changes (new arrays or arrays marked changed in place) - just return if none
+        float[] pointArray = aVA.getPointArray();
+        float[] colorArray = aVA.isColorArraySet() ? aVA.getColorArray() : null;
+        int[] indexArray = aVA.isIndexArraySet() ? aVA.getIndexArray() : null;
+        Color color = colorArray == null ? aVA.getColor() : null;
+        boolean arraysChanged = entry._arraysChanged;
+        entry._arraysChanged = false;
+        boolean pointsChanged = arraysChanged || pointArray != entry._pointArray;
+        boolean colorsChanged = arraysChanged || colorArray != entry._colorArray || !Objects.equals(color, entry._color);
+        boolean indexesChanged = arraysChanged || indexArray != entry._indexArray || pointsChanged && indexArray == null;
+        if (!pointsChanged && !colorsChanged && !indexesChanged)
+            return entry;
+
+        // Make sure vertex span fits (if moved, everything in it needs rewrite)
+        int vertexCount = pointArray.length / 3;
+        int indexCount = indexArray != null ? indexArray.length : vertexCount;
+        if (vertexCount > entry._vertexSpan || entry._vertexSpan == 0) {
+            _vertexSpans.free(entry._vertexStart, entry._vertexSpan);
+            entry._vertexSpan = getSpanLength(vertexCount);
+            entry._vertexStart = allocateVertices(gl, entry._vertexSpan, entry);
+            pointsChanged = colorsChanged = indexesChanged = true;
+        }
+
+        // Make sure index span fits
+        if (indexCount > entry._indexSpan || entry._indexSpan == 0) {
+            _indexSpans.free(entry._indexStart, entry._indexSpan);
+            entry._indexSpan = getSpanLength(indexCount);
+            entry._indexStart = allocateIndexes(gl, entry._indexSpan, entry);
+            indexesChanged = true;
+        }
+
+        // Update entry arrays and counts
+        entry._pointArray = pointArray;
+        entry._colorArray = colorArray;
+        entry._indexArray = indexArray;
+        entry._color = color;
+        entry._vertexCount = vertexCount;
+        entry._indexCount = indexCount;
+
+        // Write changed spans
+        if (pointsChanged) {
+            writePoints(gl, entry);
+            entry.updateBounds();
+        }
+        if (colorsChanged)
+            writeColors(gl, entry);
+        if (indexesChanged)
+            writeIndexes(gl, entry);
+        return entry;
+    }
+
+    /**
+     * Marks arrays of given VertexArray as changed in place, so next call to updateEntry() rewrites its spans.
+     */
+    public void entryChanged(VertexArray aVA)
+    {
+        Entry entry = _entries.get(aVA);
+        if (entry != null)
+            entry._arraysChanged = true;
+    }
+
+    /**
+     * Adds given entry to draw group for given sidedness.
+     */
+    public void addDraw(Entry anEntry, boolean isDoubleSided)
+    {
+        DrawGroup drawGroup = _drawGroups[isDoubleSided ? 1 : 0];
+        drawGroup.add(anEntry._indexCount, (long) anEntry._indexStart * Buffers.SIZEOF_INT);
+    }
+
+    /**
+     * Releases spans of VertexArrays not used since last call and starts a new frame.
+     */
+    public void releaseUnused()
+    {
+        // If any entries unused in frame, remove them and free spans
+        if (_frameEntryCount != _entries.size()) {
+            for (Iterator<Entry> iter = _entries.values().iterator(); iter.hasNext(); ) {
+                Entry entry = iter.next();
+                if (entry._frameNumber != _frameNumber) {
+                    _vertexSpans.free(entry._vertexStart, entry._vertexSpan);
+                    _indexSpans.free(entry._indexStart, entry._indexSpan);
+                    iter.remove();
+                }
+            }
+        }
+
+        // Start new frame
+        _frameNumber++;
+        _frameEntryCount = 0;
+    }
+
+    /**
+     * Creates the buffers with initial capacity.
+     */
+    private void createBuffers(GL2 gl)
+    {
+        int[] ids = new int[3];
+        gl.glGenBuffers(3, ids, 0);
+        _pointsBufferId = ids[0];
+        _colorsBufferId = ids[1];
+        _indexBufferId = ids[2];
+        _vertexSpans._capacity = _indexSpans._capacity = INITIAL_CAPACITY;
+        allocateStorage(gl, GL2.GL_ARRAY_BUFFER, _pointsBufferId, INITIAL_CAPACITY * 3);
+        allocateStorage(gl, GL2.GL_ARRAY_BUFFER, _colorsBufferId, INITIAL_CAPACITY * 3);
+        allocateStorage(gl, GL2.GL_ELEMENT_ARRAY_BUFFER, _indexBufferId, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Allocates a vertex span of given length for given entry, growing points and colors buffers if needed.
+     */
+    private int allocateVertices(GL2 gl, int aLength, Entry anEntry)
+    {
+        // Try to allocate (just return if fits)
+        int start = _vertexSpans.allocate(aLength);
+        if (start >= 0)
+            return start;
+
+        // Grow buffers (keeping span offsets) and rewrite vertices of other entries
+        int capacity = Math.max(_vertexSpans._capacity * 2, _vertexSpans._end + aLength);
+        _vertexSpans._capacity = capacity;
+        allocateStorage(gl, GL2.GL_ARRAY_BUFFER, _pointsBufferId, capacity * 3);
+        allocateStorage(gl, GL2.GL_ARRAY_BUFFER, _colorsBufferId, capacity * 3);
+        for (Entry entry : _entries.values()) {
+            if (entry != anEntry && entry._pointArray != null) {
+                writePoints(gl, entry);
+                writeColors(gl, entry);
+            }
+        }
+        return _vertexSpans.allocate(aLength);
+    }
+
+    /**
+     * Allocates an index span of given length for given entry, growing index buffer if needed.
+     */
+    private int allocateIndexes(GL2 gl, int aLength, Entry anEntry)
+    {
+        // Try to allocate (just return if fits)
+        int start = _indexSpans.allocate(aLength);
+        if (start >= 0)
+            return start;
+
+        // Grow buffer (keeping span offsets) and rewrite indexes of other entries
+        int capacity = Math.max(_indexSpans._capacity * 2, _indexSpans._end + aLength);
+        _indexSpans._capacity = capacity;
+        allocateStorage(gl, GL2.GL_ELEMENT_ARRAY_BUFFER, _indexBufferId, capacity);
+        for (Entry entry : _entries.values()) {
+            if (entry != anEntry && entry._pointArray != null)
+                writeIndexes(gl, entry);
+        }
+        return _indexSpans.allocate(aLength);
+    }
+
+    /**
+     * Allocates storage for given number of 4-byte values for given buffer (contents undefined).
+     */
+    private static void allocateStorage(GL2 gl, int aTarget, int aBufferId, int aCount)
+    {
+        gl.glBindBuffer(aTarget, aBufferId);
+        gl.glBufferData(aTarget, (long) aCount * Buffers.SIZEOF_FLOAT, null, GL2.GL_DYNAMIC_DRAW);
+        gl.glBindBuffer(aTarget, 0);
+    }
+
+    /**
+     * Writes points of given entry to its vertex span.
+     */
+    private void writePoints(GL2 gl, Entry anEntry)
+    {
+        FloatBuffer staging = getFloatStaging(anEntry._pointArray.length);
+        staging.put(anEntry._pointArray).flip();
+        writeFloats(gl, _pointsBufferId, anEntry._vertexStart * 3, staging);
+    }
+
+    /**
+     * Writes colors of given entry to its vertex span (repeating entry color if no color array).
+     */
+    private void writeColors(GL2 gl, Entry anEntry)
+    {
+        // Get colors from color array or entry color
+        int floatCount = anEntry._vertexCount * 3;
+        FloatBuffer staging = getFloatStaging(floatCount);
+        if (anEntry._colorArray != null)
+            staging.put(anEntry._colorArray, 0, Math.min(anEntry._colorArray.length, floatCount));
+        else {
+            Color color = anEntry._color != null ? anEntry._color : Color.BLACK;
+            float red = (float) color.getRed(), green = (float) color.getGreen(), blue = (float) color.getBlue();
+            for (int i = 0; i < anEntry._vertexCount; i++)
+                staging.put(red).put(green).put(blue);
+        }
+
+        // Write
+        staging.flip();
+        writeFloats(gl, _colorsBufferId, anEntry._vertexStart * 3, staging);
+    }
+
+    /**
+     * Writes indexes of given entry (rebased to its vertex span, or sequential if no index array) to its index span.
+     */
+    private void writeIndexes(GL2 gl, Entry anEntry)
+    {
+        // Get rebased indexes
+        int indexCount = anEntry._indexCount, base = anEntry._vertexStart;
+        IntBuffer staging = getIntStaging(indexCount);
+        int[] indexArray = anEntry._indexArray;
+        for (int i = 0; i < indexCount; i++)
+            staging.put(base + (indexArray != null ? indexArray[i] : i));
+        staging.flip();
+
+        // Write
+        int byteCount = indexCount * Buffers.SIZEOF_INT;
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, _indexBufferId);
+        gl.glBufferSubData(GL2.GL_ELEMENT_ARRAY_BUFFER, (long) anEntry._indexStart * Buffers.SIZEOF_INT, byteCount, staging);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+        _uploadByteCount += byteCount;
+    }
+
+    /**
+     * Writes given floats to given array buffer at given float offset.
+     */
+    private void writeFloats(GL2 gl, int aBufferId, int anOffset, FloatBuffer theFloats)
+    {
+        int byteCount = theFloats.remaining() * Buffers.SIZEOF_FLOAT;
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, aBufferId);
+        gl.glBufferSubData(GL2.GL_ARRAY_BUFFER, (long) anOffset * Buffers.SIZEOF_FLOAT, byteCount, theFloats);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        _uploadByteCount += byteCount;
+    }
+
+    /**
+     * Returns the float staging buffer with at least given capacity, cleared.
+     */
+    private FloatBuffer getFloatStaging(int aCapacity)
+    {
+        if (_floatStaging == null || _floatStaging.capacity() < aCapacity)
+            _floatStaging = Buffers.newDirectFloatBuffer(Math.max(aCapacity, 1024));
+        _floatStaging.clear();
+        return _floatStaging;
+    }
+
+    /**
+     * Returns the int staging buffer with at least given capacity, cleared.
+     */
+    private IntBuffer getIntStaging(int aCapacity)
+    {
+        if (_intStaging == null || _intStaging.capacity() < aCapacity)
+            _intStaging = Buffers.newDirectIntBuffer(Math.max(aCapacity, 1024));
+        _intStaging.clear();
+        return _intStaging;
+    }
+
+    /**
+     * Returns the span length to allocate for given count (with a quarter extra, so small appends don't move spans).
+     */
+    private static int getSpanLength(int aCount)  { return Math.max(aCount + (aCount >> 2), 1); }
+
+    /**
+     * Releases GL resources.
+     */
+    public void dispose(GL2 gl)
+    {
+        if (_pointsBufferId != 0)
+            gl.glDeleteBuffers(3, new int[] { _pointsBufferId, _colorsBufferId, _indexBufferId }, 0);
+        _pointsBufferId = _colorsBufferId = _indexBufferId = 0;
+        _vertexSpans = new SpanAllocator();
+        _indexSpans = new SpanAllocator();
+        _entries.clear();
+        _frameEntryCount = 0;
+        for (DrawGroup drawGroup : _drawGroups)
+            drawGroup.clear();
+    }
+
+    /**
+     * An arena entry for a VertexArray.
+     */
+    public static class Entry {
+
+        // The arrays last written (to detect changes) and color (if no color array)
+        private float[]  _pointArray, _colorArray;
+        private int[]  _indexArray;
+        private Color  _color;
+
+        // Whether arrays were changed in place since last written
+        private boolean  _arraysChanged;
+
+        // The vertex span start, length and number of vertices used
+        private int  _vertexStart, _vertexSpan, _vertexCount;
+
+        // The index span start, length and number of indexes used
+        private int  _indexStart, _indexSpan, _indexCount;
+
+        // The bounds of points (minX, minY, minZ, maxX, maxY, maxZ)
+        private double[]  _bounds = new double[6];
+
+        // The frame number entry was last used
+        private long  _frameNumber;
+
+        /**
+         * Returns the number of indexes.
+         */
+        public int getIndexCount()  { return _indexCount; }
+
+        /**
+         * Returns the bounds of points as minX, minY, minZ, maxX, maxY, maxZ.
+         */
+        public double[] getBounds()  { return _bounds; }
+
+        /**
+         * Updates bounds from point array.
+         */
+        private void updateBounds()
+        {
+            // Reset bounds to empty
+            double[] bounds = _bounds;
+            bounds[0] = bounds[1] = bounds[2] = Double.POSITIVE_INFINITY;
+            bounds[3] = bounds[4] = bounds[5] = Double.NEGATIVE_INFINITY;
+
+            // Extend by points
+            float[] points = _pointArray;
+            for (int i = 0; i + 2 < points.length; i += 3) {
+                for (int j = 0; j < 3; j++) {
+                    double value = points[i + j];
+                    if (value < bounds[j]) bounds[j] = value;
+                    if (value > bounds[j + 3]) bounds[j + 3] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * A list of index ranges (counts and byte offsets) drawn with one glMultiDrawElements.
+     */
+    public static class DrawGroup {
+
+        // Whether group is double-sided
+        private final boolean  _doubleSided;
+
+        // The index counts and byte offsets
+        private IntBuffer  _counts = Buffers.newDirectIntBuffer(256);
+        private PointerBuffer  _offsets = PointerBuffer.allocateDirect(256);
+
+        // The number of ranges and total indexes
+        private int  _drawCount, _indexCount;
+
+        /**
+         * Constructor.
+         */
+        DrawGroup(boolean isDoubleSided)  { _doubleSided = isDoubleSided; }
+
+        /**
+         * Returns whether group is double-sided.
+         */
+        public boolean isDoubleSided()  { return _doubleSided; }
+
+        /**
+         * Returns the index counts (from 0 to draw count).
+         */
+        public IntBuffer getCounts()  { return _counts; }
+
+        /**
+         * Returns the index byte offsets (from 0 to draw count).
+         */
+        public PointerBuffer getOffsets()  { return _offsets; }
+
+        /**
+         * Returns the number of ranges.
+         */
+        public int getDrawCount()  { return _drawCount; }
+
+        /**
+         * Returns the total number of indexes.
+         */
+        public int getIndexCount()  { return _indexCount; }
+
+        /**
+         * Adds a range.
+         */
+        void add(int aCount, long anOffset)
+        {
+            // Make sure buffers have room
+            if (_drawCount == _counts.capacity()) {
+                IntBuffer counts = Buffers.newDirectIntBuffer(_drawCount * 2);
+                PointerBuffer offsets = PointerBuffer.allocateDirect(_drawCount * 2);
+                for (int i = 0; i < _drawCount; i++) {
+                    counts.put(i, _counts.get(i));
+                    offsets.put(i, _offsets.get(i));
+                }
+                _counts = counts;
+                _offsets = offsets;
+            }
+
+            // Add range
+            _counts.put(_drawCount, aCount);
+            _offsets.put(_drawCount, anOffset);
+            _drawCount++;
+            _indexCount += aCount;
+        }
+
+        /**
+         * Removes all ranges.
+         */
+        public void clear()  { _drawCount = _indexCount = 0; }
+    }
+
+    /**
+     * Allocates spans of a fixed capacity with first-fit from freed spans (coalesced), else from end.
+     */
+    private static class SpanAllocator {
+
+        // The capacity and end of allocated spans
+        int  _capacity, _end;
+
+        // The free spans before end (start to length)
+        TreeMap<Integer, Integer>  _freeSpans = new TreeMap<>();
+
+        /**
+         * Allocates span of given length and returns start (or -1 if no room).
+         */
+        int allocate(int aLength)
+        {
+            // Look for free span that fits
+            for (Map.Entry<Integer, Integer> freeSpan : _freeSpans.entrySet()) {
+                int start = freeSpan.getKey(), length = freeSpan.getValue();
+                if (length >= aLength) {
+                    _freeSpans.remove(start);
+                    if (length > aLength)
+                        _freeSpans.put(start + aLength, length - aLength);
+                    return start;
+                }
+            }
+
+            // Allocate at end (if room)
+            if (_end + aLength > _capacity)
+                return -1;
+            int start = _end;
+            _end += aLength;
+            return start;
+        }
+
+        /**
+         * Frees span at given start with given length (merging with neighbors).
+         */
+        void free(int aStart, int aLength)
+        {
+            // If empty, just return
+            if (aLength <= 0) return;
+
+            // Merge with previous and next free spans
+            int start = aStart, end = aStart + aLength;
+            Map.Entry<Integer, Integer> prev = _freeSpans.floorEntry(start);
+            if (prev != null && prev.getKey() + prev.getValue() == start) {
+                start = prev.getKey();
+                _freeSpans.remove(start);
+            }
+            Integer nextLength = _freeSpans.remove(end);
+            if (nextLength != null)
+                end += nextLength;
+
+            // If span reaches end, lower end, otherwise add free span
+            if (end == _end)
+                _end = start;
+            else _freeSpans.put(start, end - start);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * This class exports an animation (e.g., a camera fly-through) as a PNG sequence. Frames are rendered and read back
+ * on the calling (GL) thread into recycled pixel buffers, which are handed through a bounded queue to a pool of
+ * encoder threads, so GPU rendering of one frame overlaps with PNG encoding of earlier frames.
+ *
+ * The number of pixel buffers bounds the frames in flight. When all buffers are waiting to be encoded, the render
+ * thread blocks until one is recycled; these back-pressure stalls are counted and timed. If an encoder fails (with any
+ * exception), rendering stops and the export throws the first error.
+ */
+public class JGLFrameExporter {
+
+    // The RenderImage to render frames with
+    private RenderImage  _renderImage;
+
+    // The number of encoder threads
+    private int  _encoderCount;
+
+    // The number of pixel buffers (frames in flight)
+    private int  _bufferCount;
+
+    // The queue of frames waiting to be encoded
+    private BlockingQueue<Frame>  _encodeQueue;
+
+    // The queue of free frames (recycled pixel buffers)
+    private BlockingQueue<Frame>  _freeQueue;
+
+    // The encoder threads of current export
+    private Thread[]  _encoders = new Thread[0];
+
+    // The first encoder error
+    private AtomicReference<Throwable>  _error = new AtomicReference<>();
+
+    // Stats: number of frames rendered/encoded, number of stalls
+    private int  _renderedCount, _stallCount;
+    private AtomicInteger  _encodedCount = new AtomicInteger();
+
+    // Stats: time spent rendering, stalled and total (in nanos)
+    private long  _renderTime, _stallTime, _totalTime;
+
+    // Constant for frame that tells encoder thread to stop
+    private static final Frame END_FRAME = new Frame(0);
+
+    /**
+     * Constructor for given RenderImage (with renderer set) and number of encoder threads.
+     */
+    public JGLFrameExporter(RenderImage aRenderImage, int anEncoderCount)
+    {
+        _renderImage = aRenderImage;
+        _encoderCount = anEncoderCount;
+        _bufferCount = anEncoderCount * 2 + 1;
+    }
+
+    /**
+     * Returns the RenderImage.
+     */
+    public RenderImage getRenderImage()  { return _renderImage; }
+
+    /**
+     * Returns the number of encoder threads.
+     */
+    public int getEncoderCount()  { return _encoderCount; }
+
+    /**
+     * Returns the number of pixel buffers (frames in flight).
+     */
+    public int getBufferCount()  { return _bufferCount; }
+
+    /**
+     * Sets the number of pixel buffers (frames in flight).
+     */
+    public void setBufferCount(int aValue)  { _bufferCount = Math.max(aValue, 1); }
+
+    /**
+     * Renders given number of frames to files in given directory named with given prefix and frame number
+     * (e.g. "frame00042.png"). The frame updater is called on this thread before each frame to update camera/scene.
+     * If this thread is interrupted, rendering stops, queued frames are still encoded and the interrupt status is kept.
+     */
+    public void exportPNGs(int aFrameCount, IntConsumer aFrameUpdater, File aDir, String aPrefix) throws IOException
+    {
+        // Reset stats and create queues
+        resetStats();
+        _encodeQueue = new ArrayBlockingQueue<>(_bufferCount + _encoderCount);
+        _freeQueue = new ArrayBlockingQueue<>(_bufferCount);
+        int pixW = _renderImage.getPixelWidth();
+        int pixH = _renderImage.getPixelHeight();
+        for (int i = 0; i < _bufferCount; i++)
+            _freeQueue.add(new Frame(pixW * pixH));
+
+        // Start encoder threads
+        Thread[] encoders = _encoders = new Thread[_encoderCount];
+        for (int i = 0; i < _encoderCount; i++) {
+            encoders[i] = new Thread(() -> runEncoder(aDir, aPrefix), "JGLFrameExporter-" + (i + 1));
+            encoders[i].setDaemon(true);
+            encoders[i].start();
+        }
+
+        // Render frames (stop early if encoder failed or this thread was interrupted to cancel)
+        long startTime = System.nanoTime();
+        try {
+            for (int i = 0; i < aFrameCount && _error.get() == null && !Thread.currentThread().isInterrupted(); i++)
+                renderFrame(i, aFrameUpdater);
+        }
+
+        // Stop encoders and wait for them to finish queued frames
+        finally {
+            for (int i = 0; i < _encoderCount; i++)
+                putUninterruptibly(_encodeQueue, END_FRAME);
+            for (Thread encoder : encoders)
+                joinUninterruptibly(encoder);
+            _totalTime = System.nanoTime() - startTime;
+        }
+
+        // If an encoder failed, throw error
+        Throwable error = _error.get();
+        if (error instanceof IOException)
+            throw (IOException) error;
+        if (error instanceof RuntimeException)
+            throw (RuntimeException) error;
+        if (error instanceof Error)
+            throw (Error) error;
+        if (error != null)
+            throw new IOException(error);
+    }
+
+    /**
+     * Renders given frame and queues it for encoding. Does nothing if no free frame arrives (encoder failed or stopped,
+     * or this thread was interrupted while stalled). Throws if render fails, so stale pixels are never encoded.
+     */
+    protected void renderFrame(int anIndex, IntConsumer aFrameUpdater)
+    {
+        // Get free frame (if none available, stall until encoder recycles one)
+        Frame frame = _freeQueue.poll();
+        if (frame == null) {
+            long stallStart = System.nanoTime();
+            frame = takeFreeFrame();
+            _stallTime += System.nanoTime() - stallStart;
+            _stallCount++;
+            if (frame == null)
+                return;
+        }
+
+        // Update frame, render and read pixels
+        long renderStart = System.nanoTime();
+        if (aFrameUpdater != null)
+            aFrameUpdater.accept(anIndex);
+        _renderImage.renderOrThrow();
+        frame._width = _renderImage.getPixelWidth();
+        frame._height = _renderImage.getPixelHeight();
+        frame.ensureCapacity(frame._width * frame._height);
+        _renderImage.readPixels(frame._pixels, 0, frame._width);
+        _renderTime += System.nanoTime() - renderStart;
+        _renderedCount++;
+
+        // Queue for encoding
+        frame._index = anIndex;
+        putUninterruptibly(_encodeQueue, frame);
+    }
+
+    /**
+     * Runs an encoder thread: takes frames from encode queue, writes them and recycles buffers until END_FRAME.
+     */
+    private void runEncoder(File aDir, String aPrefix)
+    {
+        while (true) {
+
+            // Get next frame (just return if end)
+            Frame frame = takeUninterruptibly(_encodeQueue);
+            if (frame == END_FRAME)
+                return;
+
+            // Encode frame (unless previous error), recording any error and always recycling frame
+            try {
+                if (_error.get() == null) {
+                    File file = new File(aDir, aPrefix + String.format("%05d", frame._index) + ".png");
+                    encodeFrame(frame, file);
+                }
+            }
+            catch (Throwable e) { _error.compareAndSet(null, e); }
+            finally { _freeQueue.add(frame); }
+        }
+    }
+
+    /**
+     * Waits for an encoder to recycle a free frame. Returns null if an encoder failed, no encoder is running or this
+     * thread is interrupted (interrupt status is kept), so the render thread can never wait forever.
+     */
+    private Frame takeFreeFrame()
+    {
+        while (_error.get() == null && isEncoderAlive()) {
+            try {
+                Frame frame = _freeQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame != null)
+                    return frame;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether any encoder thread of current export is running.
+     */
+    private boolean isEncoderAlive()
+    {
+        for (Thread encoder : _encoders)
+            if (encoder.isAlive())
+                return true;
+        return false;
+    }
+
+    /**
+     * Writes given frame as PNG to given file.
+     */
+    protected void encodeFrame(Frame aFrame, File aFile) throws IOException
+    {
+        OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(aFile), 64 * 1024);
+        try (PNGRowWriter pngWriter = new PNGRowWriter(fileOut, aFrame._width, aFrame._height)) {
+            pngWriter.writeRows(aFrame._pixels, aFrame._height, aFrame._width);
+        }
+        _encodedCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of frames rendered in last export.
+     */
+    public int getRenderedCount()  { return _renderedCount; }
+
+    /**
+     * Returns the number of frames encoded in last export.
+     */
+    public int getEncodedCount()  { return _encodedCount.get(); }
+
+    /**
+     * Returns the number of times the render thread stalled waiting for a free pixel buffer.
+     */
+    public int getStallCount()  { return _stallCount; }
+
+    /**
+     * Returns the total time the render thread stalled waiting for a free pixel buffer (in millis).
+     */
+    public double getStallMillis()  { return _stallTime / 1e6; }
+
+    /**
+     * Returns the total time spent rendering and reading back frames (in millis).
+     */
+    public double getRenderMillis()  { return _renderTime / 1e6; }
+
+    /**
+     * Returns the frames per second of last export (from start until last frame encoded).
+     */
+    public double getFramesPerSecond()
+    {
+        return _totalTime > 0 ? _encodedCount.get() * 1e9 / _totalTime : 0;
+    }
+
+    /**
+     * Returns a string of stats for last export.
+     */
+    public String getStatsString()
+    {
+        return String.format("Frames: %d, FPS: %.1f, Render: %.1f ms/frame, Stalls: %d (%.1f ms)",
+            _encodedCount.get(), getFramesPerSecond(), _renderedCount > 0 ? getRenderMillis() / _renderedCount : 0,
+            _stallCount, getStallMillis());
+    }
+
+    /**
+     * Resets the stats.
+     */
+    public void resetStats()
+    {
+        _renderedCount = _stallCount = 0;
+        _encodedCount.set(0);
+        _renderTime = _stallTime = _totalTime = 0;
+        _error.set(null);
+    }
+
+    /**
+     * Takes from given queue, deferring interrupts (interrupt status is restored before returning).
+     */
+    private static <T> T takeUninterruptibly(BlockingQueue<T> aQueue)
+    {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try { return aQueue.take(); }
+                catch (InterruptedException e) { interrupted = true; }
+            }
+        }
+        finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts to given queue, deferring interrupts (interrupt status is restored before returning).
+     */
+    private static <T> void putUninterruptibly(BlockingQueue<T> aQueue, T anItem)
+    {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try { aQueue.put(anItem); return; }
+                catch (InterruptedException e) { interrupted = true; }
+            }
+        }
+        finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Joins given thread, deferring interrupts (interrupt status is restored before returning).
+     */
+    private static void joinUninterruptibly(Thread aThread)
+    {
+        boolean interrupted = false;
+        while (aThread.isAlive()) {
+            try { aThread.join(TimeUnit.SECONDS.toMillis(1)); }
+            catch (InterruptedException e) { interrupted = true; }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * A frame: a recycled pixel buffer with frame index and size.
+     */
+    protected static class Frame {
+
+        // The frame index
+        private int  _index;
+
+        // The pixel size
+        private int  _width, _height;
+
+        // The ARGB pixels (top row first)
+        private int[]  _pixels;
+
+        /**
+         * Constructor for given pixel capacity.
+         */
+        private Frame(int aCapacity)  { _pixels = new int[aCapacity]; }
+
+        /**
+         * Makes sure pixel buffer can hold given number of pixels.
+         */
+        private void ensureCapacity(int aCount)
+        {
+            if (_pixels.length < aCount)
+                _pixels = new int[aCount];
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+
+/**
+ * This class represents an OpenGL framebuffer object with color and depth renderbuffers. If sample count is
+ * greater than zero, the draw framebuffer is multi-sampled and is resolved to a single-sample framebuffer for reading.
+ * Otherwise, the color attachment can optionally be a texture, so it can be sampled by a post-process pass.
+ */
+public class JGLFramebuffer {
+
+    // The requested number of samples (0 for no multi-sampling)
+    private int  _sampleCount;
+
+    // The number of samples actually allocated (clamped to GL max)
+    private int  _allocSampleCount;
+
+    // Whether color attachment is a texture
+    private boolean  _colorTexture;
+
+    // The allocated size
+    private int  _width, _height;
+
+    // The framebuffer that gets rendered to
+    private int  _drawFboId;
+
+    // The color and depth renderbuffers for draw framebuffer
+    private int  _colorBufferId, _depthBufferId;
+
+    // The color texture for draw framebuffer (if color texture)
+    private int  _colorTextureId;
+
+    // The single-sample framebuffer and color renderbuffer that multi-sampled framebuffer resolves to
+    private int  _resolveFboId, _resolveColorBufferId;
+
+    /**
+     * Constructor for given sample count.
+     */
+    public JGLFramebuffer(int aSampleCount)
+    {
+        _sampleCount = Math.max(aSampleCount, 0);
+    }
+
+    /**
+     * Constructor for single-sample framebuffer with color texture.
+     */
+    public JGLFramebuffer(boolean isColorTexture)
+    {
+        _colorTexture = isColorTexture;
+    }
+
+    /**
+     * Returns the number of samples (0 for no multi-sampling).
+     */
+    public int getSampleCount()  { return _sampleCount; }
+
+    /**
+     * Returns whether framebuffer is multi-sampled.
+     */
+    public boolean isMultisampled()  { return _allocSampleCount > 0; }
+
+    /**
+     * Returns whether color attachment is a texture.
+     */
+    public boolean isColorTexture()  { return _colorTexture; }
+
+    /**
+     * Returns the color texture id (if color texture).
+     */
+    public int getColorTextureId()  { return _colorTextureId; }
+
+    /**
+     * Returns the allocated width.
+     */
+    public int getWidth()  { return _width; }
+
+    /**
+     * Returns the allocated height.
+     */
+    public int getHeight()  { return _height; }
+
+    /**
+     * Returns whether framebuffer has been allocated.
+     */
+    public boolean isAllocated()  { return _drawFboId != 0; }
+
+    /**
+     * Makes sure framebuffer is allocated at given size.
+     */
+    public void setSize(GL2 gl, int aWidth, int aHeight)
+    {
+        // If already at size, just return
+        if (isAllocated() && aWidth == _width && aHeight == _height) return;
+
+        // Release old buffers and create new
+        dispose(gl);
+        _width = Math.max(aWidth, 1);
+        _height = Math.max(aHeight, 1);
+
+        // Clamp sample count to what GL supports
+        _allocSampleCount = _sampleCount;
+        if (_sampleCount > 0) {
+            int[] maxSamples = { 0 };
+            gl.glGetIntegerv(GL2.GL_MAX_SAMPLES, maxSamples, 0);
+            _allocSampleCount = Math.min(_sampleCount, maxSamples[0]);
+        }
+
+        // Create draw framebuffer
+        _drawFboId = genFramebuffer(gl);
+        _depthBufferId = genRenderbuffer(gl, GL2.GL_DEPTH_COMPONENT24, _allocSampleCount);
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, _drawFboId);
+
+        // Attach color texture or renderbuffer
+        if (_colorTexture) {
+            _colorTextureId = genColorTexture(gl);
+            gl.glFramebufferTexture2D(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0, GL2.GL_TEXTURE_2D, _colorTextureId, 0);
+        }
+        else {
+            _colorBufferId = genRenderbuffer(gl, GL2.GL_RGBA8, _allocSampleCount);
+            gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0, GL2.GL_RENDERBUFFER, _colorBufferId);
+        }
+        gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_DEPTH_ATTACHMENT, GL2.GL_RENDERBUFFER, _depthBufferId);
+        checkStatus(gl, "draw");
+
+        // If multi-sampled, create resolve framebuffer
+        if (_allocSampleCount > 0) {
+            _resolveFboId = genFramebuffer(gl);
+            _resolveColorBufferId = genRenderbuffer(gl, GL2.GL_RGBA8, 0);
+            gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, _resolveFboId);
+            gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0, GL2.GL_RENDERBUFFER, _resolveColorBufferId);
+            checkStatus(gl, "resolve");
+        }
+
+        // Leave draw framebuffer bound
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, _drawFboId);
+    }
+
+    /**
+     * Binds the framebuffer for drawing.
+     */
+    public void bindForDraw(GL2 gl)
+    {
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, _drawFboId);
+    }
+
+    /**
+     * Binds the framebuffer for reading. If multi-sampled, this first resolves with a single framebuffer blit.
+     */
+    public void bindForRead(GL2 gl)
+    {
+        bindForRead(gl, _width, _height);
+    }
+
+    /**
+     * Binds the framebuffer for reading, resolving only given area from origin if multi-sampled.
+     */
+    public void bindForRead(GL2 gl, int aWidth, int aHeight)
+    {
+        // If not multi-sampled, just bind draw framebuffer for read
+        if (_allocSampleCount == 0) {
+            gl.glBindFramebuffer(GL2.GL_READ_FRAMEBUFFER, _drawFboId);
+            return;
+        }
+
+        // Resolve multi-sampled framebuffer with blit
+        gl.glBindFramebuffer(GL2.GL_READ_FRAMEBUFFER, _drawFboId);
+        gl.glBindFramebuffer(GL2.GL_DRAW_FRAMEBUFFER, _resolveFboId);
+        gl.glBlitFramebuffer(0, 0, aWidth, aHeight, 0, 0, aWidth, aHeight, GL2.GL_COLOR_BUFFER_BIT, GL2.GL_NEAREST);
+
+        // Bind resolved framebuffer for read
+        gl.glBindFramebuffer(GL2.GL_READ_FRAMEBUFFER, _resolveFboId);
+    }
+
+    /**
+     * Releases GL resources.
+     */
+    public void dispose(GL2 gl)
+    {
+        // If not allocated, just return
+        if (!isAllocated()) return;
+
+        // Delete framebuffers and renderbuffers
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, 0);
+        int[] fboIds = { _drawFboId, _resolveFboId };
+        int[] bufferIds = { _colorBufferId, _depthBufferId, _resolveColorBufferId };
+        gl.glDeleteFramebuffers(fboIds.length, fboIds, 0);
+        gl.glDeleteRenderbuffers(bufferIds.length, bufferIds, 0);
+        if (_colorTextureId != 0)
+            gl.glDeleteTextures(1, new int[] { _colorTextureId }, 0);
+
+        // Clear vars
+        _drawFboId = _resolveFboId = _colorTextureId = 0;
+        _colorBufferId = _depthBufferId = _resolveColorBufferId = 0;
+        _width = _height = 0;
+    }
+
+    /**
+     * Creates a new framebuffer id.
+     */
+    private static int genFramebuffer(GL2 gl)
+    {
+        int[] ids = { 0 };
+        gl.glGenFramebuffers(1, ids, 0);
+        return ids[0];
+    }
+
+    /**
+     * Creates a new renderbuffer for given format and sample count.
+     */
+    private int genRenderbuffer(GL2 gl, int aFormat, int aSampleCount)
+    {
+        int[] ids = { 0 };
+        gl.glGenRenderbuffers(1, ids, 0);
+        gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, ids[0]);
+        if (aSampleCount > 0)
+            gl.glRenderbufferStorageMultisample(GL2.GL_RENDERBUFFER, aSampleCount, aFormat, _width, _height);
+        else gl.glRenderbufferStorage(GL2.GL_RENDERBUFFER, aFormat, _width, _height);
+        gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, 0);
+        return ids[0];
+    }
+
+    /**
+     * Creates a new color texture for current size.
+     */
+    private int genColorTexture(GL2 gl)
+    {
+        int[] ids = { 0 };
+        gl.glGenTextures(1, ids, 0);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, ids[0]);
+        gl.glTexImage2D(GL2.GL_TEXTURE_2D, 0, GL2.GL_RGBA8, _width, _height, 0, GL2.GL_RGBA, GL2.GL_UNSIGNED_BYTE, null);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP_TO_EDGE);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        return ids[0];
+    }
+
+    /**
+     * Checks framebuffer status and complains if incomplete.
+     */
+    private static void checkStatus(GL2 gl, String aName)
+    {
+        int status = gl.glCheckFramebufferStatus(GL2.GL_FRAMEBUFFER);
+        if (status != GL2.GL_FRAMEBUFFER_COMPLETE)
+            System.err.println("JGLFramebuffer: Incomplete " + aName + " framebuffer: 0x" + Integer.toHexString(status));
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import snap.gfx.Color;
+
+/**
+ * This class draws a set of lines as cylinders (e.g. edges of network/graph charts) in a single instanced draw call.
+ * Line endpoints, radii and colors are uploaded once to an instance buffer (and again only the span that changed), and
+ * each instance transforms a unit-cylinder mesh that is shared by all line sets in a context. Radii or colors that no
+ * longer match the line count (after setPoints()) are ignored and the default radius or color is used.
+ */
+public class JGLLineSet extends JGLPrimitive {
+
+    // The line endpoints (x0, y0, z0, x1, y1, z1 per line)
+    private float[]  _points = new float[0];
+
+    // The radius for each line (or null to use default radius)
+    private float[]  _radii;
+
+    // The color for each line as RGB (or null to use default color)
+    private float[]  _colors;
+
+    // The default radius and color
+    private double  _radius = 1;
+    private Color  _color = Color.BLACK;
+
+    // The interleaved instance values and the instance buffer (uploads only the span that changed)
+    private float[]  _instanceValues = new float[0];
+    private JGLBuffer  _instanceBuffer = new JGLBuffer(GL2.GL_ARRAY_BUFFER);
+
+    // Whether instance buffer needs upload
+    private boolean  _instancesChanged = true;
+
+    // Constant for number of sides of cylinder
+    public static final int SLICES = 8;
+
+    // Constant for floats per instance: start (3), end (3), radius (1), color (3)
+    private static final int INSTANCE_FLOATS = 10;
+
+    /**
+     * Constructor.
+     */
+    public JGLLineSet()
+    {
+        super("Lines_Cylinder");
+    }
+
+    /**
+     * Returns the number of lines.
+     */
+    public int getLineCount()  { return _points.length / 6; }
+
+    /**
+     * Returns the line endpoints (x0, y0, z0, x1, y1, z1 per line).
+     */
+    public float[] getPoints()  { return _points; }
+
+    /**
+     * Sets the line endpoints (x0, y0, z0, x1, y1, z1 per line).
+     */
+    public void setPoints(float[] thePoints)
+    {
+        if (thePoints.length % 6 != 0)
+            throw new IllegalArgumentException("JGLLineSet.setPoints: Length must be a multiple of 6: " + thePoints.length);
+        _points = thePoints;
+        _instancesChanged = true;
+    }
+
+    /**
+     * Returns the default radius (used if radii not set).
+     */
+    public double getRadius()  { return _radius; }
+
+    /**
+     * Sets the default radius (used if radii not set).
+     */
+    public void setRadius(double aValue)
+    {
+        _radius = aValue;
+        _instancesChanged = true;
+    }
+
+    /**
+     * Returns the radius for each line (or null to use default radius).
+     */
+    public float[] getRadii()  { return _radii; }
+
+    /**
+     * Sets the radius for each line (or null to use default radius). Length must match line count of current points.
+     */
+    public void setRadii(float[] theRadii)
+    {
+        if (theRadii != null && theRadii.length != getLineCount())
+            throw new IllegalArgumentException("JGLLineSet.setRadii: Length must be line count: " + theRadii.length);
+        _radii = theRadii;
+        _instancesChanged = true;
+    }
+
+    /**
+     * Returns the default color (used if colors not set).
+     */
+    public Color getColor()  { return _color; }
+
+    /**
+     * Sets the default color (used if colors not set).
+     */
+    public void setColor(Color aColor)
+    {
+        _color = aColor != null ? aColor : Color.BLACK;
+        _instancesChanged = true;
+    }
+
+    /**
+     * Returns the color for each line as RGB (or null to use default color).
+     */
+    public float[] getColors()  { return _colors; }
+
+    /**
+     * Sets the color for each line as RGB (or null to use default color). Length must be 3 * line count of current
+     * points.
+     */
+    public void setColors(float[] theColors)
+    {
+        if (theColors != null && theColors.length != getLineCount() * 3)
+            throw new IllegalArgumentException("JGLLineSet.setColors: Length must be 3 * line count: " + theColors.length);
+        _colors = theColors;
+        _instancesChanged = true;
+    }
+
+    /**
+     * Marks instances as changed (e.g. after modifying points, radii or colors arrays in place).
+     */
+    public void instancesChanged()  { _instancesChanged = true; }
+
+    /**
+     * Override to draw all lines with one instanced draw of shared unit cylinder.
+     */
+    @Override
+    public void render(GL2 gl, double[] aProjMatrix, double[] aViewMatrix)
+    {
+        // If no lines, just return
+        int lineCount = getLineCount();
+        if (lineCount == 0 || !isVisible()) return;
+
+        // Make sure unit cylinder and instance buffer are current
+        int cylinderBufferId = getSharedBuffer(gl, "UnitCylinder", JGLLineSet::getUnitCylinderPoints);
+        if (_instancesChanged)
+            uploadInstances(gl);
+
+        // Set program matrices and unit cylinder points
+        JGLProgram program = getProgram();
+        program.useProgram();
+        program.setProjectionMatrix(aProjMatrix);
+        program.setViewMatrix(aViewMatrix);
+        program.setPoints(cylinderBufferId, SLICES * 6);
+
+        // Set instance attributes and draw
+        int stride = INSTANCE_FLOATS * Buffers.SIZEOF_FLOAT, instanceBufferId = _instanceBuffer.getId();
+        program.setInstanceAttribute("instStart", instanceBufferId, 3, stride, 0);
+        program.setInstanceAttribute("instEnd", instanceBufferId, 3, stride, 3 * Buffers.SIZEOF_FLOAT);
+        program.setInstanceAttribute("instRadius", instanceBufferId, 1, stride, 6 * Buffers.SIZEOF_FLOAT);
+        program.setInstanceAttribute("instColor", instanceBufferId, 3, stride, 7 * Buffers.SIZEOF_FLOAT);
+        program.setInstanceCount(lineCount);
+        program.runProgram();
+    }
+
+    /**
+     * Uploads line endpoints, radii and colors to instance buffer (only the span that changed).
+     */
+    private void uploadInstances(GL2 gl)
+    {
+        // Get radii and colors (if they don't match line count, use defaults) and default radius and color
+        int lineCount = getLineCount();
+        float[] radii = _radii != null && _radii.length == lineCount ? _radii : null;
+        float[] colors = _colors != null && _colors.length == lineCount * 3 ? _colors : null;
+        float radius = (float) _radius;
+        float red = (float) _color.getRed(), green = (float) _color.getGreen(), blue = (float) _color.getBlue();
+
+        // Get interleaved instance values array (reused unless line count changed)
+        int valueCount = lineCount * INSTANCE_FLOATS;
+        if (_instanceValues.length != valueCount)
+            _instanceValues = new float[valueCount];
+        float[] values = _instanceValues;
+
+        // Fill interleaved instance values
+        for (int i = 0, index = 0; i < lineCount; i++, index += INSTANCE_FLOATS) {
+            System.arraycopy(_points, i * 6, values, index, 6);
+            values[index + 6] = radii != null ? radii[i] : radius;
+            if (colors != null)
+                System.arraycopy(colors, i * 3, values, index + 7, 3);
+            else {
+                values[index + 7] = red;
+                values[index + 8] = green;
+                values[index + 9] = blue;
+            }
+        }
+
+        // Upload
+        _instanceBuffer.setValues(gl, values);
+        _instancesChanged = false;
+    }
+
+    /**
+     * Override to release instance buffer.
+     */
+    @Override
+    public void dispose(GL2 gl)
+    {
+        // Delete instance buffer
+        _instanceBuffer.dispose(gl);
+        _instancesChanged = true;
+
+        // Do normal version (releases shared unit cylinder and program)
+        super.dispose(gl);
+    }
+
+    /**
+     * Returns the points of unit cylinder mesh (radius 1 around Z axis, Z from 0 to 1, sides only, 2 triangles per slice).
+     */
+    private static float[] getUnitCylinderPoints()
+    {
+        float[] points = new float[SLICES * 6 * 3];
+        int index = 0;
+        for (int i = 0; i < SLICES; i++) {
+            float x0 = (float) Math.cos(Math.PI * 2 * i / SLICES), y0 = (float) Math.sin(Math.PI * 2 * i / SLICES);
+            float x1 = (float) Math.cos(Math.PI * 2 * (i + 1) / SLICES);
+            float y1 = (float) Math.sin(Math.PI * 2 * (i + 1) / SLICES);
+            float[] quad = { x0, y0, 0, x1, y1, 0, x1, y1, 1, x0, y0, 0, x1, y1, 1, x0, y0, 1 };
+            System.arraycopy(quad, 0, points, index, quad.length);
+            index += quad.length;
+        }
+        return points;
+    }
+}
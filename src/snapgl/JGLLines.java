@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import snap.gfx.Color;
+import snap.gfx3d.VertexArray;
+
+/**
+ * This class draws a line list (e.g. grid lines or mesh wireframe) as screen-space lines of constant pixel width in
+ * one instanced draw call. Segment endpoints are uploaded as-is and each segment is expanded to a quad in the vertex
+ * shader, so it uses 24 bytes per segment regardless of width. Each instance has one line style (width and color).
+ * Width is relative to view size (set by JGLRenderer, or with setViewSize() when calling render() directly).
+ */
+public class JGLLines extends JGLPrimitive {
+
+    // The segment endpoints (x0, y0, z0, x1, y1, z1 per segment)
+    private float[]  _points = new float[0];
+
+    // The line width in pixels
+    private double  _lineWidth = 1;
+
+    // The line color
+    private Color  _color = Color.BLACK;
+
+    // The segment buffer
+    private JGLBuffer  _segmentBuffer = new JGLBuffer(GL2.GL_ARRAY_BUFFER);
+
+    // Whether segment buffer needs upload
+    private boolean  _pointsChanged = true;
+
+    // Constant for quad corner template: x is 0 at segment start, 1 at end; y is side (2 triangles)
+    private static final float[] QUAD_CORNERS = { 0, -1, 0, 1, -1, 0, 1, 1, 0, 0, -1, 0, 1, 1, 0, 0, 1, 0 };
+
+    /**
+     * Constructor.
+     */
+    public JGLLines()
+    {
+        super("Lines_Screen");
+    }
+
+    /**
+     * Returns the number of segments.
+     */
+    public int getSegmentCount()  { return _points.length / 6; }
+
+    /**
+     * Returns the segment endpoints (x0, y0, z0, x1, y1, z1 per segment).
+     */
+    public float[] getPoints()  { return _points; }
+
+    /**
+     * Sets the segment endpoints as a line list (x0, y0, z0, x1, y1, z1 per segment).
+     */
+    public void setPoints(float[] thePoints)
+    {
+        if (thePoints.length % 6 != 0)
+            throw new IllegalArgumentException("JGLLines.setPoints: Length must be a multiple of 6: " + thePoints.length);
+        _points = thePoints;
+        _pointsChanged = true;
+    }
+
+    /**
+     * Sets the segment endpoints from points of given VertexArray as a line list (each pair of points is a segment).
+     */
+    public void setVertexArray(VertexArray aVertexArray)
+    {
+        setPoints(aVertexArray.getPointArray());
+    }
+
+    /**
+     * Marks points as changed (e.g. after modifying points array in place).
+     */
+    public void pointsChanged()  { _pointsChanged = true; }
+
+    /**
+     * Returns the line width in pixels.
+     */
+    public double getLineWidth()  { return _lineWidth; }
+
+    /**
+     * Sets the line width in pixels.
+     */
+    public void setLineWidth(double aValue)  { _lineWidth = aValue; }
+
+    /**
+     * Returns the line color.
+     */
+    public Color getColor()  { return _color; }
+
+    /**
+     * Sets the line color.
+     */
+    public void setColor(Color aColor)
+    {
+        _color = aColor != null ? aColor : Color.BLACK;
+    }
+
+    /**
+     * Override to draw all segments with one instanced draw of shared quad template.
+     */
+    @Override
+    public void render(GL2 gl, double[] aProjMatrix, double[] aViewMatrix)
+    {
+        // If no segments, just return
+        int segmentCount = getSegmentCount();
+        if (segmentCount == 0 || !isVisible()) return;
+
+        // Make sure quad template and segment buffer are current (uploading only changed span)
+        int quadBufferId = getSharedBuffer(gl, "LineQuad", () -> QUAD_CORNERS);
+        if (_pointsChanged) {
+            _segmentBuffer.setValues(gl, _points);
+            _pointsChanged = false;
+        }
+
+        // Set program matrices, view size and line style
+        JGLProgram program = getProgram();
+        program.useProgram();
+        program.setProjectionMatrix(aProjMatrix);
+        program.setViewMatrix(aViewMatrix);
+        program.setUniform("viewSize", getViewWidth(), getViewHeight());
+        program.setUniform("lineWidth", _lineWidth);
+        program.setUniform("lineColor", _color.getRed(), _color.getGreen(), _color.getBlue());
+
+        // Set quad template and segment instance attributes
+        int stride = 6 * Buffers.SIZEOF_FLOAT;
+        program.setPoints(quadBufferId, QUAD_CORNERS.length / 3);
+        int segmentBufferId = _segmentBuffer.getId();
+        program.setInstanceAttribute("instStart", segmentBufferId, 3, stride, 0);
+        program.setInstanceAttribute("instEnd", segmentBufferId, 3, stride, 3 * Buffers.SIZEOF_FLOAT);
+        program.setInstanceCount(segmentCount);
+
+        // Draw (quads may face either way, so disable culling, then restore it)
+        boolean cullFace = gl.glIsEnabled(GL2.GL_CULL_FACE);
+        gl.glDisable(GL2.GL_CULL_FACE);
+        program.runProgram();
+        JoglUtils.setEnabled(gl, GL2.GL_CULL_FACE, cullFace);
+    }
+
+    /**
+     * Override to release segment buffer.
+     */
+    @Override
+    public void dispose(GL2 gl)
+    {
+        // Delete segment buffer
+        _segmentBuffer.dispose(gl);
+        _pointsChanged = true;
+
+        // Do normal version (releases shared quad template and program)
+        super.dispose(gl);
+    }
+}
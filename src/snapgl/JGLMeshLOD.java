@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class holds precomputed levels of detail for a dense triangle mesh as decimated index sets over the original
+ * vertices (so all levels share one vertex buffer). Levels are built with vertex clustering: vertices are snapped to a
+ * grid of cells (twice as coarse per level), each cell is represented by its vertex nearest the cell average, and
+ * triangles that collapse or become duplicates are dropped. Each level has an error (cell size in world units), so a
+ * renderer can choose the coarsest level whose error projects to less than a pixel threshold.
+ */
+public class JGLMeshLOD {
+
+    // The index sets for levels (level 0 is full detail)
+    private int[][]  _levelIndexes;
+
+    // The errors for levels (cell size in world units, 0 for full detail)
+    private double[]  _levelErrors;
+
+    // Constant for min triangles for mesh to get levels
+    public static final int MIN_TRIANGLES = 4096;
+
+    // Constant for min triangles for a level
+    private static final int MIN_LEVEL_TRIANGLES = 64;
+
+    // Constant for max triangle ratio to previous level (levels that reduce less are skipped)
+    private static final double MAX_LEVEL_RATIO = 0.75;
+
+    /**
+     * Constructor.
+     */
+    private JGLMeshLOD(int[][] theLevelIndexes, double[] theLevelErrors)
+    {
+        _levelIndexes = theLevelIndexes;
+        _levelErrors = theLevelErrors;
+    }
+
+    /**
+     * Returns the number of levels (including full detail).
+     */
+    public int getLevelCount()  { return _levelIndexes.length; }
+
+    /**
+     * Returns the triangle indexes for given level.
+     */
+    public int[] getIndexes(int aLevel)  { return _levelIndexes[aLevel]; }
+
+    /**
+     * Returns the error for given level (cell size in world units, 0 for full detail).
+     */
+    public double getError(int aLevel)  { return _levelErrors[aLevel]; }
+
+    /**
+     * Returns levels for given points and triangle indexes (or null indexes for non-indexed), or null if mesh is too
+     * small or flat to decimate.
+     */
+    public static JGLMeshLOD build(float[] thePoints, int[] theIndexes)
+    {
+        // Get indexes (sequential if non-indexed) and just return if too few triangles
+        int vertexCount = thePoints.length / 3;
+        int[] indexes = theIndexes != null ? theIndexes : getSequentialIndexes(vertexCount);
+        if (indexes.length / 3 < MIN_TRIANGLES)
+            return null;
+
+        // Get bounds and max extent (just return if empty)
+        double[] bounds = getBounds(thePoints);
+        double extent = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+        if (!(extent > 0))
+            return null;
+
+        // Create levels with cells per axis halved each level, starting from about one cell per vertex on a surface
+        List<int[]> levelIndexes = new ArrayList<>();
+        List<Double> levelErrors = new ArrayList<>();
+        levelIndexes.add(indexes);
+        levelErrors.add(0d);
+        int prevTriCount = indexes.length / 3;
+        for (double cellsPerAxis = Math.sqrt(vertexCount) / 2; cellsPerAxis >= 2; cellsPerAxis /= 2) {
+
+            // Build level (skip if it doesn't reduce enough)
+            double cellSize = extent / cellsPerAxis;
+            int[] levelIdxs = buildLevel(thePoints, indexes, bounds, cellSize);
+            int triCount = levelIdxs.length / 3;
+            if (triCount > prevTriCount * MAX_LEVEL_RATIO)
+                continue;
+
+            // Add level, and stop if small enough
+            levelIndexes.add(levelIdxs);
+            levelErrors.add(cellSize);
+            prevTriCount = triCount;
+            if (triCount < MIN_LEVEL_TRIANGLES)
+                break;
+        }
+
+        // If no decimated levels, return null
+        if (levelIndexes.size() < 2)
+            return null;
+
+        // Return LOD
+        double[] errors = new double[levelErrors.size()];
+        for (int i = 0; i < errors.length; i++)
+            errors[i] = levelErrors.get(i);
+        return new JGLMeshLOD(levelIndexes.toArray(new int[0][]), errors);
+    }
+
+    /**
+     * Returns triangle indexes decimated by clustering vertices in cells of given size.
+     */
+    private static int[] buildLevel(float[] thePoints, int[] theIndexes, double[] theBounds, double aCellSize)
+    {
+        // Create cell table (open addressing from cell key to cell id, power of 2 size at least twice vertex count)
+        int vertexCount = thePoints.length / 3;
+        int tableSize = Integer.highestOneBit(Math.max(vertexCount, 8) * 2 - 1) << 1;
+        long[] tableKeys = new long[tableSize];
+        int[] tableIds = new int[tableSize];
+        Arrays.fill(tableIds, -1);
+
+        // Get cell for each used vertex and sum vertex positions per cell (x, y, z, count)
+        int[] vertexCells = new int[vertexCount];
+        Arrays.fill(vertexCells, -1);
+        double[] cellSums = new double[vertexCount * 4];
+        int cellCount = 0;
+        for (int index : theIndexes) {
+
+            // If vertex already has cell, skip
+            if (vertexCells[index] >= 0) continue;
+
+            // Find cell id for vertex cell key (add if missing)
+            long key = getCellKey(thePoints, index, theBounds, aCellSize);
+            int slot = (int) (key ^ (key >>> 29) ^ (key >>> 47)) * 0x9E3779B9 & (tableSize - 1);
+            while (tableIds[slot] >= 0 && tableKeys[slot] != key)
+                slot = (slot + 1) & (tableSize - 1);
+            if (tableIds[slot] < 0) {
+                tableKeys[slot] = key;
+                tableIds[slot] = cellCount++;
+            }
+
+            // Add vertex to cell sum
+            int cellId = tableIds[slot];
+            cellSums[cellId * 4] += thePoints[index * 3];
+            cellSums[cellId * 4 + 1] += thePoints[index * 3 + 1];
+            cellSums[cellId * 4 + 2] += thePoints[index * 3 + 2];
+            cellSums[cellId * 4 + 3]++;
+            vertexCells[index] = cellId;
+        }
+
+        // Get representative vertex for each cell: vertex nearest cell average
+        int[] cellVertices = new int[cellCount];
+        double[] cellDists = new double[cellCount];
+        Arrays.fill(cellDists, Double.MAX_VALUE);
+        for (int v = 0; v < vertexCount; v++) {
+            int cellId = vertexCells[v];
+            if (cellId < 0) continue;
+            double count = cellSums[cellId * 4 + 3];
+            double dx = thePoints[v * 3] - cellSums[cellId * 4] / count;
+            double dy = thePoints[v * 3 + 1] - cellSums[cellId * 4 + 1] / count;
+            double dz = thePoints[v * 3 + 2] - cellSums[cellId * 4 + 2] / count;
+            double dist = dx * dx + dy * dy + dz * dz;
+            if (dist < cellDists[cellId]) {
+                cellDists[cellId] = dist;
+                cellVertices[cellId] = v;
+            }
+        }
+
+        // Remap triangles to cells, dropping collapsed triangles and duplicates (many fine triangles can collapse to one)
+        int triCount = theIndexes.length / 3;
+        int triTableSize = Integer.highestOneBit(Math.max(triCount, 8) * 2 - 1) << 1;
+        int[] triTable = new int[triTableSize];
+        Arrays.fill(triTable, -1);
+        int[] levelCells = new int[triCount * 3];
+        int count = 0;
+        for (int i = 0; i + 2 < theIndexes.length; i += 3) {
+
+            // Get triangle cells (skip if collapsed)
+            int cell0 = vertexCells[theIndexes[i]];
+            int cell1 = vertexCells[theIndexes[i + 1]];
+            int cell2 = vertexCells[theIndexes[i + 2]];
+            if (cell0 == cell1 || cell1 == cell2 || cell2 == cell0)
+                continue;
+
+            // Rotate so smallest cell is first (keeps winding), so duplicates have same cells in same order
+            if (cell1 < cell0 && cell1 < cell2) { int cell = cell0; cell0 = cell1; cell1 = cell2; cell2 = cell; }
+            else if (cell2 < cell0 && cell2 < cell1) { int cell = cell2; cell2 = cell1; cell1 = cell0; cell0 = cell; }
+
+            // Find triangle in table (skip if duplicate, otherwise add)
+            int hash = ((cell0 * 0x9E3779B9 ^ cell1) * 0x9E3779B9 ^ cell2) * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & (triTableSize - 1);
+            int tri;
+            while ((tri = triTable[slot]) >= 0 && (levelCells[tri * 3] != cell0 || levelCells[tri * 3 + 1] != cell1 ||
+                    levelCells[tri * 3 + 2] != cell2))
+                slot = (slot + 1) & (triTableSize - 1);
+            if (tri >= 0)
+                continue;
+            triTable[slot] = count / 3;
+            levelCells[count++] = cell0;
+            levelCells[count++] = cell1;
+            levelCells[count++] = cell2;
+        }
+
+        // Return triangle cells mapped to cell vertices
+        int[] levelIndexes = new int[count];
+        for (int i = 0; i < count; i++)
+            levelIndexes[i] = cellVertices[levelCells[i]];
+        return levelIndexes;
+    }
+
+    /**
+     * Returns the key of cell containing given vertex.
+     */
+    private static long getCellKey(float[] thePoints, int anIndex, double[] theBounds, double aCellSize)
+    {
+        long cellX = (long) ((thePoints[anIndex * 3] - theBounds[0]) / aCellSize);
+        long cellY = (long) ((thePoints[anIndex * 3 + 1] - theBounds[1]) / aCellSize);
+        long cellZ = (long) ((thePoints[anIndex * 3 + 2] - theBounds[2]) / aCellSize);
+        return (cellX << 42) | (cellY << 21) | cellZ;
+    }
+
+    /**
+     * Returns bounds of given points as minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    private static double[] getBounds(float[] thePoints)
+    {
+        double[] bounds = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+        for (int i = 0; i + 2 < thePoints.length; i += 3) {
+            for (int j = 0; j < 3; j++) {
+                double value = thePoints[i + j];
+                if (value < bounds[j]) bounds[j] = value;
+                if (value > bounds[j + 3]) bounds[j + 3] = value;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns indexes 0 to given count.
+     */
+    private static int[] getSequentialIndexes(int aCount)
+    {
+        int[] indexes = new int[aCount];
+        for (int i = 0; i < aCount; i++)
+            indexes[i] = i;
+        return indexes;
+    }
+}
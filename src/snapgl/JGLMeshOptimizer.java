@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import java.util.Arrays;
+
+/**
+ * This class has utility methods to optimize non-indexed triangle arrays for drawing: identical vertices are welded
+ * into one (with an index array generated), and triangles are reordered for post-transform vertex cache locality with
+ * the Tipsify algorithm (Sander, Nehab, Barczak: "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw").
+ * Cache efficiency is measured as ACMR (average cache miss ratio: vertices transformed per triangle, 3 for
+ * non-indexed, ideally approaching 0.5 for a regular grid).
+ */
+public class JGLMeshOptimizer {
+
+    // Constant for default vertex cache size used for reordering and measuring
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    /**
+     * Returns a welded and cache-ordered indexed mesh for given non-indexed triangle arrays (colors and tex coords
+     * optional).
+     */
+    public static Mesh optimize(float[] thePoints, float[] theColors, float[] theTexCoords)
+    {
+        Mesh mesh = weld(thePoints, theColors, theTexCoords);
+        mesh._indexes = tipsify(mesh._indexes, mesh.getVertexCount(), DEFAULT_CACHE_SIZE);
+        return mesh;
+    }
+
+    /**
+     * Returns an indexed mesh for given non-indexed triangle arrays with identical vertices (same point, color and tex
+     * coord) welded into one. Indexes keep the original triangle order. If colors or tex coords don't have one entry
+     * per point, vertices can't be compared, so nothing is welded (arrays are kept as given, with sequential indexes).
+     */
+    public static Mesh weld(float[] thePoints, float[] theColors, float[] theTexCoords)
+    {
+        // If colors or tex coords don't match point count, return unwelded mesh
+        int vertexCount = thePoints.length / 3;
+        boolean colorsMatch = theColors == null || theColors.length == vertexCount * 3;
+        boolean texCoordsMatch = theTexCoords == null || theTexCoords.length == vertexCount * 2;
+        if (!colorsMatch || !texCoordsMatch)
+            return getUnweldedMesh(thePoints, theColors, theTexCoords);
+
+        // Get hash table (open addressing, power of 2 size at least twice vertex count)
+        int tableSize = Integer.highestOneBit(Math.max(vertexCount, 8) * 2 - 1) << 1;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+
+        // Create arrays for unique vertices (trimmed at end) and indexes
+        float[] points = new float[vertexCount * 3];
+        float[] colors = theColors != null ? new float[vertexCount * 3] : null;
+        float[] texCoords = theTexCoords != null ? new float[vertexCount * 2] : null;
+        int[] indexes = new int[vertexCount];
+        int uniqueCount = 0;
+
+        // Iterate over vertices: find identical vertex in table or add new unique vertex
+        for (int i = 0; i < vertexCount; i++) {
+            int slot = getVertexHash(thePoints, theColors, theTexCoords, i) & (tableSize - 1);
+            int index;
+            while ((index = table[slot]) >= 0 && !isVertexEqual(thePoints, theColors, theTexCoords, i, points, colors, texCoords, index))
+                slot = (slot + 1) & (tableSize - 1);
+
+            // If not found, add unique vertex
+            if (index < 0) {
+                index = table[slot] = uniqueCount++;
+                System.arraycopy(thePoints, i * 3, points, index * 3, 3);
+                if (colors != null)
+                    System.arraycopy(theColors, i * 3, colors, index * 3, 3);
+                if (texCoords != null)
+                    System.arraycopy(theTexCoords, i * 2, texCoords, index * 2, 2);
+            }
+            indexes[i] = index;
+        }
+
+        // Return mesh with trimmed arrays
+        Mesh mesh = new Mesh();
+        mesh._points = Arrays.copyOf(points, uniqueCount * 3);
+        mesh._colors = colors != null ? Arrays.copyOf(colors, uniqueCount * 3) : null;
+        mesh._texCoords = texCoords != null ? Arrays.copyOf(texCoords, uniqueCount * 2) : null;
+        mesh._indexes = indexes;
+        return mesh;
+    }
+
+    /**
+     * Returns a mesh with given arrays as is and sequential indexes (one per point).
+     */
+    private static Mesh getUnweldedMesh(float[] thePoints, float[] theColors, float[] theTexCoords)
+    {
+        int[] indexes = new int[thePoints.length / 3];
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = i;
+        Mesh mesh = new Mesh();
+        mesh._points = thePoints;
+        mesh._colors = theColors;
+        mesh._texCoords = theTexCoords;
+        mesh._indexes = indexes;
+        return mesh;
+    }
+
+    /**
+     * Returns given triangle indexes reordered for vertex cache locality with Tipsify, for given cache size.
+     */
+    public static int[] tipsify(int[] theIndexes, int aVertexCount, int aCacheSize)
+    {
+        // Build vertex-triangle adjacency (triangles of vertex v are adjTris[adjStarts[v]] to adjTris[adjStarts[v+1]])
+        int triCount = theIndexes.length / 3;
+        int[] live = new int[aVertexCount];
+        for (int i = 0; i < triCount * 3; i++)
+            live[theIndexes[i]]++;
+        int[] adjStarts = new int[aVertexCount + 1];
+        for (int v = 0; v < aVertexCount; v++)
+            adjStarts[v + 1] = adjStarts[v] + live[v];
+        int[] adjTris = new int[triCount * 3];
+        int[] adjFill = Arrays.copyOf(adjStarts, aVertexCount);
+        for (int i = 0; i < triCount * 3; i++)
+            adjTris[adjFill[theIndexes[i]]++] = i / 3;
+
+        // Create state: vertex cache time stamps, emitted triangles, dead-end stack, candidates and output
+        int[] cacheTimes = new int[aVertexCount];
+        boolean[] emitted = new boolean[triCount];
+        int[] deadEnd = new int[triCount * 3];
+        int deadEndCount = 0;
+        int[] candidates = new int[triCount * 3];
+        int[] output = new int[triCount * 3];
+        int outputCount = 0;
+        int time = aCacheSize + 1, cursor = 1;
+        int fanVertex = aVertexCount > 0 ? 0 : -1;
+
+        // Iterate over fanning vertices
+        while (fanVertex >= 0) {
+
+            // Emit all unemitted triangles around fanning vertex, collecting their vertices as candidates
+            int candidateCount = 0;
+            for (int a = adjStarts[fanVertex], aMax = adjStarts[fanVertex + 1]; a < aMax; a++) {
+                int tri = adjTris[a];
+                if (emitted[tri]) continue;
+                for (int j = 0; j < 3; j++) {
+                    int v = theIndexes[tri * 3 + j];
+                    output[outputCount++] = v;
+                    deadEnd[deadEndCount++] = v;
+                    candidates[candidateCount++] = v;
+                    live[v]--;
+                    if (time - cacheTimes[v] > aCacheSize)
+                        cacheTimes[v] = time++;
+                }
+                emitted[tri] = true;
+            }
+
+            // Get next fanning vertex: candidate with live triangles that will still be in cache (oldest first)
+            int best = -1, bestPriority = -1;
+            for (int c = 0; c < candidateCount; c++) {
+                int v = candidates[c];
+                if (live[v] <= 0) continue;
+                int priority = 0;
+                if (time - cacheTimes[v] + 2 * live[v] <= aCacheSize)
+                    priority = time - cacheTimes[v];
+                if (priority > bestPriority) {
+                    bestPriority = priority;
+                    best = v;
+                }
+            }
+
+            // If none, skip dead end: pop recent vertices with live triangles, else scan for any remaining
+            if (best < 0) {
+                while (deadEndCount > 0 && best < 0) {
+                    int v = deadEnd[--deadEndCount];
+                    if (live[v] > 0)
+                        best = v;
+                }
+                while (best < 0 && cursor < aVertexCount) {
+                    if (live[cursor] > 0)
+                        best = cursor;
+                    cursor++;
+                }
+            }
+            fanVertex = best;
+        }
+
+        // Return output
+        return output;
+    }
+
+    /**
+     * Returns the average cache miss ratio (vertices transformed per triangle) for given triangle indexes with a FIFO
+     * vertex cache of given size.
+     */
+    public static double getACMR(int[] theIndexes, int aVertexCount, int aCacheSize)
+    {
+        // If no triangles, return 0
+        int triCount = theIndexes.length / 3;
+        if (triCount == 0) return 0;
+
+        // Simulate FIFO cache: a vertex is in cache if fewer than cache size misses happened since it was added
+        int[] addedAt = new int[aVertexCount];
+        Arrays.fill(addedAt, Integer.MIN_VALUE / 2);
+        int missCount = 0;
+        for (int i = 0; i < triCount * 3; i++) {
+            int v = theIndexes[i];
+            if (missCount - addedAt[v] >= aCacheSize)
+                addedAt[v] = missCount++;
+        }
+
+        // Return misses per triangle
+        return missCount / (double) triCount;
+    }
+
+    /**
+     * Returns a hash of vertex at given index.
+     */
+    private static int getVertexHash(float[] thePoints, float[] theColors, float[] theTexCoords, int anIndex)
+    {
+        int hash = hashFloats(0, thePoints, anIndex * 3, 3);
+        if (theColors != null)
+            hash = hashFloats(hash, theColors, anIndex * 3, 3);
+        if (theTexCoords != null)
+            hash = hashFloats(hash, theTexCoords, anIndex * 2, 2);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns given hash combined with given floats (with -0 same as 0).
+     */
+    private static int hashFloats(int aHash, float[] theValues, int aStart, int aCount)
+    {
+        int hash = aHash;
+        for (int i = aStart, iMax = aStart + aCount; i < iMax; i++)
+            hash = hash * 31 + Float.floatToIntBits(theValues[i] + 0f);
+        return hash;
+    }
+
+    /**
+     * Returns whether source vertex at given index equals unique vertex at given index.
+     */
+    private static boolean isVertexEqual(float[] thePoints, float[] theColors, float[] theTexCoords, int anIndex,
+        float[] points, float[] colors, float[] texCoords, int aUniqueIndex)
+    {
+        if (!isEqual(thePoints, anIndex * 3, points, aUniqueIndex * 3, 3))
+            return false;
+        if (colors != null && !isEqual(theColors, anIndex * 3, colors, aUniqueIndex * 3, 3))
+            return false;
+        return texCoords == null || isEqual(theTexCoords, anIndex * 2, texCoords, aUniqueIndex * 2, 2);
+    }
+
+    /**
+     * Returns whether given ranges of given float arrays are equal (with -0 same as 0).
+     */
+    private static boolean isEqual(float[] theValues1, int aStart1, float[] theValues2, int aStart2, int aCount)
+    {
+        for (int i = 0; i < aCount; i++)
+            if (Float.floatToIntBits(theValues1[aStart1 + i] + 0f) != Float.floatToIntBits(theValues2[aStart2 + i] + 0f))
+                return false;
+        return true;
+    }
+
+    /**
+     * An indexed triangle mesh.
+     */
+    public static class Mesh {
+
+        // The points, colors and tex coords (optional) of unique vertices
+        private float[]  _points, _colors, _texCoords;
+
+        // The triangle indexes
+        private int[]  _indexes;
+
+        /**
+         * Returns the points (x, y, z per vertex).
+         */
+        public float[] getPoints()  { return _points; }
+
+        /**
+         * Returns the colors (r, g, b per vertex) or null.
+         */
+        public float[] getColors()  { return _colors; }
+
+        /**
+         * Returns the tex coords (u, v per vertex) or null.
+         */
+        public float[] getTexCoords()  { return _texCoords; }
+
+        /**
+         * Returns the triangle indexes.
+         */
+        public int[] getIndexes()  { return _indexes; }
+
+        /**
+         * Returns the number of unique vertices.
+         */
+        public int getVertexCount()  { return _points.length / 3; }
+
+        /**
+         * Returns the number of bytes of GPU buffers for mesh.
+         */
+        public int getByteCount()
+        {
+            int count = _points.length + _indexes.length;
+            if (_colors != null) count += _colors.length;
+            if (_texCoords != null) count += _texCoords.length;
+            return count * 4;
+        }
+    }
+}
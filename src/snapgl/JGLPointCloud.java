@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import snap.gfx.Color;
+
+/**
+ * This class draws a point cloud (e.g. a 3D scatter plot) as round point sprites in one GL_POINTS draw call. Positions,
+ * colors and sizes (in pixels) are kept in separate GPU buffers (JGLBuffer) that upload only the span that changed and
+ * grow geometrically, so appending points uploads just the new tail. After changing values in place, call
+ * pointsChanged()/colorsChanged()/sizesChanged(). Colors or sizes that don't match the point count are ignored (the
+ * default color or size is used instead).
+ */
+public class JGLPointCloud extends JGLPrimitive {
+
+    // The point positions (x, y, z per point)
+    private PointAttribute  _points = new PointAttribute("vertPoint", 3);
+
+    // The point colors as RGB (optional)
+    private PointAttribute  _colors = new PointAttribute("vertColor", 3);
+
+    // The point sizes in pixels (optional)
+    private PointAttribute  _sizes = new PointAttribute("vertSize", 1);
+
+    // The default color and size (used if colors or sizes not set)
+    private Color  _color = Color.BLACK;
+    private double  _size = 4;
+
+    /**
+     * Constructor.
+     */
+    public JGLPointCloud()
+    {
+        super("Points_Sprite");
+    }
+
+    /**
+     * Returns the number of points.
+     */
+    public int getPointCount()  { return _points._values != null ? _points._values.length / 3 : 0; }
+
+    /**
+     * Returns the point positions (x, y, z per point).
+     */
+    public float[] getPoints()  { return _points._values; }
+
+    /**
+     * Sets the point positions (x, y, z per point).
+     */
+    public void setPoints(float[] thePoints)  { _points.setValues(thePoints); }
+
+    /**
+     * Marks given range of points (in points) as changed after modifying points array in place.
+     */
+    public void pointsChanged(int aStart, int aCount)  { _points.valuesChanged(aStart, aCount); }
+
+    /**
+     * Returns the point colors as RGB (or null to use default color).
+     */
+    public float[] getColors()  { return _colors._values; }
+
+    /**
+     * Sets the point colors as RGB (or null to use default color). Ignored while length doesn't match point count.
+     */
+    public void setColors(float[] theColors)  { _colors.setValues(theColors); }
+
+    /**
+     * Marks given range of colors (in points) as changed after modifying colors array in place.
+     */
+    public void colorsChanged(int aStart, int aCount)  { _colors.valuesChanged(aStart, aCount); }
+
+    /**
+     * Returns the point sizes in pixels (or null to use default size).
+     */
+    public float[] getSizes()  { return _sizes._values; }
+
+    /**
+     * Sets the point sizes in pixels (or null to use default size). Ignored while length doesn't match point count.
+     */
+    public void setSizes(float[] theSizes)  { _sizes.setValues(theSizes); }
+
+    /**
+     * Marks given range of sizes (in points) as changed after modifying sizes array in place.
+     */
+    public void sizesChanged(int aStart, int aCount)  { _sizes.valuesChanged(aStart, aCount); }
+
+    /**
+     * Returns the default color (used if colors not set).
+     */
+    public Color getColor()  { return _color; }
+
+    /**
+     * Sets the default color (used if colors not set).
+     */
+    public void setColor(Color aColor)
+    {
+        _color = aColor != null ? aColor : Color.BLACK;
+    }
+
+    /**
+     * Returns the default size in pixels (used if sizes not set).
+     */
+    public double getSize()  { return _size; }
+
+    /**
+     * Sets the default size in pixels (used if sizes not set).
+     */
+    public void setSize(double aValue)  { _size = aValue; }
+
+    /**
+     * Override to upload changed ranges and draw all points as sprites.
+     */
+    @Override
+    public void render(GL2 gl, double[] aProjMatrix, double[] aViewMatrix)
+    {
+        // If no points, just return
+        int pointCount = getPointCount();
+        if (pointCount == 0 || !isVisible()) return;
+
+        // Upload changes (colors and sizes only if they match point count, so draw never reads past their buffers)
+        boolean hasColors = _colors.isSetForCount(pointCount);
+        boolean hasSizes = _sizes.isSetForCount(pointCount);
+        _points.update(gl);
+        if (hasColors || _colors._values == null)
+            _colors.update(gl);
+        if (hasSizes || _sizes._values == null)
+            _sizes.update(gl);
+
+        // Set program matrices and points
+        JGLProgram program = getProgram();
+        program.useProgram();
+        program.setProjectionMatrix(aProjMatrix);
+        program.setViewMatrix(aViewMatrix);
+        program.setPoints(_points._buffer.getId(), pointCount);
+
+        // Set colors and sizes from buffers (or default values)
+        if (hasColors)
+            program.setAttribute("vertColor", _colors._buffer.getId(), 3);
+        else program.setAttributeValue("vertColor", _color.getRed(), _color.getGreen(), _color.getBlue());
+        if (hasSizes)
+            program.setAttribute("vertSize", _sizes._buffer.getId(), 1);
+        else program.setAttributeValue("vertSize", _size);
+
+        // Draw points as sprites with shader point size
+        gl.glEnable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
+        gl.glEnable(GL2.GL_POINT_SPRITE);
+        program.setDrawMode(GL2.GL_POINTS);
+        program.runProgram();
+        gl.glDisable(GL2.GL_POINT_SPRITE);
+        gl.glDisable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
+    }
+
+    /**
+     * Override to release buffers.
+     */
+    @Override
+    public void dispose(GL2 gl)
+    {
+        _points.dispose(gl);
+        _colors.dispose(gl);
+        _sizes.dispose(gl);
+        super.dispose(gl);
+    }
+
+    /**
+     * A float array per point with a GPU buffer.
+     */
+    private static class PointAttribute {
+
+        // The attribute name and number of floats per point
+        final String  _name;
+        final int  _size;
+
+        // The values
+        float[]  _values;
+
+        // The GPU buffer (uploads only the span that changed and grows geometrically)
+        JGLBuffer  _buffer = new JGLBuffer(GL2.GL_ARRAY_BUFFER);
+
+        // Whether values were set since last upload (upload searches for changed span)
+        boolean  _valuesSet;
+
+        // The range changed in place since last upload (in floats, start inclusive, end exclusive), empty if start >= end
+        int  _changedStart, _changedEnd;
+
+        /**
+         * Constructor.
+         */
+        PointAttribute(String aName, int aSize)
+        {
+            _name = aName;
+            _size = aSize;
+        }
+
+        /**
+         * Returns whether values are set for given number of points.
+         */
+        boolean isSetForCount(int aPointCount)
+        {
+            return _values != null && _values.length == aPointCount * _size;
+        }
+
+        /**
+         * Sets values.
+         */
+        void setValues(float[] theValues)
+        {
+            if (theValues != null && theValues.length % _size != 0)
+                throw new IllegalArgumentException("JGLPointCloud: " + _name + " length must be multiple of " + _size);
+            _values = theValues;
+            _valuesSet = true;
+        }
+
+        /**
+         * Adds given range of points to changed range.
+         */
+        void valuesChanged(int aStart, int aCount)
+        {
+            int start = aStart * _size, end = (aStart + aCount) * _size;
+            if (_changedStart >= _changedEnd) {
+                _changedStart = start;
+                _changedEnd = end;
+            }
+            else {
+                _changedStart = Math.min(_changedStart, start);
+                _changedEnd = Math.max(_changedEnd, end);
+            }
+        }
+
+        /**
+         * Uploads changed span (deleting buffer if no values).
+         */
+        void update(GL2 gl)
+        {
+            // If no values, delete buffer
+            if (_values == null) {
+                dispose(gl);
+                return;
+            }
+
+            // If values set, upload changed span (just the tail for appended points), otherwise upload changed range
+            if (_valuesSet || _buffer.getId() == 0)
+                _buffer.setValues(gl, _values);
+            else if (_changedStart < _changedEnd)
+                _buffer.setValues(gl, _values, _changedStart, _changedEnd);
+            _valuesSet = false;
+            _changedStart = _changedEnd = 0;
+        }
+
+        /**
+         * Deletes buffer.
+         */
+        void dispose(GL2 gl)
+        {
+            _buffer.dispose(gl);
+            _changedStart = _changedEnd = 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import java.nio.FloatBuffer;
+
+/**
+ * This class runs a fullscreen shader pass that samples a framebuffer color texture (e.g., FXAA anti-aliasing).
+ */
+public class JGLPostProcess {
+
+    // The shader name
+    private String  _name;
+
+    // The program
+    private JGLProgram  _program;
+
+    // The vertex buffer for fullscreen quad
+    private int  _quadBufferId;
+
+    // The saved program (restored after render)
+    private int[]  _programId = new int[1];
+
+    // The fullscreen quad as triangle strip in clip space
+    private static final float[] QUAD_POINTS = { -1, -1, 1, -1, -1, 1, 1, 1 };
+
+    /**
+     * Constructor for given shader name.
+     */
+    public JGLPostProcess(String aName)
+    {
+        _name = aName;
+    }
+
+    /**
+     * Returns the shader name.
+     */
+    public String getName()  { return _name; }
+
+    /**
+     * Renders given source texture to currently bound framebuffer.
+     */
+    public void render(GL2 gl, int aTextureId, int aWidth, int aHeight)
+    {
+        render(gl, aTextureId, aWidth, aHeight, aWidth, aHeight);
+    }
+
+    /**
+     * Renders given area from origin of source texture (with given texture size) to currently bound framebuffer.
+     */
+    public void render(GL2 gl, int aTextureId, int aWidth, int aHeight, int aTexW, int aTexH)
+    {
+        // Make sure program and quad buffer are created
+        if (_program == null)
+            createResources(gl);
+
+        // Save depth test, culling and program
+        boolean depthTest = gl.glIsEnabled(GL2.GL_DEPTH_TEST);
+        boolean cullFace = gl.glIsEnabled(GL2.GL_CULL_FACE);
+        gl.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, _programId, 0);
+
+        // Disable depth test and culling
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glDisable(GL2.GL_CULL_FACE);
+        gl.glViewport(0, 0, aWidth, aHeight);
+
+        // Use program and set uniforms
+        int programId = _program.getId();
+        _program.useProgram();
+        gl.glActiveTexture(GL2.GL_TEXTURE0);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, aTextureId);
+        gl.glUniform1i(gl.glGetUniformLocation(programId, "fragTexture"), 0);
+        gl.glUniform2f(gl.glGetUniformLocation(programId, "texelSize"), 1f / aTexW, 1f / aTexH);
+        gl.glUniform2f(gl.glGetUniformLocation(programId, "texCoordScale"), (float) aWidth / aTexW, (float) aHeight / aTexH);
+
+        // Set quad points and draw
+        int pointAttr = gl.glGetAttribLocation(programId, "vertPoint");
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, _quadBufferId);
+        gl.glEnableVertexAttribArray(pointAttr);
+        gl.glVertexAttribPointer(pointAttr, 2, GL2.GL_FLOAT, false, 0, 0);
+        gl.glDrawArrays(GL2.GL_TRIANGLE_STRIP, 0, 4);
+
+        // Restore
+        gl.glDisableVertexAttribArray(pointAttr);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        gl.glUseProgram(_programId[0]);
+        JoglUtils.setEnabled(gl, GL2.GL_DEPTH_TEST, depthTest);
+        JoglUtils.setEnabled(gl, GL2.GL_CULL_FACE, cullFace);
+    }
+
+    /**
+     * Creates the program and quad buffer.
+     */
+    private void createResources(GL2 gl)
+    {
+        // Create program
+        JGLShader vertShader = new JGLShader(JGLShader.ShaderType.Vertex, _name);
+        JGLShader fragShader = new JGLShader(JGLShader.ShaderType.Fragment, _name);
+        _program = new JGLProgram(vertShader, fragShader);
+
+        // Create quad buffer
+        int[] ids = { 0 };
+        gl.glGenBuffers(1, ids, 0);
+        _quadBufferId = ids[0];
+        FloatBuffer quadBuffer = Buffers.newDirectFloatBuffer(QUAD_POINTS);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, _quadBufferId);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, QUAD_POINTS.length * Buffers.SIZEOF_FLOAT, quadBuffer, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Releases GL resources.
+     */
+    public void dispose(GL2 gl)
+    {
+        // If not created, just return
+        if (_program == null) return;
+
+        // Delete program, shaders and quad buffer
+        _program.disposeShaderProgram();
+        gl.glDeleteShader(_program.getVertexShader().getId());
+        gl.glDeleteShader(_program.getFragmentShader().getId());
+        gl.glDeleteBuffers(1, new int[] { _quadBufferId }, 0);
+        _program = null;
+        _quadBufferId = 0;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * This class is the base for GPU primitives that keep their own buffers and draw with their own shader program
+ * (line sets, point clouds, etc.), outside of Shape3D/VertexArray. Add to JGLRenderer.addPrimitive() to render with
+ * scene, or call render() directly with context current. When added to a renderer, the program is acquired from
+ * renderer JGLResources (so primitives of a kind share one program with each other and renderer).
+ */
+public abstract class JGLPrimitive {
+
+    // The shader name
+    private String  _shaderName;
+
+    // The program
+    private JGLProgram  _program;
+
+    // The GL resources to acquire program from (or null to create a private program)
+    private JGLResources  _resources;
+
+    // The GL resources program was acquired from (or null if program is private)
+    private JGLResources  _programResources;
+
+    // Whether primitive is visible
+    private boolean  _visible = true;
+
+    // The size in pixels of viewport primitive renders in (set by JGLRenderer before render)
+    private int  _viewWidth, _viewHeight;
+
+    // The context and keys of shared buffers this primitive holds references to (a primitive renders in one context)
+    private GLContext  _sharedContext;
+    private List<String>  _sharedKeys = new ArrayList<>();
+
+    // The shared buffers (e.g. template meshes used by all primitives of a kind) by context and key
+    private static Map<GLContext, Map<String, SharedBuffer>>  _sharedBuffers = new WeakHashMap<>();
+
+    /**
+     * Constructor for given shader name.
+     */
+    protected JGLPrimitive(String aShaderName)
+    {
+        _shaderName = aShaderName;
+    }
+
+    /**
+     * Returns the shader name.
+     */
+    public String getShaderName()  { return _shaderName; }
+
+    /**
+     * Returns whether primitive is visible.
+     */
+    public boolean isVisible()  { return _visible; }
+
+    /**
+     * Sets whether primitive is visible.
+     */
+    public void setVisible(boolean aValue)  { _visible = aValue; }
+
+    /**
+     * Returns the width in pixels of viewport primitive renders in.
+     */
+    public int getViewWidth()  { return _viewWidth; }
+
+    /**
+     * Returns the height in pixels of viewport primitive renders in.
+     */
+    public int getViewHeight()  { return _viewHeight; }
+
+    /**
+     * Sets the size in pixels of viewport primitive renders in (set by JGLRenderer before render, callers of render()
+     * should set it when it changes).
+     */
+    public void setViewSize(int aWidth, int aHeight)
+    {
+        _viewWidth = aWidth;
+        _viewHeight = aHeight;
+    }
+
+    /**
+     * Returns the GL resources to acquire program from (or null to create a private program).
+     */
+    public JGLResources getResources()  { return _resources; }
+
+    /**
+     * Sets the GL resources to acquire program from (set by JGLRenderer before render).
+     */
+    public void setResources(JGLResources theResources)  { _resources = theResources; }
+
+    /**
+     * Returns the program: acquired from resources if set, otherwise created in current context. Context must be
+     * current.
+     */
+    public JGLProgram getProgram()
+    {
+        // If program is from current resources, just return
+        if (_program != null && _programResources == _resources)
+            return _program;
+
+        // Release program from other resources (or private program)
+        if (_program != null)
+            releaseProgram(GLContext.getCurrentGL().getGL2());
+
+        // If resources set, acquire program
+        if (_resources != null) {
+            _programResources = _resources;
+            return _program = _resources.acquireProgram(_shaderName);
+        }
+
+        // Create private program
+        JGLShader vertShader = new JGLShader(JGLShader.ShaderType.Vertex, _shaderName);
+        JGLShader fragShader = new JGLShader(JGLShader.ShaderType.Fragment, _shaderName);
+        return _program = new JGLProgram(vertShader, fragShader);
+    }
+
+    /**
+     * Releases program: removes reference from resources it was acquired from, or deletes it if private.
+     */
+    private void releaseProgram(GL2 gl)
+    {
+        if (_programResources != null)
+            _programResources.releaseProgram(_shaderName);
+        else {
+            _program.disposeShaderProgram();
+            gl.glDeleteShader(_program.getVertexShader().getId());
+            gl.glDeleteShader(_program.getFragmentShader().getId());
+        }
+        _program = null;
+        _programResources = null;
+    }
+
+    /**
+     * Renders primitive for given projection and view matrices (column-major). Context must be current.
+     */
+    public abstract void render(GL2 gl, double[] aProjMatrix, double[] aViewMatrix);
+
+    /**
+     * Returns the id of a static array buffer shared by all primitives in context of given GL for given key, creating
+     * it from given points on first use and adding a reference for this primitive (released by dispose).
+     */
+    protected int getSharedBuffer(GL2 gl, String aKey, Supplier<float[]> thePoints)
+    {
+        GLContext context = gl.getContext();
+        synchronized (_sharedBuffers) {
+
+            // Get shared buffer for context and key (creating if needed)
+            Map<String, SharedBuffer> contextBuffers = _sharedBuffers.computeIfAbsent(context, glc -> new HashMap<>());
+            SharedBuffer sharedBuffer = contextBuffers.get(aKey);
+            if (sharedBuffer == null) {
+                float[] points = thePoints.get();
+                int[] ids = { 0 };
+                gl.glGenBuffers(1, ids, 0);
+                gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, ids[0]);
+                gl.glBufferData(GL2.GL_ARRAY_BUFFER, points.length * Buffers.SIZEOF_FLOAT,
+                    Buffers.newDirectFloatBuffer(points), GL2.GL_STATIC_DRAW);
+                gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+                contextBuffers.put(aKey, sharedBuffer = new SharedBuffer(ids[0]));
+            }
+
+            // If first use by this primitive in this context, add reference
+            if (_sharedContext != context || !_sharedKeys.contains(aKey)) {
+                if (_sharedContext != context)
+                    _sharedKeys.clear();
+                _sharedContext = context;
+                _sharedKeys.add(aKey);
+                sharedBuffer._refCount++;
+            }
+            return sharedBuffer._bufferId;
+        }
+    }
+
+    /**
+     * Releases GL resources. Subclasses should call this after releasing their buffers. Context must be current.
+     */
+    public void dispose(GL2 gl)
+    {
+        // Release references to shared buffers (deleting any no longer used)
+        if (_sharedContext != null) {
+            synchronized (_sharedBuffers) {
+                Map<String, SharedBuffer> contextBuffers = _sharedBuffers.get(_sharedContext);
+                for (String key : _sharedKeys) {
+                    SharedBuffer sharedBuffer = contextBuffers != null ? contextBuffers.get(key) : null;
+                    if (sharedBuffer != null && --sharedBuffer._refCount <= 0) {
+                        gl.glDeleteBuffers(1, new int[] { sharedBuffer._bufferId }, 0);
+                        contextBuffers.remove(key);
+                    }
+                }
+            }
+            _sharedContext = null;
+            _sharedKeys.clear();
+        }
+
+        // Release program
+        if (_program != null)
+            releaseProgram(gl);
+    }
+
+    /**
+     * A reference-counted shared buffer.
+     */
+    private static class SharedBuffer {
+
+        // The buffer id
+        final int  _bufferId;
+
+        // The number of primitives using buffer
+        int  _refCount;
+
+        /**
+         * Constructor.
+         */
+        SharedBuffer(int aBufferId)  { _bufferId = aBufferId; }
+    }
+}
@@ -1,21 +1,20 @@
 package snapgl;
-import com.jogamp.common.nio.Buffers;
+import com.jogamp.common.nio.PointerBuffer;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
 import com.jogamp.opengl.util.texture.Texture;
 import snap.gfx.Color;
 import snap.gfx3d.VertexArray;
-import snap.util.Convert;
-import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class represents an OpenGL shader program.
  */
 public class JGLProgram {
 
-    // The Renderer
-    private JGLRenderer  _rjx;
-
     // The id
     private int  _id;
 
@@ -25,21 +24,20 @@ public class JGLProgram {
     // The Fragment Shader
     private JGLShader _fragmentShader;
 
-    // The last pointsArray
-    private float[]  _pointsArray;
+    // The number of points set
+    private int  _pointCount;
 
-    // The last colorsArray
-    private float[]  _colorsArray;
+    // Whether colors buffer is set
+    private boolean  _colorsSet;
 
-    // The last texCoordsArray
-    private float[]  _texCoordsArray;
+    // Whether texture coords buffer is set
+    private boolean  _texCoordsSet;
 
-    // The last indexArray
-    private int[]  _indexArray;
-    private IntBuffer  _indexBuffer;
+    // The index buffer id and number of indexes
+    private int  _indexBufferId, _indexCount;
 
     // The PointAttr
-    private int  _pointAttr;
+    private int  _pointAttr = -1;
 
     // The ColorAttr
     private int  _colorAttr;
@@ -47,19 +45,53 @@ public class JGLProgram {
     // The TexCoordAttr
     private int  _texCoordAttr;
 
+    // The primitive mode to draw (GL_TRIANGLES by default)
+    private int  _drawMode = GL2.GL_TRIANGLES;
+
+    // The number of instances to draw (0 for non-instanced draw)
+    private int  _instanceCount;
+
+    // The vertex ranges to draw (firsts, counts and count of ranges), if drawing ranges
+    private int[]  _rangeFirsts, _rangeCounts;
+    private int  _rangeCount;
+
+    // The index ranges to draw (counts, byte offsets and count of ranges), if drawing index ranges
+    private IntBuffer  _elementCounts;
+    private PointerBuffer  _elementOffsets;
+    private int  _elementRangeCount;
+
+    // The extra (named or per-instance) attributes set (and count)
+    private int[]  _extraAttrs = new int[8];
+    private int  _extraAttrCount;
+
+    // The uniform and attribute locations by name (looked up once, since they're fixed after link)
+    private Map<String, Integer>  _uniformLocations = new HashMap<>(), _attribLocations = new HashMap<>();
+
+    // Constant for identity matrix
+    public static final double[] IDENTITY_MATRIX = { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+
+    // Scratch arrays for matrix and color uniforms (so setting them doesn't allocate)
+    private float[]  _matrix4fv = new float[16], _color3fv = new float[3];
+
     /**
      * Creates a ShaderProgram for VertexArray.
      */
     public JGLProgram(VertexArray aVA, JGLRenderer aRJX)
     {
-        _rjx = aRJX;
+        this(aRJX.getVertexShader(aVA), aRJX.getFragmentShader(aVA));
+    }
 
+    /**
+     * Creates a ShaderProgram for given shaders in current GL context.
+     */
+    public JGLProgram(JGLShader aVertexShader, JGLShader aFragmentShader)
+    {
         // Create Program
-        GL2 gl2 = aRJX.getGL2();
+        GL2 gl2 = getGL2();
         _id = gl2.glCreateProgram();
 
         // Load shaders
-        loadShaders(aVA);
+        loadShaders(aVertexShader, aFragmentShader);
 
         // Link program
         String linkError = linkProgram();
@@ -70,16 +102,16 @@ public class JGLProgram {
     /**
      * Loads the shaders.
      */
-    private void loadShaders(VertexArray aVA)
+    private void loadShaders(JGLShader aVertexShader, JGLShader aFragmentShader)
     {
-        // Create VertexShader
-        GL2 gl2 = _rjx.getGL2();
-        _vertexShader = _rjx.getVertexShader(aVA);
+        // Attach VertexShader
+        GL2 gl2 = getGL2();
+        _vertexShader = aVertexShader;
         int vertexShaderId = _vertexShader.getId();
         gl2.glAttachShader(_id, vertexShaderId);
 
-        // Create FragmentShader
-        _fragmentShader = _rjx.getFragmentShader(aVA);
+        // Attach FragmentShader
+        _fragmentShader = aFragmentShader;
         int fragmentShaderId = _fragmentShader.getId();
         gl2.glAttachShader(_id, fragmentShaderId);
     }
@@ -90,7 +122,7 @@ public class JGLProgram {
     private String linkProgram()
     {
         // Link program
-        GL2 gl2 = _rjx.getGL2();
+        GL2 gl2 = getGL2();
         gl2.glLinkProgram(_id);
 
         // Get link status
@@ -128,7 +160,7 @@ public class JGLProgram {
     public void useProgram()
     {
         int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
+        GL2 gl2 = getGL2();
         gl2.glUseProgram(programId);
     }
 
@@ -137,16 +169,7 @@ public class JGLProgram {
      */
     public void setProjectionMatrix(double[] aMatrix)
     {
-        // Get program info
-        int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
-
-        // Get matrix as 4fv
-        float[] matrix4fv = Convert.doubleArrayToFloat(aMatrix);
-
-        // Set ProjMatrix
-        int projMatrixUniform = gl2.glGetUniformLocation(programId, "projMatrix");
-        gl2.glUniformMatrix4fv(projMatrixUniform, 1, false, matrix4fv, 0);
+        setMatrix("projMatrix", aMatrix);
     }
 
     /**
@@ -154,38 +177,73 @@ public class JGLProgram {
      */
     public void setViewMatrix(double[] aMatrix)
     {
-        // Get program info
-        int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
+        setMatrix("viewMatrix", aMatrix);
+    }
 
-        // Get matrix as 4fv
-        float[] matrix4fv = Convert.doubleArrayToFloat(aMatrix);
+    /**
+     * Sets the Model matrix (shape to scene transform).
+     */
+    public void setModelMatrix(double[] aMatrix)
+    {
+        setMatrix("modelMatrix", aMatrix);
+    }
 
-        // Get ViewMatrix uniform and set
-        int viewMatrixUniform = gl2.glGetUniformLocation(programId, "viewMatrix");
-        gl2.glUniformMatrix4fv(viewMatrixUniform, 1, false, matrix4fv, 0);
+    /**
+     * Sets the matrix uniform for given name.
+     */
+    public void setMatrix(String aName, double[] aMatrix)
+    {
+        // Get matrix as 4fv (in scratch array)
+        GL2 gl2 = getGL2();
+        float[] matrix4fv = _matrix4fv;
+        for (int i = 0; i < 16; i++)
+            matrix4fv[i] = (float) aMatrix[i];
+
+        // Get uniform and set
+        int matrixUniform = getUniformLocation(aName);
+        gl2.glUniformMatrix4fv(matrixUniform, 1, false, matrix4fv, 0);
     }
 
     /**
-     * Sets the points array.
+     * Sets the float uniform for given name.
      */
-    public void setPoints(float[] pointsArray)
+    public void setUniform(String aName, double aValue)
     {
-        // Get program info
-        int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
+        getGL2().glUniform1f(getUniformLocation(aName), (float) aValue);
+    }
 
-        // Set PointsArray
-        _pointsArray = pointsArray;
+    /**
+     * Sets the vec2 uniform for given name.
+     */
+    public void setUniform(String aName, double aX, double aY)
+    {
+        getGL2().glUniform2f(getUniformLocation(aName), (float) aX, (float) aY);
+    }
+
+    /**
+     * Sets the vec3 uniform for given name.
+     */
+    public void setUniform(String aName, double aX, double aY, double aZ)
+    {
+        getGL2().glUniform3f(getUniformLocation(aName), (float) aX, (float) aY, (float) aZ);
+    }
+
+    /**
+     * Sets the points buffer (3 floats per point).
+     */
+    public void setPoints(int aBufferId, int aPointCount)
+    {
+        // Set PointCount
+        GL2 gl2 = getGL2();
+        _pointCount = aPointCount;
 
         // Get Points attribute and enable
-        _pointAttr = gl2.glGetAttribLocation(programId, "vertPoint");
+        _pointAttr = getAttribLocation("vertPoint");
         gl2.glEnableVertexAttribArray(_pointAttr);
 
-        // Get matrix as 4fv
-        FloatBuffer pointBuffer = Buffers.newDirectFloatBuffer(pointsArray.length);
-        pointBuffer.put(pointsArray);
-        gl2.glVertexAttribPointer(_pointAttr, 3, GL2.GL_FLOAT, false, 0, pointBuffer.rewind());
+        // Bind buffer and set attribute pointer
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, aBufferId);
+        gl2.glVertexAttribPointer(_pointAttr, 3, GL2.GL_FLOAT, false, 0, 0);
     }
 
     /**
@@ -193,76 +251,173 @@ public class JGLProgram {
      */
     public void setColor(Color aColor)
     {
-        // Get program info
-        int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
-
-        // Get color as 3fv
+        // Get color as 3fv (in scratch array)
+        GL2 gl2 = getGL2();
         Color color = aColor;
         if (color == null)  { color = Color.RED; System.err.println("ShaderProgram.setColor: Null color"); }
-        float[] color3fv = { (float) color.getRed(), (float) color.getGreen(), (float) color.getBlue() };
+        float[] color3fv = _color3fv;
+        color3fv[0] = (float) color.getRed();
+        color3fv[1] = (float) color.getGreen();
+        color3fv[2] = (float) color.getBlue();
 
         // Set VertColor
-        int vertColorUniform = gl2.glGetUniformLocation(programId, "vertColor");
+        int vertColorUniform = getUniformLocation("vertColor");
         gl2.glUniform3fv(vertColorUniform, 1, color3fv, 0);
     }
 
     /**
-     * Sets the color array.
+     * Sets the colors buffer (3 floats per point).
      */
-    public void setColors(float[] colorsArray)
+    public void setColors(int aBufferId)
     {
-        // Get program info
-        int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
-
-        // Set ColorsArray
-        _colorsArray = colorsArray;
+        // Get GL and mark colors set
+        GL2 gl2 = getGL2();
+        _colorsSet = true;
 
         // Get vertColor attribute and enable
-        _colorAttr = gl2.glGetAttribLocation(programId, "vertColor");
+        _colorAttr = getAttribLocation("vertColor");
         gl2.glEnableVertexAttribArray(_colorAttr);
 
-        // Get matrix as 4fv
-        FloatBuffer colorsBuffer = Buffers.newDirectFloatBuffer(colorsArray.length);
-        colorsBuffer.put(colorsArray);
-        gl2.glVertexAttribPointer(_colorAttr, 3, GL2.GL_FLOAT, false, 0, colorsBuffer.rewind());
+        // Bind buffer and set attribute pointer
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, aBufferId);
+        gl2.glVertexAttribPointer(_colorAttr, 3, GL2.GL_FLOAT, false, 0, 0);
     }
 
     /**
-     * Sets the texture coords array.
+     * Sets the texture coords buffer (2 floats per point).
      */
-    public void setTexCoords(float[] texCoordsArray)
+    public void setTexCoords(int aBufferId)
     {
-        // Get program info
-        int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
-
-        // Set TexCoordsArray
-        _texCoordsArray = texCoordsArray;
+        // Get GL and mark texture coords set
+        GL2 gl2 = getGL2();
+        _texCoordsSet = true;
 
         // Get vertTexCoord attribute and enable
-        _texCoordAttr = gl2.glGetAttribLocation(programId, "vertTexCoord");
+        _texCoordAttr = getAttribLocation("vertTexCoord");
         gl2.glEnableVertexAttribArray(_texCoordAttr);
 
-        // Get matrix as 4fv
-        FloatBuffer texCoordsBuffer = Buffers.newDirectFloatBuffer(texCoordsArray.length);
-        texCoordsBuffer.put(texCoordsArray);
-        gl2.glVertexAttribPointer(_texCoordAttr, 2, GL2.GL_FLOAT, false, 0, texCoordsBuffer.rewind());
+        // Bind buffer and set attribute pointer
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, aBufferId);
+        gl2.glVertexAttribPointer(_texCoordAttr, 2, GL2.GL_FLOAT, false, 0, 0);
     }
 
     /**
-     * Sets the index array.
+     * Sets the index buffer.
      */
-    public void setIndexArray(int[] indexArray)
+    public void setIndexArray(int aBufferId, int anIndexCount)
     {
-        // Set IndexArray
-        _indexArray = indexArray;
+        _indexBufferId = aBufferId;
+        _indexCount = anIndexCount;
+    }
 
-        // Create IndexBuffer and load/rewind
-        _indexBuffer = Buffers.newDirectIntBuffer(indexArray.length);
-        _indexBuffer.put(indexArray);
-        _indexBuffer.rewind();
+    /**
+     * Sets a per-instance float attribute from given buffer (advanced once per instance instead of per vertex).
+     */
+    public void setInstanceAttribute(String aName, int aBufferId, int aSize, int aStride, int anOffset)
+    {
+        // Get attribute (just return if not used by program)
+        GL2 gl2 = getGL2();
+        int attr = getAttribLocation(aName);
+        if (attr < 0) return;
+
+        // Enable, bind buffer, set attribute pointer and divisor
+        gl2.glEnableVertexAttribArray(attr);
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, aBufferId);
+        gl2.glVertexAttribPointer(attr, aSize, GL2.GL_FLOAT, false, aStride, anOffset);
+        gl2.glVertexAttribDivisor(attr, 1);
+
+        // Add to extra attributes (so runProgram can reset)
+        addExtraAttribute(attr);
+    }
+
+    /**
+     * Sets a per-vertex float attribute for given name from given buffer (tightly packed).
+     */
+    public void setAttribute(String aName, int aBufferId, int aSize)
+    {
+        setAttribute(aName, aBufferId, aSize, 0, 0);
+    }
+
+    /**
+     * Sets a per-vertex float attribute for given name from given buffer with given stride and offset (in bytes).
+     */
+    public void setAttribute(String aName, int aBufferId, int aSize, int aStride, int anOffset)
+    {
+        // Get attribute (just return if not used by program)
+        GL2 gl2 = getGL2();
+        int attr = getAttribLocation(aName);
+        if (attr < 0) return;
+
+        // Enable, bind buffer and set attribute pointer
+        gl2.glEnableVertexAttribArray(attr);
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, aBufferId);
+        gl2.glVertexAttribPointer(attr, aSize, GL2.GL_FLOAT, false, aStride, anOffset);
+        addExtraAttribute(attr);
+    }
+
+    /**
+     * Sets a constant value for attribute of given name (used for all vertices when no buffer is set for it).
+     */
+    public void setAttributeValue(String aName, double ... theValues)
+    {
+        // Get attribute (just return if not used by program)
+        GL2 gl2 = getGL2();
+        int attr = getAttribLocation(aName);
+        if (attr < 0) return;
+
+        // Set value
+        switch (theValues.length) {
+            case 1: gl2.glVertexAttrib1f(attr, (float) theValues[0]); break;
+            case 2: gl2.glVertexAttrib2f(attr, (float) theValues[0], (float) theValues[1]); break;
+            case 3: gl2.glVertexAttrib3f(attr, (float) theValues[0], (float) theValues[1], (float) theValues[2]); break;
+            default: throw new IllegalArgumentException("JGLProgram.setAttributeValue: Unsupported size: " + theValues.length);
+        }
+    }
+
+    /**
+     * Adds given attribute to extra attributes that runProgram disables (and resets divisor).
+     */
+    private void addExtraAttribute(int anAttr)
+    {
+        if (_extraAttrCount == _extraAttrs.length)
+            _extraAttrs = Arrays.copyOf(_extraAttrs, _extraAttrCount * 2);
+        _extraAttrs[_extraAttrCount++] = anAttr;
+    }
+
+    /**
+     * Sets the primitive mode for next draw (e.g. GL_POINTS). Reset to GL_TRIANGLES after each draw.
+     */
+    public void setDrawMode(int aMode)
+    {
+        _drawMode = aMode;
+    }
+
+    /**
+     * Sets vertex ranges to draw with one glMultiDrawArrays (instead of all points) for next draw.
+     */
+    public void setDrawRanges(int[] theFirsts, int[] theCounts, int aRangeCount)
+    {
+        _rangeFirsts = theFirsts;
+        _rangeCounts = theCounts;
+        _rangeCount = aRangeCount;
+    }
+
+    /**
+     * Sets index ranges (counts and byte offsets into index buffer) to draw with one glMultiDrawElements for next draw.
+     */
+    public void setElementRanges(IntBuffer theCounts, PointerBuffer theOffsets, int aRangeCount)
+    {
+        _elementCounts = theCounts;
+        _elementOffsets = theOffsets;
+        _elementRangeCount = aRangeCount;
+    }
+
+    /**
+     * Sets the number of instances to draw (0 for non-instanced draw).
+     */
+    public void setInstanceCount(int aCount)
+    {
+        _instanceCount = aCount;
     }
 
     /**
@@ -270,12 +425,9 @@ public class JGLProgram {
      */
     public void setTexture(Texture aTexture)
     {
-        // Get program info
-        int programId = getId();
-        GL2 gl2 = _rjx.getGL2();
-
-        // Get fragTexture attribute
-        int textureUnLoc = gl2.glGetUniformLocation(programId, "fragTexture");
+        // Get fragTexture uniform
+        GL2 gl2 = getGL2();
+        int textureUnLoc = getUniformLocation("fragTexture");
 
         // Enable/bind
         gl2.glActiveTexture(GL2.GL_TEXTURE0);
@@ -290,43 +442,109 @@ public class JGLProgram {
     public void runProgram()
     {
         // Get program info
-        GL2 gl2 = _rjx.getGL2();
+        GL2 gl2 = getGL2();
 
         // If IndexArray provided, drawElements with IndexBuffer
-        if (_indexArray != null)
-            gl2.glDrawElements(GL2.GL_TRIANGLES, _indexArray.length, GL2.GL_UNSIGNED_INT, _indexBuffer);
-
-        // Otherwise, get PointCount and run
-        else {
-            int triangleCount = _pointsArray.length / 3;
-            gl2.glDrawArrays(GL2.GL_TRIANGLES, 0, triangleCount);
+        if (_indexBufferId != 0) {
+            gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, _indexBufferId);
+            if (_elementRangeCount > 0)
+                gl2.glMultiDrawElements(_drawMode, _elementCounts, GL2.GL_UNSIGNED_INT, _elementOffsets, _elementRangeCount);
+            else if (_instanceCount > 0)
+                gl2.glDrawElementsInstanced(_drawMode, _indexCount, GL2.GL_UNSIGNED_INT, 0, _instanceCount);
+            else gl2.glDrawElements(_drawMode, _indexCount, GL2.GL_UNSIGNED_INT, 0);
+            gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
         }
 
+        // If ranges set, draw ranges
+        else if (_rangeCount > 0)
+            gl2.glMultiDrawArrays(_drawMode, _rangeFirsts, 0, _rangeCounts, 0, _rangeCount);
+
+        // Otherwise, draw PointCount
+        else if (_instanceCount > 0)
+            gl2.glDrawArraysInstanced(_drawMode, 0, _pointCount, _instanceCount);
+        else gl2.glDrawArrays(_drawMode, 0, _pointCount);
+
+        // Disable attributes and clear draw state
+        resetAttributes();
+    }
+
+    /**
+     * Disables attributes set since last draw, unbinds program and clears draw state (runProgram() does this after
+     * drawing), so setup that isn't followed by a draw doesn't leak into the next one.
+     */
+    public void resetAttributes()
+    {
         // Disable attributes
-        gl2.glDisableVertexAttribArray(_pointAttr);
-        if (_colorsArray != null)
+        GL2 gl2 = getGL2();
+        if (_pointAttr >= 0)
+            gl2.glDisableVertexAttribArray(_pointAttr);
+        if (_colorsSet)
             gl2.glDisableVertexAttribArray(_colorAttr);
-        if (_texCoordsArray != null)
+        if (_texCoordsSet)
             gl2.glDisableVertexAttribArray(_texCoordAttr);
+        for (int i = 0; i < _extraAttrCount; i++) {
+            gl2.glVertexAttribDivisor(_extraAttrs[i], 0);
+            gl2.glDisableVertexAttribArray(_extraAttrs[i]);
+        }
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
 
         // Remove shader code from current rendering state
         gl2.glUseProgram(0);
 
         // Clear vars
-        _pointsArray = _colorsArray = _texCoordsArray = null;
-        _indexArray = null;
+        _pointCount = _indexBufferId = _indexCount = _instanceCount = _extraAttrCount = _rangeCount = 0;
+        _rangeFirsts = _rangeCounts = null;
+        _elementCounts = null;
+        _elementOffsets = null;
+        _elementRangeCount = 0;
+        _drawMode = GL2.GL_TRIANGLES;
+        _colorsSet = _texCoordsSet = false;
         _pointAttr = _colorAttr = _texCoordAttr = -1;
     }
 
+    /**
+     * Returns the location of uniform for given name (cached after first lookup).
+     */
+    public int getUniformLocation(String aName)
+    {
+        Integer location = _uniformLocations.get(aName);
+        if (location != null)
+            return location;
+        location = getGL2().glGetUniformLocation(_id, aName);
+        _uniformLocations.put(aName, location);
+        return location;
+    }
+
+    /**
+     * Returns the location of attribute for given name (cached after first lookup).
+     */
+    public int getAttribLocation(String aName)
+    {
+        Integer location = _attribLocations.get(aName);
+        if (location != null)
+            return location;
+        location = getGL2().glGetAttribLocation(_id, aName);
+        _attribLocations.put(aName, location);
+        return location;
+    }
+
     /**
      * Cleanup.
      */
     public void disposeShaderProgram()
     {
-        GL2 gl2 = _rjx.getGL2();
+        GL2 gl2 = getGL2();
         int programId = _id;
         gl2.glDetachShader(programId, _vertexShader.getId());
         gl2.glDetachShader(programId, _fragmentShader.getId());
         gl2.glDeleteProgram(programId);
     }
+
+    /**
+     * Returns the GL2 for current context.
+     */
+    private static GL2 getGL2()
+    {
+        return GLContext.getCurrentGL().getGL2();
+    }
 }
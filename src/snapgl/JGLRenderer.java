@@ -2,16 +2,15 @@
  * Copyright (c) 2010, ReportMill Software. All rights reserved.
  */
 package snapgl;
-import com.jogamp.opengl.util.awt.ImageUtil;
-import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
 import snap.gfx.Color;
-import snap.gfx.Image;
 import snap.gfx.Painter;
+import org.joml.Matrix4d;
+import org.joml.Vector4d;
 import snap.gfx3d.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.List;
 
 import com.jogamp.opengl.*;
 import snap.props.PropChange;
@@ -24,21 +23,101 @@ public class JGLRenderer extends Renderer {
     // A RenderImage
     private RenderImage  _renderImage;
 
-    // A map of shader programs
+    // The GL resources (shared with other renderers or private to this one)
+    private JGLResources  _resources;
+
+    // A map of shader programs acquired from resources
     private Map<String, JGLProgram> _programs = new HashMap<>();
 
-    // A map of vertex shaders
-    private Map<String, JGLShader>  _vertShaders = new HashMap<>();
+    // A map of textures acquired from resources
+    private Map<Texture,com.jogamp.opengl.util.texture.Texture>  _textures = new HashMap<>();
 
-    // A map of fragment shaders
-    private Map<String, JGLShader>  _fragShaders = new HashMap<>();
+    // A map of vertex buffers acquired from resources
+    private Map<VertexArray, JGLVertexBuffers>  _vertexBuffers = new IdentityHashMap<>();
 
-    // A map of textures
-    private Map<Texture,com.jogamp.opengl.util.texture.Texture>  _textures = new HashMap<>();
+    // The VertexArrays rendered in current frame (others are released at end of frame)
+    private Set<VertexArray>  _frameVertexArrays = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // The primitives rendered after scene shapes (line sets, point clouds, etc.)
+    private List<JGLPrimitive>  _primitives = new ArrayList<>();
+
+    // Whether compatible VertexArrays are drawn from a shared arena with one multi-draw per state group
+    private boolean  _multiDraw;
+
+    // The arena that compatible VertexArrays are packed into (in multi-draw mode)
+    private JGLDrawArena  _drawArena;
+
+    // Whether dense VertexArrays are drawn with level of detail chosen by screen size
+    private boolean  _lod;
+
+    // The max projected error (in pixels) allowed for level of detail
+    private double  _lodPixelError = DEFAULT_LOD_PIXEL_ERROR;
+
+    // The current level of detail for VertexArrays per view (main scene or view tile index, kept for hysteresis)
+    private List<Map<VertexArray, Integer>>  _lodLevels = new ArrayList<>();
+
+    // The current level of detail for VertexArrays in view currently being rendered
+    private Map<VertexArray, Integer>  _viewLODLevels;
+
+    // The scratch vector for projection
+    private Vector4d  _scratchVector = new Vector4d();
+
+    // The view tiles to render instead of main scene/camera (multi-view mode)
+    private JGLViewTile[]  _viewTiles = new JGLViewTile[0];
+
+    // The size in pixels of viewport currently being rendered (full image or view tile)
+    private int  _viewportWidth, _viewportHeight;
+
+    // The camera currently being rendered
+    private Camera  _renderCamera;
+
+    // The projection and view matrices for camera currently being rendered
+    private double[]  _projMatrix, _viewMatrix;
+
+    // A transform applied to camera projection in clip space, e.g. to render a sub-frustum tile (optional)
+    private double[]  _clipTransform;
+
+    // The camera projection with clip transform applied (reused each frame)
+    private double[]  _clipProjMatrix = new double[16];
+
+    // Whether RenderImage size follows camera view size
+    private boolean  _followCameraSize = true;
+
+    // The transforms (column-major shape to parent) for shapes, applied as model matrix at draw time
+    private Map<Shape3D, double[]>  _shapeTransforms = new IdentityHashMap<>();
+
+    // The model matrix stack for current shape traversal (index 0 is identity) and current depth
+    private Matrix4d[]  _modelStack = { new Matrix4d() };
+    private int  _modelDepth;
+
+    // The current model matrix as array (identity array when depth is 0)
+    private double[]  _modelMatrix = JGLProgram.IDENTITY_MATRIX, _modelArray = new double[16];
+
+    // The view-projection matrix for camera currently being rendered (for frustum culling) and scratch matrix
+    private Matrix4d  _viewProjMatrix = new Matrix4d(), _scratchMatrix = new Matrix4d();
+
+    // The per-frame rendering stats
+    private RenderStats  _stats = new RenderStats();
+
+    // The GPU timer query (if available)
+    private JGLTimerQuery  _timerQuery;
+
+    // The recorder that GL calls are traced to (optional)
+    private JGLTraceRecorder  _traceRecorder;
+
+    // The program and texture used by last draw in frame (to count state changes)
+    private JGLProgram  _lastProgram;
+    private Texture  _lastTexture;
 
     // Constant for name
     private static final String RENDERER_NAME = "JOGL";
 
+    // Constant for default max projected error (in pixels) for level of detail
+    public static final double DEFAULT_LOD_PIXEL_ERROR = 1;
+
+    // Constant for level of detail hysteresis: coarsen below error/factor, refine above error*factor
+    private static final double LOD_HYSTERESIS = 1.5;
+
     /**
      * Constructor.
      */
@@ -77,17 +156,195 @@ public class JGLRenderer extends Renderer {
         int viewW = (int) Math.round(camera.getViewWidth());
         int viewH = (int) Math.round(camera.getViewHeight());
 
-        // Create RenderImage for size
-        RenderImage renderImage = new RenderImage(viewW, viewH) {
-            public void display(GLAutoDrawable drawable) {
-                JGLRenderer.this.renderAll();
-            }
-        };
+        // Create RenderImage for size (sharing context with resources drawable, if shared)
+        RenderImage renderImage = new RenderImage(viewW, viewH);
+        renderImage.setSharedDrawable(getResources().getSharedDrawable());
+        renderImage.setRenderer(this);
 
         // Set, return
         return _renderImage = renderImage;
     }
 
+    /**
+     * Sets the RenderImage to render to (e.g., a worker surface that is shared by sequential renderers).
+     */
+    public void setRenderImage(RenderImage aRenderImage)
+    {
+        _renderImage = aRenderImage;
+        _renderImage.setRenderer(this);
+        _followCameraSize = false;
+    }
+
+    /**
+     * Returns the GL resources (shader programs, textures, vertex buffers).
+     */
+    public JGLResources getResources()
+    {
+        if (_resources != null) return _resources;
+        return _resources = new JGLResources();
+    }
+
+    /**
+     * Sets the GL resources. To share resources, set the same shared JGLResources on each renderer before
+     * it renders (so its drawable is created with shared context).
+     */
+    public void setResources(JGLResources theResources)
+    {
+        _resources = theResources;
+    }
+
+    /**
+     * Returns the primitives rendered after scene shapes.
+     */
+    public List<JGLPrimitive> getPrimitives()  { return _primitives; }
+
+    /**
+     * Adds a primitive to render after scene shapes (line sets, point clouds, etc.).
+     */
+    public void addPrimitive(JGLPrimitive aPrimitive)
+    {
+        _primitives.add(aPrimitive);
+    }
+
+    /**
+     * Removes a primitive. Its GL resources aren't released (call JGLPrimitive.dispose() with context current).
+     */
+    public void removePrimitive(JGLPrimitive aPrimitive)
+    {
+        _primitives.remove(aPrimitive);
+    }
+
+    /**
+     * Returns the view tiles rendered instead of main scene/camera (multi-view mode).
+     */
+    public JGLViewTile[] getViewTiles()  { return _viewTiles; }
+
+    /**
+     * Sets view tiles to render instead of main scene/camera, so many (Scene3D, Camera) pairs are drawn into one
+     * RenderImage in one pass (sharing geometry buffers) with one readback. Use JGLViewTile.getSubimage() to split.
+     */
+    public void setViewTiles(JGLViewTile ... theTiles)
+    {
+        _viewTiles = theTiles != null ? theTiles : new JGLViewTile[0];
+    }
+
+    /**
+     * Returns the width in pixels of viewport currently being rendered (full image or view tile).
+     */
+    public int getViewportWidth()  { return _viewportWidth; }
+
+    /**
+     * Returns the height in pixels of viewport currently being rendered (full image or view tile).
+     */
+    public int getViewportHeight()  { return _viewportHeight; }
+
+    /**
+     * Renders view tiles and returns the sub-image for each tile from a single readback.
+     */
+    public BufferedImage[] renderViewTileImages()
+    {
+        // Render and read image
+        RenderImage renderImage = getRenderImage();
+        renderImage.renderAll();
+        BufferedImage image = renderImage.getImage();
+        if (image == null) return null;
+
+        // Split into tile sub-images and return
+        BufferedImage[] tileImages = new BufferedImage[_viewTiles.length];
+        for (int i = 0; i < _viewTiles.length; i++)
+            tileImages[i] = _viewTiles[i].getSubimage(image, renderImage.getPixelScale());
+        return tileImages;
+    }
+
+    /**
+     * Returns the transform applied to camera projection in clip space (or null).
+     */
+    public double[] getClipTransform()  { return _clipTransform; }
+
+    /**
+     * Sets a transform (column-major 4x4) applied to camera projection in clip space (e.g., for tiled rendering).
+     */
+    public void setClipTransform(double[] aMatrix)
+    {
+        _clipTransform = aMatrix;
+    }
+
+    /**
+     * Returns the transform (column-major 4x4, shape to parent) for given shape (or null).
+     */
+    public double[] getShapeTransform(Shape3D aShape)  { return _shapeTransforms.get(aShape); }
+
+    /**
+     * Sets a transform (column-major 4x4, shape to parent) for given shape (or null to clear). Transforms of nested
+     * shapes compose. Since the transform is applied as the model matrix at draw time, moving or animating a shape
+     * only updates a uniform and its cached vertex buffers stay valid.
+     */
+    public void setShapeTransform(Shape3D aShape, double[] aMatrix)
+    {
+        if (aMatrix != null)
+            _shapeTransforms.put(aShape, aMatrix);
+        else _shapeTransforms.remove(aShape);
+    }
+
+    /**
+     * Returns whether compatible VertexArrays are drawn from a shared arena with one multi-draw per state group.
+     */
+    public boolean isMultiDraw()  { return _multiDraw; }
+
+    /**
+     * Sets whether compatible VertexArrays (untextured and without shape transform) are packed into a shared buffer
+     * arena and drawn with one glMultiDrawElements per state group, instead of one draw call each. Useful for scenes
+     * with thousands of small VertexArrays.
+     */
+    public void setMultiDraw(boolean aValue)  { _multiDraw = aValue; }
+
+    /**
+     * Returns whether dense VertexArrays are drawn with level of detail chosen by screen size.
+     */
+    public boolean isLOD()  { return _lod; }
+
+    /**
+     * Sets whether dense VertexArrays are drawn with level of detail: decimated index sets are built once per array
+     * change (see JGLMeshLOD) and each frame the coarsest level whose error projects to less than the LOD pixel error
+     * is drawn, so vertex work scales with screen size instead of data size.
+     */
+    public void setLOD(boolean aValue)
+    {
+        _lod = aValue;
+        if (aValue)
+            getResources().setBuildMeshLODs(true);
+    }
+
+    /**
+     * Returns the max projected error (in pixels) allowed for level of detail.
+     */
+    public double getLODPixelError()  { return _lodPixelError; }
+
+    /**
+     * Sets the max projected error (in pixels) allowed for level of detail.
+     */
+    public void setLODPixelError(double aValue)  { _lodPixelError = aValue; }
+
+    /**
+     * Returns the camera currently being rendered (main camera or view tile camera).
+     */
+    public Camera getRenderCamera()  { return _renderCamera != null ? _renderCamera : getCamera(); }
+
+    /**
+     * Returns the per-frame rendering stats.
+     */
+    public RenderStats getStats()  { return _stats; }
+
+    /**
+     * Returns the recorder that GL calls are traced to (optional).
+     */
+    public JGLTraceRecorder getTraceRecorder()  { return _traceRecorder; }
+
+    /**
+     * Sets a recorder that GL calls are traced to, starting with next frame (or null to stop tracing).
+     */
+    public void setTraceRecorder(JGLTraceRecorder aRecorder)  { _traceRecorder = aRecorder; }
+
     /**
      * Returns offscreen GLAutoDrawable.
      */
@@ -112,19 +369,187 @@ public class JGLRenderer extends Renderer {
      */
     protected void renderAll()
     {
-        // Get GL and clear
-        GL2 gl = getGL2();
+        // Start frame stats and GPU timer
+        GL2 gl = updateTraceRecorder();
+        long uploadByteCount = getResources().getUploadByteCount();
+        _stats.beginFrame();
+        beginTimerQuery(gl);
+        _lastProgram = null;
+        _lastTexture = null;
+
+        // Clear
         gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
 
         // Get/set Viewport size
-        GLAutoDrawable drawable = getDrawable();
-        int viewW = drawable.getSurfaceWidth();
-        int viewH = drawable.getSurfaceHeight();
+        RenderImage renderImage = getRenderImage();
+        int viewW = renderImage.getPixelWidth();
+        int viewH = renderImage.getPixelHeight();
         gl.glViewport(0, 0, viewW, viewH);
+        setCurrentView(0, viewW, viewH);
+
+        // If view tiles set, render each in its own viewport
+        if (_viewTiles.length > 0)
+            renderViewTiles(gl, renderImage);
+
+        // Otherwise, render main scene with main camera
+        else renderScene(getScene(), getCamera());
 
-        // Iterate over scene shapes and render each
-        Scene3D scene = getScene();
-        renderShape3D(scene);
+        // Release vertex buffers and arena spans for VertexArrays no longer rendered (and LOD levels of removed tiles)
+        releaseUnusedVertexBuffers();
+        while (_lodLevels.size() > Math.max(_viewTiles.length, 1))
+            _lodLevels.remove(_lodLevels.size() - 1);
+        if (_drawArena != null)
+            _drawArena.releaseUnused();
+
+        // End GPU timer and frame stats
+        if (_timerQuery != null)
+            _timerQuery.end(gl);
+        _stats.addUploadBytes(getResources().getUploadByteCount() - uploadByteCount);
+        _stats.endFrame();
+        if (_traceRecorder != null)
+            _traceRecorder.markFrame();
+    }
+
+    /**
+     * Installs recording GL in drawable if trace recorder is set (or restores original GL if not) and returns GL.
+     */
+    private GL2 updateTraceRecorder()
+    {
+        // If recorder set and GL not yet recording, install recording GL
+        GLAutoDrawable drawable = getDrawable();
+        GL2 gl = getGL2();
+        if (_traceRecorder != null && !_traceRecorder.isRecording(gl)) {
+            GL2 baseGL = JGLTraceRecorder.getDelegate(gl);
+            gl = _traceRecorder.wrap(baseGL != null ? baseGL : gl);
+            drawable.setGL(gl);
+        }
+
+        // If recorder not set and GL is recording, restore original GL
+        else if (_traceRecorder == null) {
+            GL2 baseGL = JGLTraceRecorder.getDelegate(gl);
+            if (baseGL != null) {
+                drawable.setGL(baseGL);
+                gl = baseGL;
+            }
+        }
+
+        // Return
+        return gl;
+    }
+
+    /**
+     * Collects finished GPU timer queries and begins timing this frame (if timer queries are available).
+     */
+    private void beginTimerQuery(GL2 gl)
+    {
+        // Create timer query on first frame if available
+        if (_timerQuery == null) {
+            if (_stats.getFrameNumber() > 0 || !JGLTimerQuery.isAvailable(gl))
+                return;
+            _timerQuery = new JGLTimerQuery();
+            _stats.setGPUTimerAvailable(true);
+        }
+
+        // Collect and begin
+        _timerQuery.collect(gl, _stats);
+        _timerQuery.begin(gl, _stats.getFrameNumber());
+    }
+
+    /**
+     * Renders view tiles, each limited to its viewport and scissor.
+     */
+    protected void renderViewTiles(GL2 gl, RenderImage aRenderImage)
+    {
+        // Iterate over tiles
+        double pixelScale = aRenderImage.getPixelScale();
+        int imageH = aRenderImage.getPixelHeight();
+        for (int i = 0; i < _viewTiles.length; i++) {
+            JGLViewTile tile = _viewTiles[i];
+
+            // Get tile pixel bounds (GL origin is bottom-left)
+            int tileX = (int) Math.round(tile.getX() * pixelScale);
+            int tileW = (int) Math.round(tile.getWidth() * pixelScale);
+            int tileH = (int) Math.round(tile.getHeight() * pixelScale);
+            int tileY = imageH - (int) Math.round(tile.getY() * pixelScale) - tileH;
+
+            // Set viewport/scissor and render
+            gl.glViewport(tileX, tileY, tileW, tileH);
+            gl.glScissor(tileX, tileY, tileW, tileH);
+            setCurrentView(i, tileW, tileH);
+            renderScene(tile.getScene(), tile.getCamera());
+        }
+
+        // Restore viewport/scissor to full image
+        int imageW = aRenderImage.getPixelWidth();
+        gl.glViewport(0, 0, imageW, imageH);
+        gl.glScissor(0, 0, imageW, imageH);
+        setCurrentView(0, imageW, imageH);
+    }
+
+    /**
+     * Sets the index and pixel size of view currently being rendered (main scene or view tile) and selects its current
+     * levels of detail.
+     */
+    protected void setCurrentView(int anIndex, int aWidth, int aHeight)
+    {
+        _viewportWidth = aWidth;
+        _viewportHeight = aHeight;
+        while (_lodLevels.size() <= anIndex)
+            _lodLevels.add(new IdentityHashMap<>());
+        _viewLODLevels = _lodLevels.get(anIndex);
+    }
+
+    /**
+     * Renders given scene with given camera.
+     */
+    protected void renderScene(Scene3D aScene, Camera aCamera)
+    {
+        // Set camera and matrices
+        _renderCamera = aCamera;
+        _projMatrix = aCamera.getCameraToClipArray();
+        _viewMatrix = aCamera.getSceneToCameraArray();
+
+        // Apply clip transform (using view-projection matrix as scratch, since it is set next)
+        if (_clipTransform != null) {
+            _viewProjMatrix.set(_clipTransform).mul(_scratchMatrix.set(_projMatrix));
+            _projMatrix = _viewProjMatrix.get(_clipProjMatrix);
+        }
+
+        // Set view-projection matrix for culling and reset model matrix
+        _viewProjMatrix.set(_projMatrix).mul(_scratchMatrix.set(_viewMatrix));
+        _modelDepth = 0;
+        _modelMatrix = JGLProgram.IDENTITY_MATRIX;
+
+        // Render scene, then multi-draw groups and primitives
+        renderShape3D(aScene);
+        if (_drawArena != null)
+            renderDrawGroups();
+        renderPrimitives();
+
+        // Clear camera
+        _renderCamera = null;
+    }
+
+    /**
+     * Renders primitives with current camera matrices.
+     */
+    protected void renderPrimitives()
+    {
+        // If no primitives, just return
+        if (_primitives.isEmpty()) return;
+
+        // Render each visible primitive (with programs from renderer resources and current viewport size)
+        GL2 gl = getGL2();
+        JGLResources resources = getResources();
+        for (int i = 0, iMax = _primitives.size(); i < iMax; i++) {
+            JGLPrimitive primitive = _primitives.get(i);
+            if (primitive.isVisible()) {
+                primitive.setResources(resources);
+                primitive.setViewSize(_viewportWidth, _viewportHeight);
+                primitive.render(gl, _projMatrix, _viewMatrix);
+                _stats.addDrawCall(0);
+            }
+        }
     }
 
     /**
@@ -136,6 +561,11 @@ public class JGLRenderer extends Renderer {
         if (!aShape3D.isVisible())
             return;
 
+        // If shape has transform, push model matrix
+        double[] shapeTransform = _shapeTransforms.isEmpty() ? null : _shapeTransforms.get(aShape3D);
+        if (shapeTransform != null)
+            pushModelMatrix(shapeTransform);
+
         // Handle Parent: Iterate over children and recurse
         if (aShape3D instanceof ParentShape) {
             ParentShape parentShape = (ParentShape) aShape3D;
@@ -152,6 +582,39 @@ public class JGLRenderer extends Renderer {
                 triangleArray = triangleArray.getNext();
             }
         }
+
+        // If shape has transform, pop model matrix
+        if (shapeTransform != null)
+            popModelMatrix();
+    }
+
+    /**
+     * Pushes model matrix for given shape transform (composed with current model matrix).
+     */
+    private void pushModelMatrix(double[] aTransform)
+    {
+        // Make sure stack has room
+        int depth = _modelDepth + 1;
+        if (depth == _modelStack.length) {
+            _modelStack = Arrays.copyOf(_modelStack, depth * 2);
+            for (int i = depth; i < _modelStack.length; i++)
+                _modelStack[i] = new Matrix4d();
+        }
+
+        // Set model matrix to parent model matrix times transform
+        _modelStack[depth].set(aTransform);
+        _modelStack[depth].mulLocal(_modelStack[_modelDepth]);
+        _modelDepth = depth;
+        _modelMatrix = _modelStack[depth].get(_modelArray);
+    }
+
+    /**
+     * Pops model matrix.
+     */
+    private void popModelMatrix()
+    {
+        _modelDepth--;
+        _modelMatrix = _modelDepth > 0 ? _modelStack[_modelDepth].get(_modelArray) : JGLProgram.IDENTITY_MATRIX;
     }
 
     /**
@@ -159,7 +622,21 @@ public class JGLRenderer extends Renderer {
      */
     protected void renderTriangleArray(VertexArray aTriangleArray)
     {
+        // If multi-draw and array is compatible, add to arena draw group instead
+        if (_multiDraw && _modelDepth == 0 && aTriangleArray.getTexture() == null) {
+            addArenaDraw(aTriangleArray);
+            return;
+        }
+
+        // Get vertex buffers (just return if outside view frustum)
+        JGLVertexBuffers vertexBuffers = getVertexBuffers(aTriangleArray);
+        if (isOutsideFrustum(vertexBuffers)) {
+            _stats.addShapeCulled();
+            return;
+        }
+
         // Get GL
+        long submitStart = System.nanoTime();
         GL2 gl = getGL2();
         boolean doubleSided = aTriangleArray.isDoubleSided();
         if (doubleSided)
@@ -170,48 +647,212 @@ public class JGLRenderer extends Renderer {
 
         // Use this program
         program.useProgram();
+        if (program != _lastProgram) {
+            _stats.addProgramSwitch();
+            _lastProgram = program;
+        }
 
         // Set VertexShader Projection Matrix
-        Camera camera = getCamera();
-        double[] projMatrix = camera.getCameraToClipArray();
-        program.setProjectionMatrix(projMatrix);
+        program.setProjectionMatrix(_projMatrix);
+
+        // Set VertexShader View Matrix
+        program.setViewMatrix(_viewMatrix);
 
         // Set VertexShader Model Matrix
-        double[] sceneToCamera = camera.getSceneToCameraArray();
-        program.setViewMatrix(sceneToCamera);
+        program.setModelMatrix(_modelMatrix);
 
         // Set VertexShader points
-        float[] pointsArray = aTriangleArray.getPointArray();
-        program.setPoints(pointsArray);
+        program.setPoints(vertexBuffers.getPointsBufferId(), vertexBuffers.getPointCount());
 
         // Set VertexShader color
         Color color = aTriangleArray.getColor();
-        float[] colors = aTriangleArray.getColorArray();
-        if (aTriangleArray.isColorArraySet())
-            program.setColors(colors);
+        if (vertexBuffers.getColorsBufferId() != 0)
+            program.setColors(vertexBuffers.getColorsBufferId());
         else program.setColor(color);
 
         // Set VertexShader texture coords
         Texture texture = aTriangleArray.getTexture();
-        float[] texCoords = aTriangleArray.getTexCoordArray();
-        if (texture != null && texCoords != null && texCoords.length > 0) {
+        if (texture != null && vertexBuffers.getTexCoordsBufferId() != 0) {
             com.jogamp.opengl.util.texture.Texture joglTexture = getTexture(texture);
             program.setTexture(joglTexture);
-            program.setTexCoords(texCoords);
+            program.setTexCoords(vertexBuffers.getTexCoordsBufferId());
+            if (texture != _lastTexture) {
+                _stats.addTextureBind();
+                _lastTexture = texture;
+            }
         }
 
-        // Set IndexArray
-        if (aTriangleArray.isIndexArraySet()) {
-            int[] indexArray = aTriangleArray.getIndexArray();
-            program.setIndexArray(indexArray);
+        // Set IndexArray (decimated index set if level of detail)
+        int lodLevel = _lod ? getLODLevel(aTriangleArray, vertexBuffers) : 0;
+        int vertexCount = vertexBuffers.getIndexBufferId() != 0 ? vertexBuffers.getIndexCount() : vertexBuffers.getPointCount();
+        if (lodLevel > 0) {
+            vertexCount = vertexBuffers.getLODIndexCount(lodLevel);
+            program.setIndexArray(vertexBuffers.getLODIndexBufferId(lodLevel), vertexCount);
         }
+        else if (vertexBuffers.getIndexBufferId() != 0)
+            program.setIndexArray(vertexBuffers.getIndexBufferId(), vertexBuffers.getIndexCount());
 
         // Run program
         program.runProgram();
+        _stats.addDrawCall(vertexCount / 3);
 
         // Restore
         if (doubleSided)
             gl.glEnable(GL.GL_CULL_FACE);
+        _stats.addSubmitTime(System.nanoTime() - submitStart);
+    }
+
+    /**
+     * Packs given triangle VertexArray into draw arena (writing only changed spans) and adds it to its draw group.
+     */
+    protected void addArenaDraw(VertexArray aTriangleArray)
+    {
+        // Get arena entry (create arena if needed)
+        if (_drawArena == null)
+            _drawArena = new JGLDrawArena();
+        JGLDrawArena.Entry entry = _drawArena.updateEntry(getGL2(), aTriangleArray);
+        _stats.addUploadBytes(_drawArena.getUploadByteCount());
+
+        // If empty or outside view frustum, just return
+        if (entry.getIndexCount() == 0)
+            return;
+        if (isOutsideFrustum(entry.getBounds())) {
+            _stats.addShapeCulled();
+            return;
+        }
+
+        // Add to draw group
+        _drawArena.addDraw(entry, aTriangleArray.isDoubleSided());
+    }
+
+    /**
+     * Renders draw arena groups, each with one multi-draw, and clears them.
+     */
+    protected void renderDrawGroups()
+    {
+        // Iterate over groups
+        GL2 gl = getGL2();
+        for (JGLDrawArena.DrawGroup drawGroup : _drawArena.getDrawGroups()) {
+
+            // If group empty, just continue
+            if (drawGroup.getDrawCount() == 0)
+                continue;
+
+            // Get program (all arena arrays have colors)
+            long submitStart = System.nanoTime();
+            JGLProgram program = getProgram("Points_Colors");
+            program.useProgram();
+            if (program != _lastProgram) {
+                _stats.addProgramSwitch();
+                _lastProgram = program;
+            }
+
+            // Set matrices, arena buffers and index ranges
+            program.setProjectionMatrix(_projMatrix);
+            program.setViewMatrix(_viewMatrix);
+            program.setModelMatrix(JGLProgram.IDENTITY_MATRIX);
+            program.setPoints(_drawArena.getPointsBufferId(), 0);
+            program.setColors(_drawArena.getColorsBufferId());
+            program.setIndexArray(_drawArena.getIndexBufferId(), 0);
+            program.setElementRanges(drawGroup.getCounts(), drawGroup.getOffsets(), drawGroup.getDrawCount());
+
+            // Run program (disabling cull face if double-sided)
+            if (drawGroup.isDoubleSided())
+                gl.glDisable(GL.GL_CULL_FACE);
+            program.runProgram();
+            if (drawGroup.isDoubleSided())
+                gl.glEnable(GL.GL_CULL_FACE);
+
+            // Update stats and clear group
+            _stats.addDrawCall(drawGroup.getIndexCount() / 3);
+            _stats.addSubmitTime(System.nanoTime() - submitStart);
+            drawGroup.clear();
+        }
+    }
+
+    /**
+     * Returns the level of detail to draw for given VertexArray: the coarsest level whose error projects to less than
+     * LOD pixel error, changing from current level only past a hysteresis band (so levels don't pop back and forth).
+     */
+    protected int getLODLevel(VertexArray aVertexArray, JGLVertexBuffers theBuffers)
+    {
+        // If no levels, return full detail
+        JGLMeshLOD lod = theBuffers.getLOD();
+        if (lod == null)
+            return 0;
+
+        // Get pixels per world unit at shape bounds (if bounds cross camera plane, return full detail)
+        double pixelsPerUnit = getPixelsPerUnit(theBuffers.getBounds());
+        if (!(pixelsPerUnit >= 0))
+            return 0;
+
+        // Get current level, coarsen while next level error is well under threshold, refine while well over
+        Integer currentLevel = _viewLODLevels.get(aVertexArray);
+        int levelCount = lod.getLevelCount();
+        int level = currentLevel != null ? Math.min(currentLevel, levelCount - 1) : 0;
+        while (level + 1 < levelCount && lod.getError(level + 1) * pixelsPerUnit <= _lodPixelError / LOD_HYSTERESIS)
+            level++;
+        while (level > 0 && lod.getError(level) * pixelsPerUnit > _lodPixelError * LOD_HYSTERESIS)
+            level--;
+
+        // Update current level and return
+        if (currentLevel == null || currentLevel != level)
+            _viewLODLevels.put(aVertexArray, level);
+        return level;
+    }
+
+    /**
+     * Returns the approximate pixels per world unit for given bounds (projected bounds extent in pixels over bounds
+     * extent), or NaN if bounds cross camera plane.
+     */
+    protected double getPixelsPerUnit(double[] bounds)
+    {
+        // Get matrix from shape to clip space (applying model matrix if set)
+        Matrix4d clipMatrix = _viewProjMatrix;
+        if (_modelDepth > 0)
+            clipMatrix = _scratchMatrix.set(_viewProjMatrix).mul(_modelStack[_modelDepth]);
+
+        // Project bounds corners and get NDC bounds (if any corner behind camera, return NaN)
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            Vector4d corner = _scratchVector.set(bounds[(i & 1) * 3], bounds[1 + (i >> 1 & 1) * 3], bounds[2 + (i >> 2) * 3], 1);
+            clipMatrix.transform(corner);
+            if (corner.w <= 0)
+                return Double.NaN;
+            double x = corner.x / corner.w, y = corner.y / corner.w;
+            minX = Math.min(minX, x); maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y); maxY = Math.max(maxY, y);
+        }
+
+        // Return projected extent in pixels over world extent
+        double pixelExtent = Math.max((maxX - minX) * _viewportWidth, (maxY - minY) * _viewportHeight) / 2;
+        double worldExtent = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+        return worldExtent > 0 ? pixelExtent / worldExtent : Double.NaN;
+    }
+
+    /**
+     * Returns whether bounds of given vertex buffers are completely outside view frustum of current camera.
+     */
+    protected boolean isOutsideFrustum(JGLVertexBuffers theBuffers)
+    {
+        return isOutsideFrustum(theBuffers.getBounds());
+    }
+
+    /**
+     * Returns whether given bounds (minX, minY, minZ, maxX, maxY, maxZ) are completely outside view frustum of current
+     * camera.
+     */
+    protected boolean isOutsideFrustum(double[] bounds)
+    {
+        // If no bounds, return false
+        if (bounds[0] > bounds[3])
+            return false;
+
+        // Get matrix from shape to clip space (applying model matrix if set) and test bounds
+        Matrix4d clipMatrix = _viewProjMatrix;
+        if (_modelDepth > 0)
+            clipMatrix = _scratchMatrix.set(_viewProjMatrix).mul(_modelStack[_modelDepth]);
+        return !clipMatrix.testAab(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
     }
 
     /**
@@ -219,14 +860,22 @@ public class JGLRenderer extends Renderer {
      */
     public JGLProgram getProgram(VertexArray aVertexArray)
     {
-        // If shader exists, return
         String name = getShaderString(aVertexArray);
+        return getProgram(name);
+    }
+
+    /**
+     * Returns a ShaderProgram for given shader name.
+     */
+    public JGLProgram getProgram(String name)
+    {
+        // If program already acquired, return
         JGLProgram program = _programs.get(name);
         if (program != null)
             return program;
 
-        // Create, set and return
-        program = new JGLProgram(aVertexArray, this);
+        // Acquire from resources, set and return
+        program = getResources().acquireProgram(name);
         _programs.put(name, program);
         return program;
     }
@@ -236,16 +885,8 @@ public class JGLRenderer extends Renderer {
      */
     public JGLShader getVertexShader(VertexArray aVertexArray)
     {
-        // If shader exists, return
         String name = getShaderString(aVertexArray);
-        JGLShader shader = _vertShaders.get(name);
-        if (shader != null)
-            return shader;
-
-        // Create, set and return
-        shader = new JGLShader(JGLShader.ShaderType.Vertex, name, this);
-        _vertShaders.put(name, shader);
-        return shader;
+        return getResources().getShader(JGLShader.ShaderType.Vertex, name);
     }
 
     /**
@@ -253,16 +894,8 @@ public class JGLRenderer extends Renderer {
      */
     public JGLShader getFragmentShader(VertexArray aVertexArray)
     {
-        // If shader exists, return
         String name = getShaderString(aVertexArray);
-        JGLShader shader = _fragShaders.get(name);
-        if (shader != null)
-            return shader;
-
-        // Create, set and return
-        shader = new JGLShader(JGLShader.ShaderType.Fragment, name, this);
-        _fragShaders.put(name, shader);
-        return shader;
+        return getResources().getShader(JGLShader.ShaderType.Fragment, name);
     }
 
     /**
@@ -275,23 +908,109 @@ public class JGLRenderer extends Renderer {
         if (joglTexture != null)
             return joglTexture;
 
-        // Get BufferedImage and flip for OpenGL
-        Image image = aTexture.getImage();
-        BufferedImage awtImage = (BufferedImage) image.getNative();
+        // Acquire from resources, add to textures map and return
+        joglTexture = getResources().acquireTexture(aTexture);
+        _textures.put(aTexture, joglTexture);
+        return joglTexture;
+    }
 
-        // Make sure texture is flipped
-        if (!aTexture.isFlipped()) {
-            ImageUtil.flipImageVertically(awtImage);
-            aTexture.setFlipped(true);
+    /**
+     * Returns the vertex buffers for given VertexArray (uploading if new or changed).
+     */
+    public JGLVertexBuffers getVertexBuffers(VertexArray aVertexArray)
+    {
+        // Mark VertexArray as used in this frame
+        _frameVertexArrays.add(aVertexArray);
+
+        // If already acquired, make sure it's up to date and return
+        JGLVertexBuffers vertexBuffers = _vertexBuffers.get(aVertexArray);
+        if (vertexBuffers != null) {
+            getResources().updateVertexBuffers(aVertexArray, vertexBuffers);
+            return vertexBuffers;
         }
 
-        // Create JOGLTexture from image
-        GLProfile profile = getDrawable().getGLProfile();
-        joglTexture = AWTTextureIO.newTexture(profile, awtImage, false);
+        // Acquire from resources, add to map and return
+        vertexBuffers = getResources().acquireVertexBuffers(aVertexArray);
+        _vertexBuffers.put(aVertexArray, vertexBuffers);
+        return vertexBuffers;
+    }
 
-        // Add to textures map and return
-        _textures.put(aTexture, joglTexture);
-        return joglTexture;
+    /**
+     * Marks arrays of given VertexArray as changed in place (e.g. streaming chart data), so next render uploads the
+     * changed spans.
+     */
+    public void vertexArrayChanged(VertexArray aVertexArray)
+    {
+        JGLVertexBuffers vertexBuffers = _vertexBuffers.get(aVertexArray);
+        if (vertexBuffers != null)
+            vertexBuffers.arraysChanged();
+        if (_drawArena != null)
+            _drawArena.entryChanged(aVertexArray);
+    }
+
+    /**
+     * Releases vertex buffers for VertexArrays that weren't rendered in current frame.
+     */
+    protected void releaseUnusedVertexBuffers()
+    {
+        // If all acquired VertexArrays were rendered in frame, just reset (common case, avoids iterator)
+        if (_frameVertexArrays.size() == _vertexBuffers.size()) {
+            _frameVertexArrays.clear();
+            return;
+        }
+
+        // Release VertexArrays not in frame
+        JGLResources resources = getResources();
+        for (Iterator<VertexArray> iter = _vertexBuffers.keySet().iterator(); iter.hasNext(); ) {
+            VertexArray vertexArray = iter.next();
+            if (!_frameVertexArrays.contains(vertexArray)) {
+                resources.releaseVertexBuffers(vertexArray);
+                for (Map<VertexArray, Integer> lodLevels : _lodLevels)
+                    lodLevels.remove(vertexArray);
+                iter.remove();
+            }
+        }
+
+        // Reset frame VertexArrays
+        _frameVertexArrays.clear();
+    }
+
+    /**
+     * Releases references to shared GL resources (and deletes private resources). Context must be current.
+     */
+    public void disposeResources()
+    {
+        // Release programs, textures and vertex buffers
+        JGLResources resources = getResources();
+        for (String programName : _programs.keySet())
+            resources.releaseProgram(programName);
+        for (Texture texture : _textures.keySet())
+            resources.releaseTexture(texture);
+        for (VertexArray vertexArray : _vertexBuffers.keySet())
+            resources.releaseVertexBuffers(vertexArray);
+
+        // Clear maps
+        _programs.clear();
+        _textures.clear();
+        _vertexBuffers.clear();
+        _frameVertexArrays.clear();
+        _lodLevels.clear();
+
+        // Release primitives and draw arena
+        for (JGLPrimitive primitive : _primitives)
+            primitive.dispose(getGL2());
+        if (_drawArena != null)
+            _drawArena.dispose(getGL2());
+        _drawArena = null;
+
+        // Delete timer query
+        if (_timerQuery != null)
+            _timerQuery.dispose(getGL2());
+        _timerQuery = null;
+
+        // If resources are private, delete everything
+        if (!resources.isShared())
+            resources.dispose();
     }
 
     /**
@@ -330,8 +1049,8 @@ public class JGLRenderer extends Renderer {
      */
     private void resizeDrawableToCameraViewSize()
     {
-        // If RenderJOGL not set, just return
-        if (_renderImage == null) return;
+        // If RenderJOGL not set or not following camera size, just return
+        if (_renderImage == null || !_followCameraSize) return;
 
         // Get Camera ViewSize and set
         Camera camera = getCamera();
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.awt.ImageUtil;
+import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
+import snap.gfx.Image;
+import snap.gfx3d.Texture;
+import snap.gfx3d.VertexArray;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * This class is a registry of GL resources (shader programs, textures and static geometry buffers) that can be
+ * shared by multiple JGLRenderers. A shared registry owns a master drawable whose context is shared by the drawables
+ * of all renderers that use it, so resources are created once for the whole share group.
+ *
+ * Textures and vertex buffers are reference counted and deleted when the last renderer releases them. Programs and
+ * shaders are small and expensive to compile, so they stay cached until the registry is disposed.
+ *
+ * Registry methods are synchronized, but GL objects in a share group should only be used by renderers on one thread
+ * at a time (e.g., the charts of a dashboard that all render on the event thread).
+ */
+public class JGLResources {
+
+    // Whether resources are shared across renderers with shared contexts
+    private boolean  _shared;
+
+    // The master drawable whose context is shared (if shared)
+    private GLAutoDrawable  _sharedDrawable;
+
+    // A map of shader programs
+    private Map<String, Resource<JGLProgram>>  _programs = new HashMap<>();
+
+    // A map of vertex shaders
+    private Map<String, JGLShader>  _vertShaders = new HashMap<>();
+
+    // A map of fragment shaders
+    private Map<String, JGLShader>  _fragShaders = new HashMap<>();
+
+    // A map of textures
+    private Map<Texture, Resource<com.jogamp.opengl.util.texture.Texture>>  _textures = new HashMap<>();
+
+    // A map of vertex buffers
+    private Map<VertexArray, Resource<JGLVertexBuffers>>  _vertexBuffers = new IdentityHashMap<>();
+
+    // The total number of bytes uploaded for textures and vertex buffers
+    private long  _uploadByteCount;
+
+    // Whether non-indexed VertexArrays are uploaded welded and cache-ordered
+    private boolean  _optimizeMeshes;
+
+    // Whether levels of detail are built for dense VertexArrays
+    private boolean  _buildMeshLODs;
+
+    /**
+     * Constructor for private (unshared) resources of a single renderer.
+     */
+    public JGLResources()
+    {
+        this(false);
+    }
+
+    /**
+     * Constructor for resources that can be shared by renderers whose drawables share master drawable context.
+     */
+    public JGLResources(boolean isShared)
+    {
+        _shared = isShared;
+    }
+
+    /**
+     * Returns whether resources are shared across renderers with shared contexts.
+     */
+    public boolean isShared()  { return _shared; }
+
+    /**
+     * Returns the total number of bytes uploaded for textures and vertex buffers.
+     */
+    public synchronized long getUploadByteCount()  { return _uploadByteCount; }
+
+    /**
+     * Returns whether non-indexed VertexArrays are uploaded with identical vertices welded and triangles cache-ordered.
+     */
+    public synchronized boolean isOptimizeMeshes()  { return _optimizeMeshes; }
+
+    /**
+     * Sets whether non-indexed VertexArrays are uploaded with identical vertices welded into an index array and
+     * triangles reordered for vertex cache locality (computed once per array change, see JGLMeshOptimizer).
+     */
+    public synchronized void setOptimizeMeshes(boolean aValue)  { _optimizeMeshes = aValue; }
+
+    /**
+     * Returns whether levels of detail are built for dense VertexArrays.
+     */
+    public synchronized boolean isBuildMeshLODs()  { return _buildMeshLODs; }
+
+    /**
+     * Sets whether levels of detail (decimated index sets, see JGLMeshLOD) are built for dense VertexArrays.
+     */
+    public synchronized void setBuildMeshLODs(boolean aValue)  { _buildMeshLODs = aValue; }
+
+    /**
+     * Returns the master drawable that renderer drawables should share context with (or null if not shared).
+     */
+    public synchronized GLAutoDrawable getSharedDrawable()
+    {
+        // If already set or not shared, just return
+        if (_sharedDrawable != null || !_shared) return _sharedDrawable;
+
+        // Create minimal drawable and display once to realize context
+        GLCapabilities glCaps = DrawableUtils.getOffscreenCapabilities(0);
+        GLAutoDrawable drawable = DrawableUtils.createOffScreenDrawableDefault(glCaps, 1, 1);
+        drawable.display();
+        return _sharedDrawable = drawable;
+    }
+
+    /**
+     * Returns a program for given shader name and adds a reference.
+     */
+    public synchronized JGLProgram acquireProgram(String aName)
+    {
+        // If program exists, add reference and return
+        Resource<JGLProgram> resource = _programs.get(aName);
+        if (resource != null) {
+            resource._refCount++;
+            return resource._value;
+        }
+
+        // Create program, add and return
+        JGLShader vertShader = getShader(JGLShader.ShaderType.Vertex, aName);
+        JGLShader fragShader = getShader(JGLShader.ShaderType.Fragment, aName);
+        JGLProgram program = new JGLProgram(vertShader, fragShader);
+        _programs.put(aName, new Resource<>(program));
+        return program;
+    }
+
+    /**
+     * Removes a reference to program for given shader name. Unused programs stay cached until dispose.
+     */
+    public synchronized void releaseProgram(String aName)
+    {
+        Resource<JGLProgram> resource = _programs.get(aName);
+        if (resource != null && resource._refCount > 0)
+            resource._refCount--;
+    }
+
+    /**
+     * Returns a shader for given type and name.
+     */
+    public synchronized JGLShader getShader(JGLShader.ShaderType aType, String aName)
+    {
+        // If shader exists, return
+        Map<String, JGLShader> shaders = aType == JGLShader.ShaderType.Vertex ? _vertShaders : _fragShaders;
+        JGLShader shader = shaders.get(aName);
+        if (shader != null)
+            return shader;
+
+        // Create, set and return
+        shader = new JGLShader(aType, aName);
+        shaders.put(aName, shader);
+        return shader;
+    }
+
+    /**
+     * Returns a JOGL texture for given Snap texture and adds a reference.
+     */
+    public synchronized com.jogamp.opengl.util.texture.Texture acquireTexture(Texture aTexture)
+    {
+        // If texture exists, add reference and return
+        Resource<com.jogamp.opengl.util.texture.Texture> resource = _textures.get(aTexture);
+        if (resource != null) {
+            resource._refCount++;
+            return resource._value;
+        }
+
+        // Get BufferedImage and flip for OpenGL
+        Image image = aTexture.getImage();
+        BufferedImage awtImage = (BufferedImage) image.getNative();
+
+        // Make sure texture is flipped
+        if (!aTexture.isFlipped()) {
+            ImageUtil.flipImageVertically(awtImage);
+            aTexture.setFlipped(true);
+        }
+
+        // Create JOGLTexture from image
+        GLProfile profile = GLContext.getCurrentGL().getGLProfile();
+        com.jogamp.opengl.util.texture.Texture joglTexture = AWTTextureIO.newTexture(profile, awtImage, false);
+        _uploadByteCount += joglTexture.getEstimatedMemorySize();
+
+        // Add to textures map and return
+        _textures.put(aTexture, new Resource<>(joglTexture));
+        return joglTexture;
+    }
+
+    /**
+     * Removes a reference to texture for given Snap texture, deleting it if no longer used. Context must be current.
+     */
+    public synchronized void releaseTexture(Texture aTexture)
+    {
+        Resource<com.jogamp.opengl.util.texture.Texture> resource = _textures.get(aTexture);
+        if (resource != null && --resource._refCount <= 0) {
+            resource._value.destroy(getGL2());
+            _textures.remove(aTexture);
+        }
+    }
+
+    /**
+     * Returns vertex buffers for given VertexArray (uploading if needed) and adds a reference.
+     */
+    public synchronized JGLVertexBuffers acquireVertexBuffers(VertexArray aVA)
+    {
+        // Get resource (create if missing)
+        Resource<JGLVertexBuffers> resource = _vertexBuffers.get(aVA);
+        if (resource != null)
+            resource._refCount++;
+        else _vertexBuffers.put(aVA, resource = new Resource<>(new JGLVertexBuffers()));
+
+        // Make sure buffers are up to date and return
+        updateVertexBuffers(aVA, resource._value);
+        return resource._value;
+    }
+
+    /**
+     * Makes sure given vertex buffers for given VertexArray are up to date.
+     */
+    public synchronized void updateVertexBuffers(VertexArray aVA, JGLVertexBuffers theBuffers)
+    {
+        theBuffers.setOptimize(_optimizeMeshes);
+        theBuffers.setBuildLOD(_buildMeshLODs);
+        if (theBuffers.isStale(aVA)) {
+            theBuffers.setVertexArray(getGL2(), aVA);
+            _uploadByteCount += theBuffers.getUploadByteCount();
+        }
+    }
+
+    /**
+     * Removes a reference to vertex buffers for given VertexArray, deleting if no longer used. Context must be current.
+     */
+    public synchronized void releaseVertexBuffers(VertexArray aVA)
+    {
+        Resource<JGLVertexBuffers> resource = _vertexBuffers.get(aVA);
+        if (resource != null && --resource._refCount <= 0) {
+            resource._value.dispose(getGL2());
+            _vertexBuffers.remove(aVA);
+        }
+    }
+
+    /**
+     * Releases all GL resources (regardless of references). Context must be current.
+     */
+    public synchronized void dispose()
+    {
+        // Delete programs and shaders
+        GL2 gl = getGL2();
+        for (Resource<JGLProgram> resource : _programs.values())
+            resource._value.disposeShaderProgram();
+        for (JGLShader shader : _vertShaders.values())
+            gl.glDeleteShader(shader.getId());
+        for (JGLShader shader : _fragShaders.values())
+            gl.glDeleteShader(shader.getId());
+
+        // Delete textures and vertex buffers
+        for (Resource<com.jogamp.opengl.util.texture.Texture> resource : _textures.values())
+            resource._value.destroy(gl);
+        for (Resource<JGLVertexBuffers> resource : _vertexBuffers.values())
+            resource._value.dispose(gl);
+
+        // Clear maps
+        _programs.clear();
+        _vertShaders.clear();
+        _fragShaders.clear();
+        _textures.clear();
+        _vertexBuffers.clear();
+
+        // Destroy shared drawable
+        if (_sharedDrawable != null)
+            _sharedDrawable.destroy();
+        _sharedDrawable = null;
+    }
+
+    /**
+     * Returns the GL2 for current context.
+     */
+    private static GL2 getGL2()
+    {
+        return GLContext.getCurrentGL().getGL2();
+    }
+
+    /**
+     * A reference counted resource.
+     */
+    private static class Resource<T> {
+
+        // The value
+        private T  _value;
+
+        // The number of references
+        private int  _refCount = 1;
+
+        /**
+         * Constructor.
+         */
+        private Resource(T aValue)  { _value = aValue; }
+    }
+}
@@ -1,5 +1,6 @@
 package snapgl;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
 import snap.util.SnapUtils;
 
 /**
@@ -7,9 +8,6 @@ import snap.util.SnapUtils;
  */
 public class JGLShader {
 
-    // The renderer
-    private JGLRenderer  _rjx;
-
     // The Shader type
     private ShaderType  _type;
 
@@ -24,15 +22,25 @@ public class JGLShader {
 
     /**
      * Creates a shader of given type for given Renderer.
+     *
+     * @deprecated Renderer is no longer used (shader is created in current GL context): use JGLShader(type, name).
      */
+    @Deprecated
     public JGLShader(ShaderType aType, String aName, JGLRenderer aRJX)
     {
-        _rjx = aRJX;
+        this(aType, aName);
+    }
+
+    /**
+     * Creates a shader of given type and name in current GL context.
+     */
+    public JGLShader(ShaderType aType, String aName)
+    {
         _type = aType;
         _name = aName;
 
         // Create shader
-        GL2 gl2 = aRJX.getGL2();
+        GL2 gl2 = getGL2();
         int glType = _type == ShaderType.Vertex ? GL2.GL_VERTEX_SHADER : GL2.GL_FRAGMENT_SHADER;
         _id = gl2.glCreateShader(glType);
 
@@ -71,6 +79,10 @@ public class JGLShader {
                 case "Points_Color": return "Points_Color.vs";
                 case "Points_Colors": return "Points_Colors.vs";
                 case "Points_Color_Tex": return "Points_Color_Tex.vs";
+                case "Lines_Cylinder": return "Lines_Cylinder.vs";
+                case "Lines_Screen": return "Lines_Screen.vs";
+                case "Points_Sprite": return "Points_Sprite.vs";
+                case "FXAA": return "Fullscreen.vs";
             }
         }
 
@@ -78,6 +90,10 @@ public class JGLShader {
         if (_type == ShaderType.Fragment) {
             if (_name.equals("Points_Color_Tex"))
                 return "Points_Color_Tex.fs";
+            if (_name.equals("FXAA"))
+                return "FXAA.fs";
+            if (_name.equals("Points_Sprite"))
+                return "Points_Sprite.fs";
             return "General.fs";
         }
 
@@ -91,7 +107,7 @@ public class JGLShader {
     private String compileShader()
     {
         // Compile
-        GL2 gl2 = _rjx.getGL2();
+        GL2 gl2 = getGL2();
         gl2.glCompileShader(_id);
 
         // Get compile status
@@ -107,4 +123,12 @@ public class JGLShader {
         gl2.glGetShaderInfoLog(_id, logLength[0], null, 0, log, 0);
         return new String(log);
     }
+
+    /**
+     * Returns the GL2 for current context.
+     */
+    private static GL2 getGL2()
+    {
+        return GLContext.getCurrentGL().getGL2();
+    }
 }
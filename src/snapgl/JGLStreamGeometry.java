@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL3ES3;
+import snap.gfx.Color;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * This class draws a rolling window of streaming samples (e.g. a live time-series) as a line strip or ribbon. Samples
+ * are written into a fixed-capacity GPU ring buffer at a moving head, so each frame only uploads the new samples
+ * (regardless of window size), and the window is drawn as at most two ranges.
+ *
+ * The ring has one extra slot at the end that repeats the sample in slot 0, so the strip stays connected across the
+ * wrap. Where sync objects are available, new samples are written to mapped memory without implicit sync, and fences
+ * make sure slots being overwritten are no longer read by frames in flight.
+ */
+public class JGLStreamGeometry extends JGLPrimitive {
+
+    // The stream mode
+    private StreamMode  _mode;
+
+    // The number of samples drawn (newest)
+    private int  _windowSize;
+
+    // The number of ring slots (not counting extra slot)
+    private int  _capacity;
+
+    // The samples added since last render (not yet uploaded): a ring of at most window size samples (older ones are
+    // dropped, since they wouldn't be drawn), with index of oldest, count and number dropped
+    private float[]  _pending = new float[0];
+    private int  _pendingStart, _pendingCount;
+    private long  _pendingDropped;
+
+    // The absolute index of next sample to upload and of first sample since last clear
+    private long  _sampleCount, _firstSample;
+
+    // The ring buffer id
+    private int  _bufferId;
+
+    // Whether to write with mapped memory and fences (determined on first render)
+    private Boolean  _useFences;
+
+    // The fences of frames in flight (ring queue) with absolute index of first sample drawn by each
+    private long[]  _fences = new long[MAX_FENCES];
+    private long[]  _fenceStarts = new long[MAX_FENCES];
+    private int  _fenceHead, _fenceCount;
+
+    // The staging buffer for uploads without fences (grown as needed)
+    private FloatBuffer  _stagingBuffer;
+
+    // Scratch arrays for draw ranges
+    private int[]  _rangeFirsts = new int[2], _rangeCounts = new int[2];
+
+    // Constant for number of floats per vertex (x, y, z, r, g, b)
+    private static final int VERTEX_FLOATS = 6;
+
+    // Constant for max number of frame fences kept (waits for oldest if exceeded)
+    private static final int MAX_FENCES = 8;
+
+    // Constant for max time to wait for a fence (nanoseconds)
+    private static final long FENCE_TIMEOUT = 1000000000L;
+
+    /**
+     * Stream modes.
+     */
+    public enum StreamMode {
+
+        /** A line strip with one vertex per sample. */
+        Line(1, GL2.GL_LINE_STRIP),
+
+        /** A triangle strip ribbon with two vertices per sample (e.g. top and bottom edge). */
+        Ribbon(2, GL2.GL_TRIANGLE_STRIP);
+
+        // The number of vertices per sample and GL draw mode
+        private final int  _vertexCount, _drawMode;
+
+        StreamMode(int aVertexCount, int aDrawMode)
+        {
+            _vertexCount = aVertexCount;
+            _drawMode = aDrawMode;
+        }
+    }
+
+    /**
+     * Constructor for given mode and window size (in samples), with default ring headroom of a quarter window.
+     */
+    public JGLStreamGeometry(StreamMode aMode, int aWindowSize)
+    {
+        this(aMode, aWindowSize, aWindowSize + Math.max(aWindowSize / 4, 64));
+    }
+
+    /**
+     * Constructor for given mode, window size and ring capacity (in samples). Capacity beyond window size lets new
+     * samples be written while frames in flight still read the window, without waiting for them.
+     */
+    public JGLStreamGeometry(StreamMode aMode, int aWindowSize, int aCapacity)
+    {
+        super("Points_Colors");
+        if (aWindowSize < 1 || aCapacity < aWindowSize)
+            throw new IllegalArgumentException("JGLStreamGeometry: Invalid window/capacity: " + aWindowSize + "/" + aCapacity);
+        _mode = aMode;
+        _windowSize = aWindowSize;
+        _capacity = aCapacity;
+    }
+
+    /**
+     * Returns the stream mode.
+     */
+    public StreamMode getMode()  { return _mode; }
+
+    /**
+     * Returns the number of samples drawn (newest).
+     */
+    public int getWindowSize()  { return _windowSize; }
+
+    /**
+     * Returns the ring capacity (in samples).
+     */
+    public int getCapacity()  { return _capacity; }
+
+    /**
+     * Returns the number of samples currently in window (including those not yet uploaded).
+     */
+    public int getSampleCount()
+    {
+        long count = _sampleCount + _pendingDropped + _pendingCount - _firstSample;
+        return (int) Math.min(count, _windowSize);
+    }
+
+    /**
+     * Adds a sample point with given color (Line mode).
+     */
+    public void addPoint(double aX, double aY, double aZ, Color aColor)
+    {
+        if (_mode != StreamMode.Line)
+            throw new IllegalStateException("JGLStreamGeometry.addPoint: Not in Line mode");
+        int index = addPendingSample();
+        setVertex(_pending, index, aX, aY, aZ, aColor);
+    }
+
+    /**
+     * Adds a sample ribbon edge (two points) with given color (Ribbon mode).
+     */
+    public void addRibbonPoints(double aX0, double aY0, double aZ0, double aX1, double aY1, double aZ1, Color aColor)
+    {
+        if (_mode != StreamMode.Ribbon)
+            throw new IllegalStateException("JGLStreamGeometry.addRibbonPoints: Not in Ribbon mode");
+        int index = addPendingSample();
+        setVertex(_pending, index, aX0, aY0, aZ0, aColor);
+        setVertex(_pending, index + VERTEX_FLOATS, aX1, aY1, aZ1, aColor);
+    }
+
+    /**
+     * Removes all samples.
+     */
+    public void clear()
+    {
+        _pendingStart = _pendingCount = 0;
+        _pendingDropped = 0;
+        _firstSample = _sampleCount;
+    }
+
+    /**
+     * Adds room for a pending sample and returns its float index in pending array. If pending already has window size
+     * samples (e.g. not rendered while hidden), the oldest is dropped, so memory stays bounded.
+     */
+    private int addPendingSample()
+    {
+        // If pending full, drop oldest sample and reuse its room
+        int sampleFloats = _mode._vertexCount * VERTEX_FLOATS;
+        if (_pendingCount == _windowSize) {
+            int index = _pendingStart * sampleFloats;
+            _pendingStart = (_pendingStart + 1) % _windowSize;
+            _pendingDropped++;
+            return index;
+        }
+
+        // Otherwise, grow pending if needed (ring start is 0 until full) and add sample at end
+        int length = (_pendingCount + 1) * sampleFloats;
+        if (length > _pending.length)
+            _pending = Arrays.copyOf(_pending, Math.min(Math.max(length, _pending.length * 2), _windowSize * sampleFloats));
+        return _pendingCount++ * sampleFloats;
+    }
+
+    /**
+     * Sets vertex values at given index of given array.
+     */
+    private static void setVertex(float[] theValues, int anIndex, double aX, double aY, double aZ, Color aColor)
+    {
+        theValues[anIndex] = (float) aX;
+        theValues[anIndex + 1] = (float) aY;
+        theValues[anIndex + 2] = (float) aZ;
+        theValues[anIndex + 3] = (float) aColor.getRed();
+        theValues[anIndex + 4] = (float) aColor.getGreen();
+        theValues[anIndex + 5] = (float) aColor.getBlue();
+    }
+
+    /**
+     * Override to upload new samples at ring head and draw window as at most two ranges.
+     */
+    @Override
+    public void render(GL2 gl, double[] aProjMatrix, double[] aViewMatrix)
+    {
+        // Make sure ring buffer exists and upload new samples
+        if (_bufferId == 0)
+            createBuffer(gl);
+        uploadPending(gl);
+
+        // If less than 2 samples, just return
+        int count = getSampleCount();
+        if (count < 2 || !isVisible()) return;
+
+        // Get ranges: window from start slot, split at wrap (first range ends with extra slot that repeats slot 0)
+        long start = _sampleCount - count;
+        int startSlot = (int) (start % _capacity);
+        int vertexCount = _mode._vertexCount, rangeCount = 1;
+        _rangeFirsts[0] = startSlot * vertexCount;
+        if (startSlot + count <= _capacity)
+            _rangeCounts[0] = count * vertexCount;
+        else {
+            _rangeCounts[0] = (_capacity + 1 - startSlot) * vertexCount;
+            _rangeFirsts[1] = 0;
+            _rangeCounts[1] = (int) (_sampleCount % _capacity) * vertexCount;
+            rangeCount = _rangeCounts[1] > 0 ? 2 : 1;
+        }
+
+        // Set program matrices and interleaved attributes
+        JGLProgram program = getProgram();
+        int stride = VERTEX_FLOATS * Buffers.SIZEOF_FLOAT;
+        program.useProgram();
+        program.setProjectionMatrix(aProjMatrix);
+        program.setViewMatrix(aViewMatrix);
+        program.setModelMatrix(JGLProgram.IDENTITY_MATRIX);
+        program.setAttribute("vertPoint", _bufferId, 3, stride, 0);
+        program.setAttribute("vertColor", _bufferId, 3, stride, 3 * Buffers.SIZEOF_FLOAT);
+
+        // Draw ranges (ribbons may face either way, so disable culling, then restore it)
+        boolean cullFace = gl.glIsEnabled(GL2.GL_CULL_FACE);
+        gl.glDisable(GL2.GL_CULL_FACE);
+        program.setDrawMode(_mode._drawMode);
+        program.setDrawRanges(_rangeFirsts, _rangeCounts, rangeCount);
+        program.runProgram();
+        JoglUtils.setEnabled(gl, GL2.GL_CULL_FACE, cullFace);
+
+        // If using fences, add fence for this frame (with first sample it reads)
+        if (_useFences)
+            addFence(gl, start);
+    }
+
+    /**
+     * Creates ring buffer (capacity plus extra slot) and determines whether to use fences.
+     */
+    private void createBuffer(GL2 gl)
+    {
+        // Determine whether mapped writes with fences are supported
+        if (_useFences == null)
+            _useFences = gl.isGL3ES3() && gl.isFunctionAvailable("glFenceSync");
+
+        // Create buffer
+        int[] ids = { 0 };
+        gl.glGenBuffers(1, ids, 0);
+        _bufferId = ids[0];
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, _bufferId);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, (long) (_capacity + 1) * getSampleBytes(), null, GL2.GL_STREAM_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Uploads pending samples at ring head (only the newest window's worth were kept, if more were added).
+     */
+    private void uploadPending(GL2 gl)
+    {
+        // If no pending samples, just return
+        if (_pendingCount == 0) return;
+
+        // Skip samples dropped from pending (they wouldn't be in window)
+        int sampleFloats = _mode._vertexCount * VERTEX_FLOATS;
+        _sampleCount += _pendingDropped;
+
+        // Write pending samples as runs that end at ring wrap or pending wrap
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, _bufferId);
+        for (int i = 0; i < _pendingCount; ) {
+            int slot = (int) (_sampleCount % _capacity);
+            int pendingIndex = (_pendingStart + i) % _windowSize;
+            int runCount = Math.min(Math.min(_pendingCount - i, _capacity - slot), _windowSize - pendingIndex);
+            writeSamples(gl, slot, pendingIndex * sampleFloats, runCount);
+
+            // If run includes slot 0, repeat that sample in extra slot (so strip connects across wrap)
+            if (slot == 0)
+                writeSamples(gl, _capacity, pendingIndex * sampleFloats, 1);
+            _sampleCount += runCount;
+            i += runCount;
+        }
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        _pendingStart = _pendingCount = 0;
+        _pendingDropped = 0;
+    }
+
+    /**
+     * Writes given number of pending samples (from given float index) to ring slots starting at given slot.
+     */
+    private void writeSamples(GL2 gl, int aSlot, int aPendingIndex, int aCount)
+    {
+        long offset = (long) aSlot * getSampleBytes();
+        int floatCount = aCount * _mode._vertexCount * VERTEX_FLOATS;
+        int byteCount = floatCount * Buffers.SIZEOF_FLOAT;
+
+        // If using fences, wait for frames still reading old samples in slots, then write to mapped range without sync
+        if (_useFences) {
+            long oldEnd = _sampleCount + (aSlot == _capacity ? 1 : aCount) - _capacity;
+            waitForFences(gl, oldEnd);
+            int access = GL2.GL_MAP_WRITE_BIT | GL2.GL_MAP_UNSYNCHRONIZED_BIT | GL2.GL_MAP_INVALIDATE_RANGE_BIT;
+            ByteBuffer mapped = gl.glMapBufferRange(GL2.GL_ARRAY_BUFFER, offset, byteCount, access);
+            if (mapped != null) {
+                mapped.order(ByteOrder.nativeOrder()).asFloatBuffer().put(_pending, aPendingIndex, floatCount);
+                gl.glUnmapBuffer(GL2.GL_ARRAY_BUFFER);
+                return;
+            }
+        }
+
+        // Otherwise, write with buffer sub data from staging buffer
+        if (_stagingBuffer == null || _stagingBuffer.capacity() < floatCount)
+            _stagingBuffer = Buffers.newDirectFloatBuffer(Math.max(floatCount, 1024));
+        _stagingBuffer.clear();
+        _stagingBuffer.put(_pending, aPendingIndex, floatCount).flip();
+        gl.glBufferSubData(GL2.GL_ARRAY_BUFFER, offset, byteCount, _stagingBuffer);
+    }
+
+    /**
+     * Adds fence for current frame (which reads samples from given absolute index), waiting for oldest if full.
+     */
+    private void addFence(GL2 gl, long aStart)
+    {
+        if (_fenceCount == MAX_FENCES)
+            waitForOldestFence(gl);
+        int index = (_fenceHead + _fenceCount) % MAX_FENCES;
+        _fences[index] = gl.getGL3ES3().glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        _fenceStarts[index] = aStart;
+        _fenceCount++;
+    }
+
+    /**
+     * Waits for fences of frames that read samples before given absolute index (frames complete in order).
+     */
+    private void waitForFences(GL2 gl, long anEnd)
+    {
+        while (_fenceCount > 0 && _fenceStarts[_fenceHead] < anEnd)
+            waitForOldestFence(gl);
+    }
+
+    /**
+     * Waits for oldest fence and removes it.
+     */
+    private void waitForOldestFence(GL2 gl)
+    {
+        long fence = _fences[_fenceHead];
+        GL3ES3 gl3 = gl.getGL3ES3();
+        gl3.glClientWaitSync(fence, GL3ES3.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+        gl3.glDeleteSync(fence);
+        _fenceHead = (_fenceHead + 1) % MAX_FENCES;
+        _fenceCount--;
+    }
+
+    /**
+     * Returns the number of bytes per sample.
+     */
+    private int getSampleBytes()  { return _mode._vertexCount * VERTEX_FLOATS * Buffers.SIZEOF_FLOAT; }
+
+    /**
+     * Override to release ring buffer and fences.
+     */
+    @Override
+    public void dispose(GL2 gl)
+    {
+        // Delete fences and ring buffer
+        while (_fenceCount > 0) {
+            gl.getGL3ES3().glDeleteSync(_fences[_fenceHead]);
+            _fenceHead = (_fenceHead + 1) % MAX_FENCES;
+            _fenceCount--;
+        }
+        if (_bufferId != 0)
+            gl.glDeleteBuffers(1, new int[] { _bufferId }, 0);
+        _bufferId = 0;
+
+        // Samples in ring are gone, so start new window
+        _firstSample = _sampleCount;
+        _stagingBuffer = null;
+
+        // Do normal version
+        super.dispose(gl);
+    }
+}
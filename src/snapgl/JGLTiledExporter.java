@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLContext;
+import snap.gfx3d.Camera;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class exports a camera view as a PNG image larger than the maximum framebuffer size by splitting the camera
+ * projection into sub-frusta and rendering tile by tile into a small reusable RenderImage. Each row of tiles is
+ * streamed to a PNGRowWriter, so peak memory is one strip of tile height (not the whole output image). Tiles are
+ * rendered from a private copy of the camera at export size, so the given camera (and any on-screen renderer that
+ * follows its size) is never changed or listened to.
+ */
+public class JGLTiledExporter {
+
+    // The camera
+    private Camera  _camera;
+
+    // The tile size (in pixels)
+    private int  _tileSize;
+
+    // The number of samples for multi-sampling tiles
+    private int  _sampleCount = RenderImage.DEFAULT_SAMPLE_COUNT;
+
+    // The clip transform for current tile (reused for each tile)
+    private double[]  _clipTransform = new double[16];
+
+    // Constant for default tile size
+    public static final int DEFAULT_TILE_SIZE = 1024;
+
+    /**
+     * Constructor for given camera.
+     */
+    public JGLTiledExporter(Camera aCamera)
+    {
+        this(aCamera, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Constructor for given camera and tile size.
+     */
+    public JGLTiledExporter(Camera aCamera, int aTileSize)
+    {
+        _camera = aCamera;
+        _tileSize = aTileSize;
+    }
+
+    /**
+     * Returns the tile size (in pixels).
+     */
+    public int getTileSize()  { return _tileSize; }
+
+    /**
+     * Returns the number of samples for multi-sampling tiles.
+     */
+    public int getSampleCount()  { return _sampleCount; }
+
+    /**
+     * Sets the number of samples for multi-sampling tiles (0 for none).
+     */
+    public void setSampleCount(int aValue)  { _sampleCount = aValue; }
+
+    /**
+     * Renders camera view at given pixel size and writes it as PNG to given stream (stream is closed).
+     */
+    public void exportPNG(int aWidth, int aHeight, OutputStream aStream) throws IOException
+    {
+        // Create private camera with view of camera at export size (so projection aspect matches)
+        Camera camera = new Camera();
+        JoglUtils.copyCameraSettings(_camera, camera);
+        camera.setScene(_camera.getScene());
+        camera.setViewWidth(aWidth);
+        camera.setViewHeight(aHeight);
+
+        // Create tile RenderImage and renderer
+        RenderImage tileImage = new RenderImage(_tileSize, _tileSize);
+        tileImage.setPixelScale(1);
+        tileImage.setSampleCount(_sampleCount);
+        JGLRenderer renderer = new JGLRenderer(camera);
+        renderer.setRenderImage(tileImage);
+
+        // Render tiles, streaming each strip of tile rows to PNG
+        try (PNGRowWriter pngWriter = new PNGRowWriter(aStream, aWidth, aHeight)) {
+            int[] strip = new int[aWidth * _tileSize];
+            for (int tileY = 0; tileY < aHeight; tileY += _tileSize) {
+                int tileH = Math.min(_tileSize, aHeight - tileY);
+                for (int tileX = 0; tileX < aWidth; tileX += _tileSize) {
+                    int tileW = Math.min(_tileSize, aWidth - tileX);
+                    renderTile(renderer, tileImage, tileX, tileY, tileW, tileH, aWidth, aHeight);
+                    tileImage.readPixels(strip, tileX, aWidth);
+                }
+                pngWriter.writeRows(strip, tileH, aWidth);
+            }
+        }
+
+        // Release GL resources
+        finally {
+            disposeRenderer(renderer, tileImage);
+        }
+    }
+
+    /**
+     * Renders the tile with given bounds (in pixels, origin top-left) of image with given size.
+     */
+    protected void renderTile(JGLRenderer aRenderer, RenderImage aTileImage, int aX, int aY, int aW, int aH,
+                              int anImageW, int anImageH)
+    {
+        // Get tile bounds in normalized device coords (Y up)
+        double ndcX0 = 2d * aX / anImageW - 1;
+        double ndcX1 = 2d * (aX + aW) / anImageW - 1;
+        double ndcY0 = 1 - 2d * (aY + aH) / anImageH;
+        double ndcY1 = 1 - 2d * aY / anImageH;
+
+        // Get clip transform that maps tile bounds to full viewport (column-major scale/translate)
+        double[] clipTransform = _clipTransform;
+        clipTransform[0] = 2 / (ndcX1 - ndcX0);
+        clipTransform[5] = 2 / (ndcY1 - ndcY0);
+        clipTransform[10] = 1;
+        clipTransform[12] = -(ndcX1 + ndcX0) / (ndcX1 - ndcX0);
+        clipTransform[13] = -(ndcY1 + ndcY0) / (ndcY1 - ndcY0);
+        clipTransform[15] = 1;
+
+        // Render tile (throwing on failure, so export never writes stale tile pixels)
+        aRenderer.setClipTransform(clipTransform);
+        aTileImage.setSize(aW, aH);
+        aTileImage.renderOrThrow();
+    }
+
+    /**
+     * Releases renderer resources and destroys tile drawable.
+     */
+    private void disposeRenderer(JGLRenderer aRenderer, RenderImage aTileImage)
+    {
+        GLAutoDrawable drawable = aTileImage.getDrawable();
+        GLContext glc = drawable.getContext();
+        glc.makeCurrent();
+        try { aRenderer.disposeResources(); }
+        finally { glc.release(); }
+        drawable.destroy();
+    }
+}
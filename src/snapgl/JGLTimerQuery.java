@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import java.util.Arrays;
+
+/**
+ * This class measures GPU time per frame with GL_TIME_ELAPSED timer queries. Queries are kept in a small ring and
+ * results are collected when available (usually a frame or two later), so timing never stalls the pipeline.
+ */
+public class JGLTimerQuery {
+
+    // The query ids
+    private int[]  _queryIds;
+
+    // The frame number of pending query in each slot (or -1 if none)
+    private long[]  _queryFrames;
+
+    // The slot of the query that has begun but not ended (or -1)
+    private int  _activeSlot = -1;
+
+    // The next slot to use
+    private int  _nextSlot;
+
+    // Scratch arrays for query results (so collecting doesn't allocate)
+    private int[]  _available = new int[1];
+    private long[]  _time = new long[1];
+
+    // Constant for number of queries in flight
+    private static final int QUERY_COUNT = 4;
+
+    /**
+     * Constructor.
+     */
+    public JGLTimerQuery()  { }
+
+    /**
+     * Returns whether timer queries are supported by given GL.
+     */
+    public static boolean isAvailable(GL2 gl)
+    {
+        return gl.isExtensionAvailable("GL_ARB_timer_query") || gl.isExtensionAvailable("GL_EXT_timer_query");
+    }
+
+    /**
+     * Begins timing given frame (skipped if the next query slot is still pending).
+     */
+    public void begin(GL2 gl, long aFrameNumber)
+    {
+        // Make sure queries exist
+        if (_queryIds == null) {
+            _queryIds = new int[QUERY_COUNT];
+            _queryFrames = new long[QUERY_COUNT];
+            gl.glGenQueries(QUERY_COUNT, _queryIds, 0);
+            Arrays.fill(_queryFrames, -1);
+        }
+
+        // If next slot still pending, skip this frame (rather than wait for result)
+        int slot = _nextSlot;
+        if (_queryFrames[slot] >= 0) return;
+
+        // Begin query
+        gl.glBeginQuery(GL2.GL_TIME_ELAPSED, _queryIds[slot]);
+        _queryFrames[slot] = aFrameNumber;
+        _activeSlot = slot;
+        _nextSlot = (slot + 1) % QUERY_COUNT;
+    }
+
+    /**
+     * Ends timing of current frame.
+     */
+    public void end(GL2 gl)
+    {
+        if (_activeSlot < 0) return;
+        gl.glEndQuery(GL2.GL_TIME_ELAPSED);
+        _activeSlot = -1;
+    }
+
+    /**
+     * Collects results of completed queries into given stats.
+     */
+    public void collect(GL2 gl, RenderStats theStats)
+    {
+        // If no queries, just return
+        if (_queryIds == null) return;
+
+        // Iterate over pending queries that have ended
+        int[] available = _available;
+        long[] time = _time;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            if (_queryFrames[i] < 0 || i == _activeSlot) continue;
+
+            // If result available, get it and set in stats
+            gl.glGetQueryObjectiv(_queryIds[i], GL2.GL_QUERY_RESULT_AVAILABLE, available, 0);
+            if (available[0] != 0) {
+                gl.glGetQueryObjectui64v(_queryIds[i], GL2.GL_QUERY_RESULT, time, 0);
+                theStats.setGPUTime(_queryFrames[i], time[0]);
+                _queryFrames[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * Releases GL resources.
+     */
+    public void dispose(GL2 gl)
+    {
+        if (_queryIds != null)
+            gl.glDeleteQueries(QUERY_COUNT, _queryIds, 0);
+        _queryIds = null;
+        _queryFrames = null;
+        _activeSlot = -1;
+        _nextSlot = 0;
+    }
+}
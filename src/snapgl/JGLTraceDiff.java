@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * This class compares GL call counts by function between two traces written by JGLTraceRecorder, e.g.:
+ *     java snapgl.JGLTraceDiff before.gltrace after.gltrace
+ */
+public class JGLTraceDiff {
+
+    // The call counts of each trace
+    private Map<String, Integer>  _countsA, _countsB;
+
+    /**
+     * Constructor for call counts of two traces.
+     */
+    public JGLTraceDiff(Map<String, Integer> theCountsA, Map<String, Integer> theCountsB)
+    {
+        _countsA = theCountsA;
+        _countsB = theCountsB;
+    }
+
+    /**
+     * Returns the function names whose call counts differ, largest absolute change first.
+     */
+    public List<String> getChangedNames()
+    {
+        // Get all names with different counts
+        Set<String> names = new TreeSet<>(_countsA.keySet());
+        names.addAll(_countsB.keySet());
+        List<String> changedNames = new ArrayList<>();
+        for (String name : names)
+            if (getDelta(name) != 0)
+                changedNames.add(name);
+
+        // Sort by absolute change and return
+        changedNames.sort(Comparator.comparingInt((String name) -> -Math.abs(getDelta(name))));
+        return changedNames;
+    }
+
+    /**
+     * Returns the change in call count for given function name (B - A).
+     */
+    public int getDelta(String aName)
+    {
+        return _countsB.getOrDefault(aName, 0) - _countsA.getOrDefault(aName, 0);
+    }
+
+    /**
+     * Returns the total change in call count (B - A).
+     */
+    public int getTotalDelta()
+    {
+        int total = 0;
+        for (int count : _countsB.values()) total += count;
+        for (int count : _countsA.values()) total -= count;
+        return total;
+    }
+
+    /**
+     * Returns a CSV report of changed functions.
+     */
+    public String getReport()
+    {
+        StringBuilder sb = new StringBuilder("Function,CountA,CountB,Delta\n");
+        for (String name : getChangedNames())
+            sb.append(name).append(',').append(_countsA.getOrDefault(name, 0)).append(',')
+                .append(_countsB.getOrDefault(name, 0)).append(',').append(getDelta(name)).append('\n');
+        sb.append("Total,,,").append(getTotalDelta()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Standard main implementation.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        // Check args
+        if (args.length != 2) {
+            System.err.println("Usage: JGLTraceDiff <traceA> <traceB>");
+            System.exit(1);
+        }
+
+        // Read traces and print report
+        Map<String, Integer> countsA = JGLTraceReplayer.readCallCounts(new File(args[0]));
+        Map<String, Integer> countsB = JGLTraceReplayer.readCallCounts(new File(args[1]));
+        JGLTraceDiff diff = new JGLTraceDiff(countsA, countsB);
+        System.out.print(diff.getReport());
+    }
+}
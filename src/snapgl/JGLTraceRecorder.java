@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.TraceGL2;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class records GL calls by wrapping a GL2 in JOGL's TraceGL2 pipeline, which reports every call (with its
+ * arguments) before passing it on. Calls are counted by function and, if an output stream is given, written to a
+ * compact binary trace that JGLTraceReplayer can play back or count. Install on a renderer with
+ * JGLRenderer.setTraceRecorder().
+ *
+ * The pipeline reports scalar arguments by value, but arrays and NIO buffers only by type, so their contents are not
+ * captured. Calls that take them are counted (see getUncapturedCount()), and JGLTraceReplayer refuses to replay a trace
+ * with such calls unless partial replay is explicitly allowed.
+ *
+ * Trace format (big-endian, var-ints for ids):
+ *     Header: MAGIC int, VERSION int
+ *     Define record: REC_DEFINE, method id, method key UTF (e.g. "glBindBuffer(int,int)")
+ *     Call record: REC_CALL, method id, then each argument as a type tag and value
+ *     Frame record: REC_FRAME (written by markFrame())
+ */
+public class JGLTraceRecorder implements Closeable {
+
+    // The trace output (or null if only counting)
+    private DataOutputStream  _out;
+
+    // The recording GL last created by wrap()
+    private GL2  _recordingGL;
+
+    // The ids of methods already defined in trace, by method key
+    private Map<String, Integer>  _methodIds = new HashMap<>();
+
+    // The call counts by function name
+    private Map<String, int[]>  _callCounts = new TreeMap<>();
+
+    // The number of frames marked
+    private int  _frameCount;
+
+    // The number of calls with arguments that weren't captured (so trace can't be replayed exactly)
+    private int  _uncapturedCount;
+
+    // Constants for trace format
+    static final int MAGIC = 0x53474C54;
+    static final int VERSION = 1;
+    static final int REC_DEFINE = 1, REC_CALL = 2, REC_FRAME = 3;
+
+    // Constants for argument type tags
+    static final int TAG_INT = 1, TAG_LONG = 2, TAG_FLOAT = 3, TAG_DOUBLE = 4, TAG_BOOLEAN = 5;
+    static final int TAG_BYTE = 6, TAG_SHORT = 7, TAG_STRING = 8, TAG_UNCAPTURED = 99;
+
+    // Function names that change GL state (for getStateChangeCount())
+    private static final Set<String> STATE_CHANGE_NAMES = new HashSet<>(Arrays.asList(
+        "glUseProgram", "glBindBuffer", "glBindTexture", "glActiveTexture", "glBindFramebuffer", "glBindRenderbuffer",
+        "glEnable", "glDisable", "glEnableVertexAttribArray", "glDisableVertexAttribArray", "glVertexAttribPointer",
+        "glBlendFunc", "glDepthFunc", "glDepthMask", "glCullFace", "glViewport", "glScissor", "glDepthRange"));
+
+    /**
+     * Constructor for recorder that only counts calls.
+     */
+    public JGLTraceRecorder()  { }
+
+    /**
+     * Constructor for recorder that counts calls and writes trace to given stream.
+     */
+    public JGLTraceRecorder(OutputStream aStream) throws IOException
+    {
+        _out = new DataOutputStream(new BufferedOutputStream(aStream, 64 * 1024));
+        _out.writeInt(MAGIC);
+        _out.writeInt(VERSION);
+    }
+
+    /**
+     * Returns a GL2 that records calls and forwards them to given GL2.
+     */
+    public GL2 wrap(GL2 aGL)
+    {
+        // If already recording, just return
+        if (isRecording(aGL)) return aGL;
+
+        // Create trace pipeline that reports calls to this recorder
+        PrintStream traceStream = new PrintStream(new TraceLineStream(), false, StandardCharsets.UTF_8);
+        return _recordingGL = new TraceGL2(aGL, traceStream);
+    }
+
+    /**
+     * Returns whether given GL is the recording GL of this recorder.
+     */
+    public boolean isRecording(GL2 aGL)  { return aGL == _recordingGL; }
+
+    /**
+     * Returns the GL2 wrapped by given recording GL (or null if given GL isn't a trace pipeline).
+     */
+    public static GL2 getDelegate(GL2 aGL)
+    {
+        return aGL instanceof TraceGL2 ? aGL.getDownstreamGL().getGL2() : null;
+    }
+
+    /**
+     * Marks the end of a frame in trace.
+     */
+    public void markFrame()
+    {
+        _frameCount++;
+        if (_out != null) {
+            try { _out.writeByte(REC_FRAME); }
+            catch (IOException e) { handleWriteError(e); }
+        }
+    }
+
+    /**
+     * Returns the number of frames marked.
+     */
+    public int getFrameCount()  { return _frameCount; }
+
+    /**
+     * Returns the number of calls with arguments that weren't captured (arrays, buffers or unparsable values).
+     */
+    public int getUncapturedCount()  { return _uncapturedCount; }
+
+    /**
+     * Returns the call counts by function name.
+     */
+    public Map<String, Integer> getCallCounts()
+    {
+        Map<String, Integer> counts = new TreeMap<>();
+        _callCounts.forEach((name, count) -> counts.put(name, count[0]));
+        return counts;
+    }
+
+    /**
+     * Returns the number of calls to given function.
+     */
+    public int getCallCount(String aName)
+    {
+        int[] count = _callCounts.get(aName);
+        return count != null ? count[0] : 0;
+    }
+
+    /**
+     * Returns the total number of calls.
+     */
+    public int getTotalCallCount()
+    {
+        int total = 0;
+        for (int[] count : _callCounts.values())
+            total += count[0];
+        return total;
+    }
+
+    /**
+     * Returns the number of calls that change GL state (program, buffer, texture and framebuffer binds, enables,
+     * vertex attribute setup, blend/depth/cull/viewport state).
+     */
+    public int getStateChangeCount()
+    {
+        int total = 0;
+        for (Map.Entry<String, int[]> entry : _callCounts.entrySet())
+            if (STATE_CHANGE_NAMES.contains(entry.getKey()))
+                total += entry.getValue()[0];
+        return total;
+    }
+
+    /**
+     * Resets call counts and frame count (trace output continues).
+     */
+    public void resetCounts()
+    {
+        _callCounts.clear();
+        _frameCount = _uncapturedCount = 0;
+    }
+
+    /**
+     * Records a call from a trace pipeline line, e.g. "glBindBuffer(<int> 0x8892, <int> 0x1)" or
+     * "glCreateProgram() = 3".
+     */
+    protected void recordCall(String aLine)
+    {
+        // Get call text (just return if not a GL call)
+        String line = aLine.trim();
+        int argsStart = line.indexOf('(');
+        int argsEnd = getArgsEnd(line);
+        if (!line.startsWith("gl") || argsStart < 0 || argsEnd < argsStart) return;
+
+        // Get name and args (as type/value pairs) and update count
+        String name = line.substring(0, argsStart);
+        List<String[]> args = getArgs(line.substring(argsStart + 1, argsEnd));
+        _callCounts.computeIfAbsent(name, key -> new int[1])[0]++;
+        for (String[] arg : args) {
+            if (parseArg(arg[0], arg[1]) == null) {
+                _uncapturedCount++;
+                break;
+            }
+        }
+        if (_out == null) return;
+
+        // Write call (and method define if first call)
+        try {
+            String methodKey = getMethodKey(name, args);
+            Integer methodId = _methodIds.get(methodKey);
+            if (methodId == null) {
+                methodId = _methodIds.size();
+                _methodIds.put(methodKey, methodId);
+                _out.writeByte(REC_DEFINE);
+                writeVarInt(_out, methodId);
+                _out.writeUTF(methodKey);
+            }
+            _out.writeByte(REC_CALL);
+            writeVarInt(_out, methodId);
+            for (String[] arg : args)
+                writeArg(_out, arg[0], arg[1]);
+        }
+        catch (IOException | RuntimeException e) { handleWriteError(e); }
+    }
+
+    /**
+     * Called when trace write fails: reports error and stops writing.
+     */
+    private void handleWriteError(Exception anException)
+    {
+        System.err.println("JGLTraceRecorder: Trace write failed, stopping trace: " + anException);
+        _out = null;
+    }
+
+    /**
+     * Flushes and closes trace output.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (_out != null)
+            _out.close();
+        _out = null;
+    }
+
+    /**
+     * Returns the index of the paren that closes args of given call line (before any " = result").
+     */
+    private static int getArgsEnd(String aLine)
+    {
+        int resultStart = aLine.lastIndexOf(") = ");
+        return resultStart >= 0 ? resultStart : aLine.lastIndexOf(')');
+    }
+
+    /**
+     * Returns the args of given args text as type/value pairs, e.g. "<int> 0x1, <[F>" => [int, 0x1], [[F, ""].
+     */
+    private static List<String[]> getArgs(String theArgsText)
+    {
+        // Iterate over "<type>" tags: value is text up to ", <" that starts next arg (or end)
+        List<String[]> args = new ArrayList<>();
+        int tagStart = theArgsText.indexOf('<');
+        while (tagStart >= 0) {
+            int tagEnd = theArgsText.indexOf('>', tagStart);
+            int nextTag = theArgsText.indexOf(", <", tagEnd);
+            String type = theArgsText.substring(tagStart + 1, tagEnd);
+            String value = theArgsText.substring(tagEnd + 1, nextTag >= 0 ? nextTag : theArgsText.length()).trim();
+            args.add(new String[] { type, value });
+            tagStart = nextTag >= 0 ? nextTag + 2 : -1;
+        }
+        return args;
+    }
+
+    /**
+     * Writes an argument of given trace type and value text as type tag and value. Values are parsed before anything is
+     * written, so a value that can't be parsed is written as uncaptured (and the record stays well formed).
+     */
+    private static void writeArg(DataOutputStream anOut, String aType, String aValue) throws IOException
+    {
+        // Parse value (null if type isn't captured or value can't be parsed)
+        Object value = parseArg(aType, aValue);
+        if (value == null) {
+            anOut.writeByte(TAG_UNCAPTURED);
+            return;
+        }
+
+        // Write type tag and value
+        switch (aType) {
+            case "int": anOut.writeByte(TAG_INT); anOut.writeInt((Integer) value); break;
+            case "long": anOut.writeByte(TAG_LONG); anOut.writeLong((Long) value); break;
+            case "float": anOut.writeByte(TAG_FLOAT); anOut.writeFloat((Float) value); break;
+            case "double": anOut.writeByte(TAG_DOUBLE); anOut.writeDouble((Double) value); break;
+            case "boolean": anOut.writeByte(TAG_BOOLEAN); anOut.writeBoolean((Boolean) value); break;
+            case "byte": anOut.writeByte(TAG_BYTE); anOut.writeByte((Byte) value); break;
+            case "short": anOut.writeByte(TAG_SHORT); anOut.writeShort((Short) value); break;
+            case "java.lang.String": anOut.writeByte(TAG_STRING); anOut.writeUTF((String) value); break;
+        }
+    }
+
+    /**
+     * Returns the value of an argument of given trace type and value text (or null if type isn't captured or value
+     * can't be parsed). Integral values may be decimal or hex ("0x" prefix), as the pipeline prints either.
+     */
+    static Object parseArg(String aType, String aValue)
+    {
+        try {
+            switch (aType) {
+                case "int": return (int) parseIntegral(aValue);
+                case "long": return parseIntegral(aValue);
+                case "float": return Float.parseFloat(aValue);
+                case "double": return Double.parseDouble(aValue);
+                case "boolean":
+                    if (aValue.equals("true") || aValue.equals("false")) return Boolean.parseBoolean(aValue);
+                    return null;
+                case "byte": return (byte) parseIntegral(aValue);
+                case "short": return (short) parseIntegral(aValue);
+                case "java.lang.String": return aValue;
+                default: return null;
+            }
+        }
+        catch (NumberFormatException e) { return null; }
+    }
+
+    /**
+     * Returns the value of given decimal or hex ("0x" prefix, unsigned) integral text.
+     */
+    private static long parseIntegral(String aValue)
+    {
+        String value = aValue.trim();
+        if (value.startsWith("0x") || value.startsWith("0X"))
+            return Long.parseUnsignedLong(value.substring(2), 16);
+        return Long.parseLong(value);
+    }
+
+    /**
+     * Writes a non-negative int in 7-bit groups.
+     */
+    static void writeVarInt(DataOutputStream anOut, int aValue) throws IOException
+    {
+        while ((aValue & ~0x7F) != 0) {
+            anOut.writeByte((aValue & 0x7F) | 0x80);
+            aValue >>>= 7;
+        }
+        anOut.writeByte(aValue);
+    }
+
+    /**
+     * Returns the key for a method: name and parameter type names, e.g. "glBindBuffer(int,int)".
+     */
+    private static String getMethodKey(String aName, List<String[]> theArgs)
+    {
+        StringJoiner joiner = new StringJoiner(",", aName + "(", ")");
+        for (String[] arg : theArgs)
+            joiner.add(arg[0]);
+        return joiner.toString();
+    }
+
+    /**
+     * An OutputStream that collects trace pipeline output into lines and records each as a call.
+     */
+    private class TraceLineStream extends OutputStream {
+
+        // The current line bytes
+        private ByteArrayOutputStream  _line = new ByteArrayOutputStream(256);
+
+        @Override
+        public void write(int aByte)
+        {
+            if (aByte == '\n') {
+                recordCall(_line.toString(StandardCharsets.UTF_8));
+                _line.reset();
+            }
+            else if (aByte != '\r')
+                _line.write(aByte);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import static snapgl.JGLTraceRecorder.*;
+
+/**
+ * This class reads binary GL traces written by JGLTraceRecorder, to play them back against a GL2 or count calls.
+ *
+ * Calls with array or buffer arguments (whose contents the trace doesn't capture) or unknown methods can't be replayed
+ * exactly, so by default replay throws when it reaches one (counting without a GL reads any trace). With
+ * setPartialReplayAllowed(true) such calls are skipped instead, counted by getSkippedCount() and isPartialReplay() is set.
+ * Replay assumes a fresh context like the one recorded, so object names returned by glGen*() and glCreate*() come
+ * back the same (true for the same driver and the same sequence of calls).
+ */
+public class JGLTraceReplayer {
+
+    // The trace input
+    private DataInputStream  _in;
+
+    // The GL to replay to (or null to just read)
+    private GL2  _gl;
+
+    // The methods for trace method ids (null if not found in GL2)
+    private List<Method>  _methods = new ArrayList<>();
+
+    // The method names for trace method ids
+    private List<String>  _methodNames = new ArrayList<>();
+
+    // The argument counts for trace method ids
+    private List<Integer>  _argCounts = new ArrayList<>();
+
+    // The call counts by function name
+    private Map<String, int[]>  _callCounts = new TreeMap<>();
+
+    // The number of frames read
+    private int  _frameCount;
+
+    // Whether replay skips calls it can't replay exactly (instead of throwing)
+    private boolean  _partialReplayAllowed;
+
+    // The number of calls skipped on replay (uncaptured arguments or unknown method)
+    private int  _skippedCount;
+
+    // Constant for placeholder of uncaptured argument
+    private static final Object UNCAPTURED = new Object();
+
+    /**
+     * Constructor for given trace stream and GL to replay to (or null to just read and count calls).
+     */
+    public JGLTraceReplayer(InputStream aStream, GL2 aGL) throws IOException
+    {
+        _in = new DataInputStream(new BufferedInputStream(aStream, 64 * 1024));
+        _gl = aGL;
+
+        // Check header
+        if (_in.readInt() != MAGIC || _in.readInt() != VERSION)
+            throw new IOException("JGLTraceReplayer: Not a GL trace (or unsupported version)");
+    }
+
+    /**
+     * Reads (and replays) all records and returns the total number of calls.
+     */
+    public int readAll() throws IOException
+    {
+        while (readRecord() != -1) { }
+        return getTotalCallCount();
+    }
+
+    /**
+     * Reads (and replays) records up to and including next frame mark. Returns false if at end of trace.
+     */
+    public boolean readFrame() throws IOException
+    {
+        while (true) {
+            int recordType = readRecord();
+            if (recordType == -1) return false;
+            if (recordType == REC_FRAME) return true;
+        }
+    }
+
+    /**
+     * Reads (and replays) next record and returns its type (or -1 at end of trace).
+     */
+    protected int readRecord() throws IOException
+    {
+        // Read record type (just return if end)
+        int recordType = _in.read();
+        switch (recordType) {
+
+            // Handle end
+            case -1: return -1;
+
+            // Handle define: read method id and key and resolve method
+            case REC_DEFINE: {
+                int methodId = readVarInt(_in);
+                String methodKey = _in.readUTF();
+                String name = methodKey.substring(0, methodKey.indexOf('('));
+                String params = methodKey.substring(name.length() + 1, methodKey.length() - 1);
+                String[] paramTypes = params.isEmpty() ? new String[0] : params.split(",");
+                while (_methods.size() <= methodId) { _methods.add(null); _methodNames.add(null); _argCounts.add(0); }
+                _methods.set(methodId, getGLMethod(name, paramTypes));
+                _methodNames.set(methodId, name);
+                _argCounts.set(methodId, paramTypes.length);
+                return recordType;
+            }
+
+            // Handle call: read method and args, count and replay
+            case REC_CALL: {
+                int methodId = readVarInt(_in);
+                Method method = _methods.get(methodId);
+                String methodName = _methodNames.get(methodId);
+                Object[] args = new Object[_argCounts.get(methodId)];
+                boolean captured = true;
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = readArg(_in);
+                    captured &= args[i] != UNCAPTURED;
+                }
+                _callCounts.computeIfAbsent(methodName, name -> new int[1])[0]++;
+                if (_gl != null) {
+                    if (method != null && captured)
+                        invoke(method, args);
+                    else if (_partialReplayAllowed)
+                        _skippedCount++;
+                    else throw new IOException("JGLTraceReplayer: Can't replay " + methodName + " (" +
+                        (method == null ? "unknown method" : "uncaptured arguments") + "), trace is incomplete");
+                }
+                return recordType;
+            }
+
+            // Handle frame
+            case REC_FRAME: _frameCount++; return recordType;
+
+            // Handle anything else
+            default: throw new IOException("JGLTraceReplayer: Unknown record type: " + recordType);
+        }
+    }
+
+    /**
+     * Invokes given method with given args on GL.
+     */
+    private void invoke(Method aMethod, Object[] theArgs)
+    {
+        try { aMethod.invoke(_gl, theArgs); }
+        catch (InvocationTargetException e) {
+            System.err.println("JGLTraceReplayer: " + aMethod.getName() + " failed: " + e.getCause());
+        }
+        catch (IllegalAccessException | IllegalArgumentException e) {
+            System.err.println("JGLTraceReplayer: Can't invoke " + aMethod.getName() + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the number of frames read.
+     */
+    public int getFrameCount()  { return _frameCount; }
+
+    /**
+     * Returns whether replay skips calls it can't replay exactly (instead of throwing).
+     */
+    public boolean isPartialReplayAllowed()  { return _partialReplayAllowed; }
+
+    /**
+     * Sets whether replay skips calls it can't replay exactly (instead of throwing).
+     */
+    public void setPartialReplayAllowed(boolean aValue)  { _partialReplayAllowed = aValue; }
+
+    /**
+     * Returns the number of calls skipped on replay (uncaptured arguments or unknown method).
+     */
+    public int getSkippedCount()  { return _skippedCount; }
+
+    /**
+     * Returns whether replay so far was partial (some calls were skipped, so GL state may differ from recording).
+     */
+    public boolean isPartialReplay()  { return _skippedCount > 0; }
+
+    /**
+     * Returns the call counts by function name.
+     */
+    public Map<String, Integer> getCallCounts()
+    {
+        Map<String, Integer> counts = new TreeMap<>();
+        _callCounts.forEach((name, count) -> counts.put(name, count[0]));
+        return counts;
+    }
+
+    /**
+     * Returns the total number of calls read.
+     */
+    public int getTotalCallCount()
+    {
+        int total = 0;
+        for (int[] count : _callCounts.values())
+            total += count[0];
+        return total;
+    }
+
+    /**
+     * Returns the call counts by function name for given trace file.
+     */
+    public static Map<String, Integer> readCallCounts(File aFile) throws IOException
+    {
+        try (InputStream fileIn = new FileInputStream(aFile)) {
+            JGLTraceReplayer reader = new JGLTraceReplayer(fileIn, null);
+            reader.readAll();
+            return reader.getCallCounts();
+        }
+    }
+
+    /**
+     * Returns the GL2 method for given name and trace parameter type names (or null if not found).
+     */
+    private static Method getGLMethod(String aName, String[] theParamTypes)
+    {
+        try {
+            Class<?>[] paramClasses = new Class<?>[theParamTypes.length];
+            for (int i = 0; i < theParamTypes.length; i++)
+                paramClasses[i] = getParamClass(theParamTypes[i]);
+            return GL2.class.getMethod(aName, paramClasses);
+        }
+        catch (ClassNotFoundException | NoSuchMethodException e) {
+            System.err.println("JGLTraceReplayer: Method not found (calls will be skipped): " + aName + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the class for trace parameter type name (e.g. "int", "java.nio.Buffer", "[F").
+     */
+    private static Class<?> getParamClass(String aType) throws ClassNotFoundException
+    {
+        switch (aType) {
+            case "int": return int.class;
+            case "long": return long.class;
+            case "float": return float.class;
+            case "double": return double.class;
+            case "boolean": return boolean.class;
+            case "byte": return byte.class;
+            case "short": return short.class;
+            case "char": return char.class;
+            default: return Class.forName(aType);
+        }
+    }
+
+    /**
+     * Reads an argument (type tag and value).
+     */
+    private static Object readArg(DataInputStream anIn) throws IOException
+    {
+        int tag = anIn.readUnsignedByte();
+        switch (tag) {
+            case TAG_INT: return anIn.readInt();
+            case TAG_LONG: return anIn.readLong();
+            case TAG_FLOAT: return anIn.readFloat();
+            case TAG_DOUBLE: return anIn.readDouble();
+            case TAG_BOOLEAN: return anIn.readBoolean();
+            case TAG_BYTE: return anIn.readByte();
+            case TAG_SHORT: return anIn.readShort();
+            case TAG_STRING: return anIn.readUTF();
+            case TAG_UNCAPTURED: return UNCAPTURED;
+            default: throw new IOException("JGLTraceReplayer: Unknown argument tag: " + tag);
+        }
+    }
+
+    /**
+     * Reads a non-negative int written in 7-bit groups.
+     */
+    private static int readVarInt(DataInputStream anIn) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = anIn.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import com.jogamp.opengl.GL2;
+import snap.gfx3d.VertexArray;
+import java.util.Arrays;
+
+/**
+ * This class holds GPU buffer objects (VBOs) for the points, colors, texture coords and indexes of a VertexArray.
+ * Each buffer keeps a copy of what was last uploaded, so when an array changes (e.g. points appended to a live chart)
+ * only the changed span is uploaded, and buffers grow geometrically.
+ */
+public class JGLVertexBuffers {
+
+    // The buffers
+    private JGLBuffer  _pointsBuffer = new JGLBuffer(GL2.GL_ARRAY_BUFFER);
+    private JGLBuffer  _colorsBuffer = new JGLBuffer(GL2.GL_ARRAY_BUFFER);
+    private JGLBuffer  _texCoordsBuffer = new JGLBuffer(GL2.GL_ARRAY_BUFFER);
+    private JGLBuffer  _indexBuffer = new JGLBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER);
+
+    // The number of points and indexes
+    private int  _pointCount, _indexCount;
+
+    // The source arrays last uploaded (to detect changes)
+    private float[]  _pointArray, _colorArray, _texCoordArray;
+    private int[]  _indexArray;
+
+    // Whether source arrays were changed in place since last upload
+    private boolean  _arraysChanged;
+
+    // Whether non-indexed arrays are uploaded welded and cache-ordered, and whether current buffers are
+    private boolean  _optimize, _optimized;
+
+    // Whether index buffer is set
+    private boolean  _indexed;
+
+    // Whether to build levels of detail for dense meshes, and whether current levels were built with it set
+    private boolean  _buildLOD, _lodBuilt;
+
+    // The levels of detail (null if not built or mesh too small) and index buffers for decimated levels
+    private JGLMeshLOD  _lod;
+    private JGLBuffer[]  _lodBuffers = new JGLBuffer[0];
+
+    // The bounds of points (minX, minY, minZ, maxX, maxY, maxZ)
+    private double[]  _bounds = new double[6];
+
+    // The number of bytes uploaded by last update
+    private int  _uploadByteCount;
+
+    /**
+     * Constructor.
+     */
+    public JGLVertexBuffers()  { }
+
+    /**
+     * Returns the points buffer id.
+     */
+    public int getPointsBufferId()  { return _pointsBuffer.getId(); }
+
+    /**
+     * Returns the colors buffer id (or 0 if no color array).
+     */
+    public int getColorsBufferId()  { return _colorArray != null ? _colorsBuffer.getId() : 0; }
+
+    /**
+     * Returns the texture coords buffer id (or 0 if no tex coord array).
+     */
+    public int getTexCoordsBufferId()  { return _texCoordArray != null ? _texCoordsBuffer.getId() : 0; }
+
+    /**
+     * Returns the index buffer id (or 0 if no index array).
+     */
+    public int getIndexBufferId()  { return _indexed ? _indexBuffer.getId() : 0; }
+
+    /**
+     * Returns the number of points.
+     */
+    public int getPointCount()  { return _pointCount; }
+
+    /**
+     * Returns the number of indexes.
+     */
+    public int getIndexCount()  { return _indexCount; }
+
+    /**
+     * Returns the bounds of points as minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    public double[] getBounds()  { return _bounds; }
+
+    /**
+     * Returns the number of bytes uploaded by last update.
+     */
+    public int getUploadByteCount()  { return _uploadByteCount; }
+
+    /**
+     * Returns whether non-indexed arrays are uploaded with identical vertices welded and triangles cache-ordered.
+     */
+    public boolean isOptimize()  { return _optimize; }
+
+    /**
+     * Sets whether non-indexed arrays are uploaded with identical vertices welded and triangles cache-ordered (see
+     * JGLMeshOptimizer). The optimized mesh is computed once per change of source arrays.
+     */
+    public void setOptimize(boolean aValue)  { _optimize = aValue; }
+
+    /**
+     * Returns whether levels of detail are built for dense meshes.
+     */
+    public boolean isBuildLOD()  { return _buildLOD; }
+
+    /**
+     * Sets whether levels of detail (decimated index sets over the same vertices, see JGLMeshLOD) are built for
+     * dense meshes. Levels are built once per change of arrays.
+     */
+    public void setBuildLOD(boolean aValue)  { _buildLOD = aValue; }
+
+    /**
+     * Returns the levels of detail (or null if not built or mesh too small).
+     */
+    public JGLMeshLOD getLOD()  { return _lod; }
+
+    /**
+     * Returns the index buffer id for given decimated level of detail (1 or more).
+     */
+    public int getLODIndexBufferId(int aLevel)  { return _lodBuffers[aLevel - 1].getId(); }
+
+    /**
+     * Returns the number of indexes for given decimated level of detail (1 or more).
+     */
+    public int getLODIndexCount(int aLevel)  { return _lodBuffers[aLevel - 1].getLength(); }
+
+    /**
+     * Marks source arrays as changed in place, so next update compares them with uploaded values.
+     */
+    public void arraysChanged()  { _arraysChanged = true; }
+
+    /**
+     * Returns whether buffers need to be updated for given VertexArray.
+     */
+    public boolean isStale(VertexArray aVA)
+    {
+        if (_arraysChanged || aVA.getPointArray() != _pointArray)
+            return true;
+        if ((_optimize != _optimized && !aVA.isIndexArraySet()) || _buildLOD != _lodBuilt)
+            return true;
+        if ((aVA.isColorArraySet() ? aVA.getColorArray() : null) != _colorArray)
+            return true;
+        if ((aVA.isTexCoordArraySet() ? aVA.getTexCoordArray() : null) != _texCoordArray)
+            return true;
+        return (aVA.isIndexArraySet() ? aVA.getIndexArray() : null) != _indexArray;
+    }
+
+    /**
+     * Uploads changed spans of changed arrays of given VertexArray.
+     */
+    public void setVertexArray(GL2 gl, VertexArray aVA)
+    {
+        // Get source arrays and whether to optimize
+        float[] pointArray = aVA.getPointArray();
+        float[] colorArray = aVA.isColorArraySet() ? aVA.getColorArray() : null;
+        float[] texCoordArray = aVA.isTexCoordArraySet() ? aVA.getTexCoordArray() : null;
+        int[] indexArray = aVA.isIndexArraySet() ? aVA.getIndexArray() : null;
+        boolean optimize = _optimize && indexArray == null;
+
+        // Get which arrays changed (all if changed in place or optimized or LOD state changed)
+        boolean changed = _arraysChanged || optimize != _optimized || _buildLOD != _lodBuilt;
+        boolean pointsChanged = changed || pointArray != _pointArray;
+        boolean colorsChanged = changed || colorArray != _colorArray;
+        boolean texCoordsChanged = changed || texCoordArray != _texCoordArray;
+        boolean indexesChanged = changed || indexArray != _indexArray;
+        _pointArray = pointArray;
+        _colorArray = colorArray;
+        _texCoordArray = texCoordArray;
+        _indexArray = indexArray;
+        _arraysChanged = false;
+        _optimized = optimize;
+        _uploadByteCount = 0;
+
+        // Update bounds
+        if (pointsChanged)
+            updateBounds();
+
+        // If optimizing and any array changed, upload welded, cache-ordered mesh instead (which changes all arrays)
+        if (optimize && (pointsChanged || colorsChanged || texCoordsChanged)) {
+            JGLMeshOptimizer.Mesh mesh = JGLMeshOptimizer.optimize(pointArray, colorArray, texCoordArray);
+            pointArray = mesh.getPoints();
+            colorArray = mesh.getColors();
+            texCoordArray = mesh.getTexCoords();
+            indexArray = mesh.getIndexes();
+            pointsChanged = colorsChanged = texCoordsChanged = indexesChanged = true;
+        }
+
+        // Update points
+        if (pointsChanged) {
+            _pointsBuffer.setValues(gl, pointArray);
+            _uploadByteCount += _pointsBuffer.getUploadByteCount();
+            _pointCount = pointArray.length / 3;
+        }
+
+        // Update colors and tex coords
+        if (colorsChanged)
+            updateBuffer(gl, _colorsBuffer, colorArray);
+        if (texCoordsChanged)
+            updateBuffer(gl, _texCoordsBuffer, texCoordArray);
+
+        // Update indexes
+        if (indexesChanged) {
+            if (indexArray != null) {
+                _indexBuffer.setValues(gl, indexArray);
+                _uploadByteCount += _indexBuffer.getUploadByteCount();
+            }
+            else _indexBuffer.dispose(gl);
+            _indexed = indexArray != null;
+            _indexCount = indexArray != null ? indexArray.length : 0;
+        }
+
+        // Update levels of detail
+        if (pointsChanged || indexesChanged)
+            updateLOD(gl, pointArray, indexArray);
+    }
+
+    /**
+     * Builds levels of detail for given points and indexes (if enabled) and uploads decimated index sets.
+     */
+    private void updateLOD(GL2 gl, float[] thePoints, int[] theIndexes)
+    {
+        // Build levels (if enabled)
+        _lod = _buildLOD ? JGLMeshLOD.build(thePoints, theIndexes) : null;
+        _lodBuilt = _buildLOD;
+
+        // Make sure there is an index buffer for each decimated level (deleting extra)
+        int bufferCount = _lod != null ? _lod.getLevelCount() - 1 : 0;
+        for (int i = bufferCount; i < _lodBuffers.length; i++)
+            _lodBuffers[i].dispose(gl);
+        int oldCount = _lodBuffers.length;
+        _lodBuffers = Arrays.copyOf(_lodBuffers, bufferCount);
+        for (int i = oldCount; i < bufferCount; i++)
+            _lodBuffers[i] = new JGLBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER);
+
+        // Upload decimated index sets
+        for (int i = 0; i < bufferCount; i++) {
+            _lodBuffers[i].setValues(gl, _lod.getIndexes(i + 1));
+            _uploadByteCount += _lodBuffers[i].getUploadByteCount();
+        }
+    }
+
+    /**
+     * Updates given buffer to given float array (deleting buffer if null).
+     */
+    private void updateBuffer(GL2 gl, JGLBuffer aBuffer, float[] theValues)
+    {
+        if (theValues != null) {
+            aBuffer.setValues(gl, theValues);
+            _uploadByteCount += aBuffer.getUploadByteCount();
+        }
+        else aBuffer.dispose(gl);
+    }
+
+    /**
+     * Updates bounds from point array.
+     */
+    private void updateBounds()
+    {
+        // Reset bounds to empty
+        double[] bounds = _bounds;
+        bounds[0] = bounds[1] = bounds[2] = Double.POSITIVE_INFINITY;
+        bounds[3] = bounds[4] = bounds[5] = Double.NEGATIVE_INFINITY;
+
+        // Extend by points
+        float[] points = _pointArray;
+        for (int i = 0; i + 2 < points.length; i += 3) {
+            for (int j = 0; j < 3; j++) {
+                double value = points[i + j];
+                if (value < bounds[j]) bounds[j] = value;
+                if (value > bounds[j + 3]) bounds[j + 3] = value;
+            }
+        }
+    }
+
+    /**
+     * Releases GL resources.
+     */
+    public void dispose(GL2 gl)
+    {
+        _pointsBuffer.dispose(gl);
+        _colorsBuffer.dispose(gl);
+        _texCoordsBuffer.dispose(gl);
+        _indexBuffer.dispose(gl);
+        _pointArray = _colorArray = _texCoordArray = null;
+        _indexArray = null;
+        _pointCount = _indexCount = 0;
+        _indexed = _optimized = _lodBuilt = false;
+        for (JGLBuffer lodBuffer : _lodBuffers)
+            lodBuffer.dispose(gl);
+        _lodBuffers = new JGLBuffer[0];
+        _lod = null;
+    }
+}
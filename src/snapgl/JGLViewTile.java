@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import snap.gfx3d.Camera;
+import snap.gfx3d.Scene3D;
+import java.awt.image.BufferedImage;
+
+/**
+ * This class describes a (Scene3D, Camera) pair rendered into a rectangular tile of a JGLRenderer RenderImage,
+ * so many small views can be drawn in one pass with one readback.
+ */
+public class JGLViewTile {
+
+    // The scene
+    private Scene3D  _scene;
+
+    // The camera
+    private Camera  _camera;
+
+    // The tile bounds in image coords (origin top-left)
+    private int  _x, _y, _width, _height;
+
+    /**
+     * Constructor.
+     */
+    public JGLViewTile(Scene3D aScene, Camera aCamera, int aX, int aY, int aWidth, int aHeight)
+    {
+        _scene = aScene;
+        _camera = aCamera;
+        _x = aX;
+        _y = aY;
+        _width = aWidth;
+        _height = aHeight;
+    }
+
+    /**
+     * Returns the scene.
+     */
+    public Scene3D getScene()  { return _scene; }
+
+    /**
+     * Returns the camera.
+     */
+    public Camera getCamera()  { return _camera; }
+
+    /**
+     * Returns the tile X in image coords.
+     */
+    public int getX()  { return _x; }
+
+    /**
+     * Returns the tile Y in image coords (from top).
+     */
+    public int getY()  { return _y; }
+
+    /**
+     * Returns the tile width.
+     */
+    public int getWidth()  { return _width; }
+
+    /**
+     * Returns the tile height.
+     */
+    public int getHeight()  { return _height; }
+
+    /**
+     * Returns the sub-image for this tile from given image rendered at given pixel scale (shares image data).
+     */
+    public BufferedImage getSubimage(BufferedImage anImage, double aPixelScale)
+    {
+        int pixX = (int) Math.round(_x * aPixelScale);
+        int pixY = (int) Math.round(_y * aPixelScale);
+        int pixW = (int) Math.round(_width * aPixelScale);
+        int pixH = (int) Math.round(_height * aPixelScale);
+        return anImage.getSubimage(pixX, pixY, pixW, pixH);
+    }
+
+    /**
+     * Returns tiles for given scenes and cameras laid out in a grid with given tile size and column count.
+     * Also sets each camera view size to tile size.
+     */
+    public static JGLViewTile[] createGridTiles(Scene3D[] theScenes, Camera[] theCameras, int aTileW, int aTileH, int aColCount)
+    {
+        JGLViewTile[] tiles = new JGLViewTile[theCameras.length];
+        for (int i = 0; i < tiles.length; i++) {
+            int col = i % aColCount;
+            int row = i / aColCount;
+            theCameras[i].setViewWidth(aTileW);
+            theCameras[i].setViewHeight(aTileH);
+            tiles[i] = new JGLViewTile(theScenes[i], theCameras[i], col * aTileW, row * aTileH, aTileW, aTileH);
+        }
+        return tiles;
+    }
+}
@@ -6,7 +6,9 @@ import com.jogamp.opengl.*;
 import com.jogamp.opengl.glu.GLU;
 import com.jogamp.opengl.glu.GLUquadric;
 import com.jogamp.opengl.util.gl2.GLUT;
-import java.nio.DoubleBuffer;
+import snap.gfx3d.Camera;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Handy JOGL utility methods.
@@ -16,50 +18,80 @@ public class JoglUtils {
     // A GLUT instance
     private static GLUT  _glut;
 
+    // The axis gizmos by GL context
+    private static Map<GLContext, JGLAxisGizmo>  _axisGizmos = new WeakHashMap<>();
+
     /**
      * Returns a GLUT.
      */
     public static GLUT getGlut()  { return _glut != null ? _glut : (_glut = new GLUT()); }
 
     /**
-     * Render axis.
+     * Copies the view orientation, focal length and gimbal radius of given camera to another camera (not scene or view
+     * size), so a private camera can render the same view without changing or listening to the original.
      */
-    public static void render3DAxisLines(GL2 gl, double aRadius, double aHeight)
+    public static void copyCameraSettings(Camera fromCamera, Camera toCamera)
     {
-        // Get info
-        GLUT glut = getGlut();
-        int slices = 32;
-        int stacks = 32;
-
-        // Make sure it draws in front
-        gl.glClear(GL.GL_DEPTH_BUFFER_BIT);
+        toCamera.setYaw(fromCamera.getYaw());
+        toCamera.setPitch(fromCamera.getPitch());
+        toCamera.setRoll(fromCamera.getRoll());
+        toCamera.setFocalLength(fromCamera.getFocalLength());
+        toCamera.setPrefGimbalRadius(fromCamera.getPrefGimbalRadius());
+    }
 
-        // Save transform
-        gl.glPushMatrix();
+    /**
+     * Enables or disables given GL capability (e.g., to restore a state saved with glIsEnabled()).
+     */
+    public static void setEnabled(GL2 gl, int aCap, boolean aValue)
+    {
+        if (aValue)
+            gl.glEnable(aCap);
+        else gl.glDisable(aCap);
+    }
 
-        // Render X axis
-        gl.glColor3d(1d, 0d, 0d);
-        gl.glRotated(-90, 1, 0, 0);
-        glut.glutSolidCylinder(aRadius, aHeight, slices, stacks);
-        gl.glRotated(90, 1, 0, 0);
+    /**
+     * Renders axes for current fixed-function projection and modelview matrices.
+     */
+    public static void render3DAxisLines(GL2 gl, double aRadius, double aHeight)
+    {
+        JGLAxisGizmo axisGizmo = getAxisGizmo(gl);
+        axisGizmo.renderForCurrentMatrices(gl, aRadius, aHeight);
+    }
 
-        // Render Y axis
-        gl.glColor3d(0d, 1d, 0);
-        gl.glRotated(90, 0, 1, 0);
-        glut.glutSolidCylinder(aRadius, aHeight, slices, stacks);
-        gl.glRotated(-90, 0, 1, 0);
+    /**
+     * Renders axes for given projection and view matrices (column-major), in front of scene. Axis mesh is cached in
+     * GPU buffers for current context.
+     */
+    public static void render3DAxisLines(GL2 gl, double[] aProjMatrix, double[] aViewMatrix, double aRadius, double aHeight)
+    {
+        JGLAxisGizmo axisGizmo = getAxisGizmo(gl);
+        axisGizmo.render(gl, aProjMatrix, aViewMatrix, aRadius, aHeight);
+    }
 
-        // Render Z axis
-        gl.glColor3d(0d, 0d, 1d);
-        glut.glutSolidCylinder(aRadius, aHeight, slices, stacks);
+    /**
+     * Returns the axis gizmo for context of given GL (creating if needed).
+     */
+    public static synchronized JGLAxisGizmo getAxisGizmo(GL2 gl)
+    {
+        return _axisGizmos.computeIfAbsent(gl.getContext(), glc -> new JGLAxisGizmo());
+    }
 
-        // Restore transform
-        gl.glPopMatrix();
+    /**
+     * Releases axis gizmo GL resources for context of given GL. Context must be current.
+     */
+    public static synchronized void disposeAxisGizmo(GL2 gl)
+    {
+        JGLAxisGizmo axisGizmo = _axisGizmos.remove(gl.getContext());
+        if (axisGizmo != null)
+            axisGizmo.dispose(gl);
     }
 
     /**
-     * Renders a line as a cylinder between points.
+     * Renders a line as a cylinder between points in immediate mode.
+     *
+     * @deprecated Use JGLLineSet, which draws many lines with one instanced draw call.
      */
+    @Deprecated
     public static void renderLineAsCylinder(GL2 gl2, GLU glu,
             double x0, double y0, double z0, double x1, double y1, double z1, double aRadius)
     {
@@ -101,12 +133,12 @@ public class JoglUtils {
             up_x, up_y, up_z, 0.0,
             dir_x, dir_y, dir_z, 0.0,
             0.0, 0.0, 0.0, 1.0};
-        DoubleBuffer mdb = DoubleBuffer.wrap(m);
-        gl2.glMultMatrixd (mdb);
+        gl2.glMultMatrixd (m, 0);
         //Cylinder parameters
         int slices = 8;//number of segments
         int stack = 3;//Recursion times
         glu.gluCylinder(quad_obj, aRadius, aRadius, bone_length, slices, stack);
+        glu.gluDeleteQuadric(quad_obj);
         gl2.glPopMatrix();
     }
 }
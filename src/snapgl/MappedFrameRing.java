@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is a ring of raw frame slots in a memory-mapped file, so another process (e.g., a video compositor)
+ * can read rendered frames zero-copy, without encoding or sockets. RenderImage writes each completed frame to the
+ * next slot when a ring is set (see RenderImage.setFrameRing()).
+ *
+ * File layout (all values little-endian):
+ *
+ *   Header (HEADER_SIZE bytes):
+ *     0  int   magic ('SGFR')
+ *     4  int   version
+ *     8  int   max frame width (pixels)
+ *     12 int   max frame height (pixels)
+ *     16 int   slot count
+ *     20 int   slot pixel capacity (bytes)
+ *     24 int   pixel format (PIXEL_FORMAT_BGRA_BOTTOM_UP: 4 bytes per pixel B,G,R,A; rows bottom-up)
+ *     32 long  write sequence (number of the last completed frame, 0 if none)
+ *
+ *   Slots (slot i at HEADER_SIZE + i * (SLOT_HEADER_SIZE + slot pixel capacity)):
+ *     0  long  frame sequence (0 while being written)
+ *     8  long  frame timestamp (System.nanoTime() of writer)
+ *     16 int   frame width
+ *     20 int   frame height
+ *     SLOT_HEADER_SIZE: pixels (width * height * 4 bytes)
+ *
+ * Frame N goes to slot (N - 1) % slotCount. The writer clears the slot sequence, writes pixels and size, then sets
+ * the slot sequence and finally the header write sequence (with release ordering). A reader gets the header write
+ * sequence, reads that slot and checks the slot sequence before and after copying (a seqlock), retrying on mismatch.
+ */
+public class MappedFrameRing implements Closeable {
+
+    // The file channel
+    private FileChannel  _channel;
+
+    // The header buffer
+    private MappedByteBuffer  _header;
+
+    // The slot buffers (slot header + pixels)
+    private MappedByteBuffer[]  _slots;
+
+    // The pixel region of each slot
+    private ByteBuffer[]  _slotPixels;
+
+    // The max frame size
+    private int  _width, _height;
+
+    // The slot pixel capacity in bytes
+    private int  _slotSize;
+
+    // The sequence of frame being written (or 0)
+    private long  _pendingSeq;
+
+    // The number of frames skipped because they were larger than slot capacity
+    private int  _skippedCount;
+
+    // Constants for layout
+    public static final int MAGIC = 0x53474652;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_HEADER_SIZE = 32;
+    public static final int PIXEL_FORMAT_BGRA_BOTTOM_UP = 1;
+
+    // Constants for header and slot field offsets
+    private static final int WIDTH_OFFSET = 8, HEIGHT_OFFSET = 12, SLOT_COUNT_OFFSET = 16, SLOT_SIZE_OFFSET = 20;
+    private static final int PIXEL_FORMAT_OFFSET = 24, WRITE_SEQ_OFFSET = 32;
+    private static final int SLOT_SEQ_OFFSET = 0, SLOT_TIME_OFFSET = 8, SLOT_WIDTH_OFFSET = 16, SLOT_HEIGHT_OFFSET = 20;
+
+    // VarHandle for ordered access to sequence counters shared with other processes
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Constructor for file channel and header (use create() or open()).
+     */
+    private MappedFrameRing(FileChannel aChannel, MappedByteBuffer aHeader, boolean isWritable) throws IOException
+    {
+        _channel = aChannel;
+        _header = aHeader;
+        _width = _header.getInt(WIDTH_OFFSET);
+        _height = _header.getInt(HEIGHT_OFFSET);
+        _slotSize = _header.getInt(SLOT_SIZE_OFFSET);
+
+        // Map slots
+        int slotCount = _header.getInt(SLOT_COUNT_OFFSET);
+        FileChannel.MapMode mapMode = isWritable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        _slots = new MappedByteBuffer[slotCount];
+        _slotPixels = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            long slotOffset = HEADER_SIZE + (long) i * (SLOT_HEADER_SIZE + _slotSize);
+            _slots[i] = _channel.map(mapMode, slotOffset, SLOT_HEADER_SIZE + _slotSize);
+            _slots[i].order(ByteOrder.LITTLE_ENDIAN);
+            _slotPixels[i] = _slots[i].slice(SLOT_HEADER_SIZE, _slotSize);
+        }
+    }
+
+    /**
+     * Creates (or replaces) a ring file for frames up to given pixel size with given number of slots.
+     */
+    public static MappedFrameRing create(File aFile, int aWidth, int aHeight, int aSlotCount) throws IOException
+    {
+        // Get slot size and open channel (truncating any old ring)
+        int slotSize = Math.multiplyExact(Math.multiplyExact(aWidth, aHeight), 4);
+        FileChannel channel = FileChannel.open(aFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        // Map and write header (magic last, so readers never see a partial header as valid)
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(4, VERSION);
+        header.putInt(WIDTH_OFFSET, aWidth);
+        header.putInt(HEIGHT_OFFSET, aHeight);
+        header.putInt(SLOT_COUNT_OFFSET, aSlotCount);
+        header.putInt(SLOT_SIZE_OFFSET, slotSize);
+        header.putInt(PIXEL_FORMAT_OFFSET, PIXEL_FORMAT_BGRA_BOTTOM_UP);
+        LONG_HANDLE.setRelease(header, WRITE_SEQ_OFFSET, 0L);
+        header.putInt(0, MAGIC);
+
+        // Create ring
+        return new MappedFrameRing(channel, header, true);
+    }
+
+    /**
+     * Opens an existing ring file for reading.
+     */
+    public static MappedFrameRing open(File aFile) throws IOException
+    {
+        // Open channel and map header
+        FileChannel channel = FileChannel.open(aFile.toPath(), StandardOpenOption.READ);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Check magic and version
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("MappedFrameRing.open: Not a frame ring (or unsupported version): " + aFile);
+        }
+
+        // Create ring
+        return new MappedFrameRing(channel, header, false);
+    }
+
+    /**
+     * Returns the max frame width (pixels).
+     */
+    public int getWidth()  { return _width; }
+
+    /**
+     * Returns the max frame height (pixels).
+     */
+    public int getHeight()  { return _height; }
+
+    /**
+     * Returns the number of slots.
+     */
+    public int getSlotCount()  { return _slots.length; }
+
+    /**
+     * Returns the slot pixel capacity in bytes.
+     */
+    public int getSlotSize()  { return _slotSize; }
+
+    /**
+     * Returns the sequence number of the last completed frame (0 if none).
+     */
+    public long getWriteSequence()  { return (long) LONG_HANDLE.getAcquire(_header, WRITE_SEQ_OFFSET); }
+
+    /**
+     * Returns the number of frames skipped because they were larger than slot capacity.
+     */
+    public int getSkippedCount()  { return _skippedCount; }
+
+    /**
+     * Starts writing a frame of given size and returns the pixel region of its slot (positioned at zero and limited
+     * to frame bytes), or null if frame is too big. Caller fills region and calls endFrame().
+     */
+    public ByteBuffer beginFrame(int aWidth, int aHeight)
+    {
+        // If frame too big, skip
+        long byteCount = (long) aWidth * aHeight * 4;
+        if (byteCount > _slotSize) {
+            _skippedCount++;
+            return null;
+        }
+
+        // Get next sequence and slot and mark slot as being written
+        _pendingSeq = getWriteSequence() + 1;
+        int slotIndex = getSlotIndex(_pendingSeq);
+        MappedByteBuffer slot = _slots[slotIndex];
+        LONG_HANDLE.setRelease(slot, SLOT_SEQ_OFFSET, 0L);
+        VarHandle.storeStoreFence();
+        slot.putInt(SLOT_WIDTH_OFFSET, aWidth);
+        slot.putInt(SLOT_HEIGHT_OFFSET, aHeight);
+
+        // Return pixel region
+        ByteBuffer pixels = _slotPixels[slotIndex];
+        pixels.clear();
+        pixels.limit((int) byteCount);
+        return pixels;
+    }
+
+    /**
+     * Finishes writing the frame started with beginFrame() and publishes it to readers.
+     */
+    public void endFrame()
+    {
+        // If no pending frame, just return
+        if (_pendingSeq == 0) return;
+
+        // Set slot timestamp and sequence, then header write sequence
+        MappedByteBuffer slot = _slots[getSlotIndex(_pendingSeq)];
+        slot.putLong(SLOT_TIME_OFFSET, System.nanoTime());
+        LONG_HANDLE.setRelease(slot, SLOT_SEQ_OFFSET, _pendingSeq);
+        LONG_HANDLE.setRelease(_header, WRITE_SEQ_OFFSET, _pendingSeq);
+        _pendingSeq = 0;
+    }
+
+    /**
+     * Copies the pixels of given frame into given buffer (from its position) and returns true, or returns false
+     * if frame is not (or no longer) in the ring, was overwritten while copying or doesn't fit in buffer remaining.
+     */
+    public boolean readFrame(long aSeq, ByteBuffer aBuffer)
+    {
+        // If frame not written yet or already overwritten, return false
+        if (aSeq <= 0 || aSeq > getWriteSequence() || aSeq <= getWriteSequence() - _slots.length)
+            return false;
+
+        // Check slot sequence before copy
+        MappedByteBuffer slot = _slots[getSlotIndex(aSeq)];
+        if ((long) LONG_HANDLE.getAcquire(slot, SLOT_SEQ_OFFSET) != aSeq)
+            return false;
+
+        // Get frame byte count (if torn size or doesn't fit slot or buffer, return false)
+        int width = slot.getInt(SLOT_WIDTH_OFFSET), height = slot.getInt(SLOT_HEIGHT_OFFSET);
+        long byteCount = (long) width * height * 4;
+        if (width < 0 || height < 0 || byteCount > _slotSize || byteCount > aBuffer.remaining())
+            return false;
+
+        // Copy pixels
+        int bufferPos = aBuffer.position();
+        aBuffer.put(bufferPos, slot, SLOT_HEADER_SIZE, (int) byteCount);
+
+        // Check slot sequence and size after copy (if changed, frame was overwritten)
+        VarHandle.acquireFence();
+        if ((long) LONG_HANDLE.getAcquire(slot, SLOT_SEQ_OFFSET) != aSeq)
+            return false;
+        if (slot.getInt(SLOT_WIDTH_OFFSET) != width || slot.getInt(SLOT_HEIGHT_OFFSET) != height)
+            return false;
+
+        // Advance buffer and return
+        aBuffer.position(bufferPos + (int) byteCount);
+        return true;
+    }
+
+    /**
+     * Returns the width of given frame (if still in ring).
+     */
+    public int getFrameWidth(long aSeq)  { return _slots[getSlotIndex(aSeq)].getInt(SLOT_WIDTH_OFFSET); }
+
+    /**
+     * Returns the height of given frame (if still in ring).
+     */
+    public int getFrameHeight(long aSeq)  { return _slots[getSlotIndex(aSeq)].getInt(SLOT_HEIGHT_OFFSET); }
+
+    /**
+     * Returns the writer timestamp of given frame (if still in ring).
+     */
+    public long getFrameTime(long aSeq)  { return _slots[getSlotIndex(aSeq)].getLong(SLOT_TIME_OFFSET); }
+
+    /**
+     * Returns the slot index for given frame sequence.
+     */
+    private int getSlotIndex(long aSeq)  { return (int) ((aSeq - 1) % _slots.length); }
+
+    /**
+     * Closes file channel. Mapped buffers stay valid until garbage collected.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        _channel.close();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * This class writes a PNG (8-bit RGBA) to a stream one row at a time, so images much larger than memory can be
+ * written from tiles or strips. Rows are compressed as they arrive and written out in fixed size IDAT chunks.
+ */
+public class PNGRowWriter implements Closeable {
+
+    // The output stream
+    private OutputStream  _out;
+
+    // The image size
+    private int  _width, _height;
+
+    // The number of rows written
+    private int  _rowCount;
+
+    // The compressing stream that feeds IDAT chunks
+    private DeflaterOutputStream  _deflateOut;
+
+    // The row bytes (filter byte + RGBA)
+    private byte[]  _rowBytes;
+
+    // Constants
+    private static final byte[] PNG_SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Constructor for given stream and image size. Writes PNG header.
+     */
+    public PNGRowWriter(OutputStream aStream, int aWidth, int aHeight) throws IOException
+    {
+        _out = aStream;
+        _width = aWidth;
+        _height = aHeight;
+        _rowBytes = new byte[1 + aWidth * 4];
+
+        // Write signature and header (8 bit depth, color type 6 = RGBA, default compression/filter, no interlace)
+        _out.write(PNG_SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(aWidth);
+        headerData.writeInt(aHeight);
+        headerData.write(new byte[] { 8, 6, 0, 0, 0 });
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        // Create compressing stream
+        _deflateOut = new DeflaterOutputStream(new IDATOutputStream(), new Deflater(Deflater.DEFAULT_COMPRESSION), IDAT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the image width.
+     */
+    public int getWidth()  { return _width; }
+
+    /**
+     * Returns the image height.
+     */
+    public int getHeight()  { return _height; }
+
+    /**
+     * Returns the number of rows written.
+     */
+    public int getRowCount()  { return _rowCount; }
+
+    /**
+     * Writes a row of ARGB pixels from given array at given offset.
+     */
+    public void writeRow(int[] thePixels, int anOffset) throws IOException
+    {
+        // Check row count
+        if (_rowCount >= _height)
+            throw new IllegalStateException("PNGRowWriter.writeRow: All rows already written");
+
+        // Convert ARGB to filter type 0 (none) + RGBA bytes
+        _rowBytes[0] = 0;
+        for (int i = 0, j = 1; i < _width; i++) {
+            int argb = thePixels[anOffset + i];
+            _rowBytes[j++] = (byte) (argb >> 16);
+            _rowBytes[j++] = (byte) (argb >> 8);
+            _rowBytes[j++] = (byte) argb;
+            _rowBytes[j++] = (byte) (argb >> 24);
+        }
+
+        // Compress
+        _deflateOut.write(_rowBytes);
+        _rowCount++;
+    }
+
+    /**
+     * Writes given number of rows of ARGB pixels from given array (with given row stride).
+     */
+    public void writeRows(int[] thePixels, int aRowCount, int aScanSize) throws IOException
+    {
+        for (int row = 0; row < aRowCount; row++)
+            writeRow(thePixels, row * aScanSize);
+    }
+
+    /**
+     * Finishes compressed data, writes end chunk and closes stream.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        // Check row count
+        if (_rowCount != _height)
+            System.err.println("PNGRowWriter.close: Only wrote " + _rowCount + " of " + _height + " rows");
+
+        // Finish compressed data (closes IDAT stream, which writes last chunk) and write end chunk
+        _deflateOut.close();
+        writeChunk("IEND", new byte[0], 0);
+        _out.close();
+    }
+
+    /**
+     * Writes a chunk with given type and data.
+     */
+    private void writeChunk(String aType, byte[] theData, int aLength) throws IOException
+    {
+        // Get type bytes and CRC (of type and data)
+        byte[] typeBytes = aType.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(theData, 0, aLength);
+
+        // Write length, type, data and CRC
+        DataOutputStream dataOut = new DataOutputStream(_out);
+        dataOut.writeInt(aLength);
+        dataOut.write(typeBytes);
+        dataOut.write(theData, 0, aLength);
+        dataOut.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * An OutputStream that buffers compressed bytes and writes them as IDAT chunks.
+     */
+    private class IDATOutputStream extends OutputStream {
+
+        // The chunk buffer and count
+        private byte[]  _buffer = new byte[IDAT_CHUNK_SIZE];
+        private int  _count;
+
+        @Override
+        public void write(int aByte) throws IOException
+        {
+            if (_count == _buffer.length)
+                flushChunk();
+            _buffer[_count++] = (byte) aByte;
+        }
+
+        @Override
+        public void write(byte[] theBytes, int anOffset, int aLength) throws IOException
+        {
+            while (aLength > 0) {
+                if (_count == _buffer.length)
+                    flushChunk();
+                int length = Math.min(aLength, _buffer.length - _count);
+                System.arraycopy(theBytes, anOffset, _buffer, _count, length);
+                _count += length;
+                anOffset += length;
+                aLength -= length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flushChunk();
+        }
+
+        /**
+         * Writes buffered bytes as IDAT chunk.
+         */
+        private void flushChunk() throws IOException
+        {
+            if (_count == 0) return;
+            writeChunk("IDAT", _buffer, _count);
+            _count = 0;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import java.awt.Component;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class renders a RenderImage repeatedly at a target frame rate on its own thread. Frames are scheduled on a
+ * fixed timeline (start + n * period), so timing errors don't accumulate, and frames are skipped when rendering falls
+ * more than a frame behind. If a component is set, it is repainted after each frame and the animator pauses while
+ * the component isn't showing. Frame intervals are recorded in a histogram with 1ms buckets.
+ */
+public class RenderAnimator {
+
+    // The RenderImage to render
+    private RenderImage  _renderImage;
+
+    // The target frames per second (volatile, since set by caller and read by animator thread)
+    private volatile double  _targetFPS;
+
+    // The component to repaint after each frame (optional)
+    private volatile Component  _component;
+
+    // A runnable called before each frame is rendered, e.g. to update scene (optional)
+    private volatile Runnable  _frameUpdater;
+
+    // The animator thread (null if not running)
+    private volatile Thread  _thread;
+
+    // The number of frames rendered and skipped
+    private volatile long  _frameCount, _skippedCount;
+
+    // The histogram of frame intervals in millis (last bucket holds everything longer)
+    private long[]  _histogram = new long[HISTOGRAM_SIZE];
+
+    // The time of last frame start (nanos)
+    private long  _lastFrameTime;
+
+    // The listener that resumes animator when component is shown
+    private HierarchyListener  _showingListener = this::componentShowingChanged;
+
+    // Constant for default target frames per second
+    public static final double DEFAULT_TARGET_FPS = 60;
+
+    // Constant for number of histogram buckets
+    public static final int HISTOGRAM_SIZE = 101;
+
+    /**
+     * Constructor for given RenderImage and default target FPS.
+     */
+    public RenderAnimator(RenderImage aRenderImage)
+    {
+        this(aRenderImage, DEFAULT_TARGET_FPS);
+    }
+
+    /**
+     * Constructor for given RenderImage and target frames per second.
+     */
+    public RenderAnimator(RenderImage aRenderImage, double aTargetFPS)
+    {
+        _renderImage = aRenderImage;
+        setTargetFPS(aTargetFPS);
+    }
+
+    /**
+     * Returns the RenderImage.
+     */
+    public RenderImage getRenderImage()  { return _renderImage; }
+
+    /**
+     * Returns the target frames per second.
+     */
+    public double getTargetFPS()  { return _targetFPS; }
+
+    /**
+     * Sets the target frames per second (takes effect on next frame).
+     */
+    public void setTargetFPS(double aValue)
+    {
+        if (aValue <= 0)
+            throw new IllegalArgumentException("RenderAnimator.setTargetFPS: FPS must be positive: " + aValue);
+        _targetFPS = aValue;
+    }
+
+    /**
+     * Returns the component repainted after each frame (optional).
+     */
+    public Component getComponent()  { return _component; }
+
+    /**
+     * Sets the component to repaint after each frame. Animator pauses while component isn't showing.
+     */
+    public void setComponent(Component aComponent)
+    {
+        if (_component != null)
+            _component.removeHierarchyListener(_showingListener);
+        _component = aComponent;
+        if (_component != null)
+            _component.addHierarchyListener(_showingListener);
+    }
+
+    /**
+     * Returns the runnable called before each frame is rendered (optional).
+     */
+    public Runnable getFrameUpdater()  { return _frameUpdater; }
+
+    /**
+     * Sets a runnable called (on animator thread) before each frame is rendered, e.g. to update scene.
+     */
+    public void setFrameUpdater(Runnable aRunnable)  { _frameUpdater = aRunnable; }
+
+    /**
+     * Returns whether animator is running.
+     */
+    public boolean isRunning()  { return _thread != null; }
+
+    /**
+     * Starts animator thread.
+     */
+    public synchronized void start()
+    {
+        // If already running, just return
+        if (_thread != null) return;
+
+        // Create and start thread
+        _thread = new Thread(this::runLoop, "RenderAnimator");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Stops animator thread and waits for current frame to finish.
+     */
+    public void stop()
+    {
+        // Get thread (just return if not running)
+        Thread thread;
+        synchronized (this) {
+            thread = _thread;
+            _thread = null;
+            notifyAll();
+        }
+        if (thread == null || thread == Thread.currentThread()) return;
+
+        // Wait for thread to finish
+        try { thread.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Returns whether animator is paused because component isn't showing.
+     */
+    public boolean isPaused()
+    {
+        Component component = _component;
+        return component != null && !component.isShowing();
+    }
+
+    /**
+     * The animator loop: renders frames on fixed timeline, skipping frames when behind and waiting while paused.
+     */
+    private void runLoop()
+    {
+        // Get timeline start
+        long period = getPeriod();
+        long startTime = System.nanoTime();
+        long frameIndex = 0;
+
+        // Loop while running
+        while (_thread == Thread.currentThread()) {
+
+            // If paused, wait until shown (or stopped), then restart timeline
+            if (isPaused()) {
+                waitWhilePaused();
+                period = getPeriod();
+                startTime = System.nanoTime();
+                frameIndex = 0;
+                _lastFrameTime = 0;
+                continue;
+            }
+
+            // If target FPS changed, restart timeline
+            if (period != getPeriod()) {
+                period = getPeriod();
+                startTime = System.nanoTime();
+                frameIndex = 0;
+            }
+
+            // Wait until frame deadline
+            long deadline = startTime + frameIndex * period;
+            long now = System.nanoTime();
+            while (now < deadline && _thread == Thread.currentThread()) {
+                LockSupport.parkNanos(deadline - now);
+                now = System.nanoTime();
+            }
+            if (_thread != Thread.currentThread())
+                break;
+
+            // Render frame
+            renderFrame(now);
+
+            // Advance to next frame, skipping frames whose deadline has already passed
+            long nextIndex = frameIndex + 1;
+            long lateIndex = (System.nanoTime() - startTime) / period;
+            if (lateIndex > nextIndex) {
+                _skippedCount += lateIndex - nextIndex;
+                nextIndex = lateIndex;
+            }
+            frameIndex = nextIndex;
+        }
+    }
+
+    /**
+     * Renders a frame and repaints component.
+     */
+    private void renderFrame(long aFrameTime)
+    {
+        // Add interval since last frame to histogram
+        if (_lastFrameTime != 0) {
+            int bucket = (int) Math.min((aFrameTime - _lastFrameTime) / 1000000, HISTOGRAM_SIZE - 1);
+            synchronized (_histogram) { _histogram[bucket]++; }
+        }
+        _lastFrameTime = aFrameTime;
+
+        // Update and render
+        Runnable frameUpdater = _frameUpdater;
+        try {
+            if (frameUpdater != null)
+                frameUpdater.run();
+            _renderImage.renderAll();
+        }
+        catch (RuntimeException e) {
+            System.err.println("RenderAnimator.renderFrame: " + e);
+        }
+        _frameCount++;
+
+        // Repaint component
+        Component component = _component;
+        if (component != null)
+            component.repaint();
+    }
+
+    /**
+     * Waits while animator is paused and running.
+     */
+    private synchronized void waitWhilePaused()
+    {
+        while (isPaused() && _thread == Thread.currentThread()) {
+            try { wait(); }
+            catch (InterruptedException e) { return; }
+        }
+    }
+
+    /**
+     * Called when component hierarchy changes to wake animator when component is shown.
+     */
+    private void componentShowingChanged(HierarchyEvent anEvent)
+    {
+        if ((anEvent.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+            synchronized (this) { notifyAll(); }
+        }
+    }
+
+    /**
+     * Returns the frame period in nanos.
+     */
+    private long getPeriod()  { return Math.round(1e9 / _targetFPS); }
+
+    /**
+     * Returns the number of frames rendered.
+     */
+    public long getFrameCount()  { return _frameCount; }
+
+    /**
+     * Returns the number of frames skipped because rendering fell behind.
+     */
+    public long getSkippedCount()  { return _skippedCount; }
+
+    /**
+     * Returns a copy of the frame interval histogram (count per 1ms bucket, last bucket is everything longer).
+     */
+    public long[] getHistogram()
+    {
+        synchronized (_histogram) { return _histogram.clone(); }
+    }
+
+    /**
+     * Returns the given percentile of frame interval in millis from histogram (bucket upper bound).
+     */
+    public int getPercentileMillis(double aPercentile)
+    {
+        // Get total count
+        long[] histogram = getHistogram();
+        long total = 0;
+        for (long count : histogram)
+            total += count;
+        if (total == 0)
+            return 0;
+
+        // Find bucket with rank and return its upper bound
+        long rank = Math.max((long) Math.ceil(aPercentile / 100 * total), 1);
+        long sum = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            sum += histogram[i];
+            if (sum >= rank)
+                return i + 1;
+        }
+        return histogram.length;
+    }
+
+    /**
+     * Resets frame counts and histogram.
+     */
+    public void resetStats()
+    {
+        synchronized (_histogram) { Arrays.fill(_histogram, 0); }
+        _frameCount = _skippedCount = 0;
+    }
+
+    /**
+     * Returns a string of frame stats and non-empty histogram buckets.
+     */
+    public String getStatsString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Frames: ").append(_frameCount).append(", Skipped: ").append(_skippedCount);
+        sb.append(", P50: ").append(getPercentileMillis(50)).append("ms, P95: ").append(getPercentileMillis(95));
+        sb.append("ms, P99: ").append(getPercentileMillis(99)).append("ms\n");
+        long[] histogram = getHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] == 0) continue;
+            String label = i < histogram.length - 1 ? i + "-" + (i + 1) + "ms" : ">=" + i + "ms";
+            sb.append(String.format("%10s: %d%n", label, histogram[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -2,24 +2,79 @@
  * Copyright (c) 2010, ReportMill Software. All rights reserved.
  */
 package snapgl;
+import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.*;
-import com.jogamp.opengl.util.awt.AWTGLReadBufferUtil;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
 /**
- * This class renders OpenGL to image using JOGL.
+ * This class renders OpenGL to image using JOGL. Rendering goes to a framebuffer object owned by this class,
+ * so the offscreen drawable only provides the context and never needs to be resized.
  */
 public class RenderImage implements GLEventListener {
 
     // The image size
     protected int  _width, _height;
 
+    // The scale of pixels to image size
+    private double  _pixelScale;
+
+    // The renderer that renders on display (optional)
+    private JGLRenderer  _renderer;
+
+    // The anti-aliasing mode
+    private AntiAlias  _antiAlias = AntiAlias.MSAA;
+
+    // The number of samples for multi-sampling (0 for none)
+    private int  _sampleCount = DEFAULT_SAMPLE_COUNT;
+
     // GLAutoDrawable to do real work of setting render environment up
     private GLAutoDrawable  _drawable;
 
-    // Used to read rendered GL to BufferedImage
-    private AWTGLReadBufferUtil  _glReadUtil;
+    // A drawable whose context is shared with this drawable (optional)
+    private GLAutoDrawable  _sharedDrawable;
+
+    // The framebuffer that rendering goes to
+    private JGLFramebuffer  _framebuffer;
+
+    // The framebuffer that post-process pass renders to (for FXAA)
+    private JGLFramebuffer  _postFramebuffer;
+
+    // The post-process pass (for FXAA)
+    private JGLPostProcess  _postProcess;
+
+    // Whether post-process pass has been applied to current frame
+    private boolean  _postProcessed;
+
+    // The time of last size change (framebuffer only shrinks after size is stable)
+    private long  _sizeChangeTime;
+
+    // The number of times framebuffer has been reallocated
+    private int  _reallocCount;
+
+    // Buffer used to read rendered pixels
+    private IntBuffer  _pixelBuffer;
+
+    // The image that paintToGraphics2D() reads into (reused while size is unchanged)
+    private BufferedImage  _paintImage;
+
+    // A memory-mapped ring that each completed frame is written to (optional)
+    private MappedFrameRing  _frameRing;
+
+    // Constant for default number of samples
+    public static final int DEFAULT_SAMPLE_COUNT = 4;
+
+    // Constant for size bucket that framebuffer allocation is rounded up to (in pixels)
+    public static final int SIZE_BUCKET = 128;
+
+    // Constant for time size must be stable before framebuffer shrinks (in millis)
+    public static final int SHRINK_DELAY = 1000;
+
+    // Constants for anti-aliasing mode
+    public enum AntiAlias { None, MSAA, FXAA }
 
     /**
      * Constructor.
@@ -28,6 +83,7 @@ public class RenderImage implements GLEventListener {
     {
         _width = aWidth;
         _height = aHeight;
+        _pixelScale = DrawableUtils.getScreenScale();
     }
 
     /**
@@ -48,35 +104,212 @@ public class RenderImage implements GLEventListener {
         // If already at size, just return
         if (aWidth == _width && aHeight == _height) return;
 
-        // Handle GLWindow
-        GLAutoDrawable drawable = getDrawable();
-        DrawableUtils.resizeDrawable(drawable, aWidth, aHeight);
-
-        // Reset sizes and clear ReadUtil
+        // Reset sizes (framebuffer is resized on next render if it doesn't fit)
         _width = aWidth;
         _height = aHeight;
-        _glReadUtil = null;
+        _sizeChangeTime = System.currentTimeMillis();
     }
 
+    /**
+     * Returns the number of times framebuffer has been reallocated.
+     */
+    public int getReallocCount()  { return _reallocCount; }
+
+    /**
+     * Returns the scale of pixels to image size.
+     */
+    public double getPixelScale()  { return _pixelScale; }
+
+    /**
+     * Sets the scale of pixels to image size.
+     */
+    public void setPixelScale(double aValue)
+    {
+        _pixelScale = aValue;
+    }
+
+    /**
+     * Returns the width in pixels.
+     */
+    public int getPixelWidth()  { return (int) Math.round(_width * _pixelScale); }
+
+    /**
+     * Returns the height in pixels.
+     */
+    public int getPixelHeight()  { return (int) Math.round(_height * _pixelScale); }
+
+    /**
+     * Returns the renderer that renders on display (optional).
+     */
+    public JGLRenderer getRenderer()  { return _renderer; }
+
+    /**
+     * Sets the renderer that renders on display.
+     */
+    public void setRenderer(JGLRenderer aRenderer)
+    {
+        _renderer = aRenderer;
+    }
+
+    /**
+     * Returns the drawable whose context is shared with this drawable (optional).
+     */
+    public GLAutoDrawable getSharedDrawable()  { return _sharedDrawable; }
+
+    /**
+     * Sets the drawable whose context is shared with this drawable. Must be set before drawable is created.
+     */
+    public void setSharedDrawable(GLAutoDrawable aDrawable)
+    {
+        _sharedDrawable = aDrawable;
+    }
+
+    /**
+     * Returns the anti-aliasing mode.
+     */
+    public AntiAlias getAntiAlias()  { return _antiAlias; }
+
+    /**
+     * Sets the anti-aliasing mode. MSAA uses SampleCount, FXAA uses a post-process pass on a single-sample framebuffer.
+     */
+    public void setAntiAlias(AntiAlias aValue)
+    {
+        _antiAlias = aValue != null ? aValue : AntiAlias.None;
+    }
+
+    /**
+     * Returns the number of samples for multi-sampling (0 for none).
+     */
+    public int getSampleCount()  { return _sampleCount; }
+
+    /**
+     * Sets the number of samples for multi-sampling (0 for none). Framebuffer is recreated on next render.
+     */
+    public void setSampleCount(int aValue)
+    {
+        _sampleCount = Math.max(aValue, 0);
+    }
+
+    /**
+     * Returns the memory-mapped ring that each completed frame is written to (optional).
+     */
+    public MappedFrameRing getFrameRing()  { return _frameRing; }
+
+    /**
+     * Sets a memory-mapped ring that each completed frame is written to (for out-of-process consumers).
+     */
+    public void setFrameRing(MappedFrameRing aRing)  { _frameRing = aRing; }
+
     /**
      * Returns image for current rendering.
      */
-    public BufferedImage getImage()
+    public BufferedImage getImage()  { return getImage(null); }
+
+    /**
+     * Returns image for current rendering, reusing given image if it is ARGB and pixel size (or creating new one).
+     */
+    public BufferedImage getImage(BufferedImage anImage)
     {
-        // Get GL and context
-        GL gl = getGL2(); if (gl == null) return null;
-        GLContext glc = gl.getContext(); if (glc == null) return null;
-        glc.makeCurrent();
+        // If nothing rendered yet, just return
+        if (_framebuffer == null) return null;
 
-        // Get glReadUtil
-        if (_glReadUtil == null)
-            _glReadUtil = new AWTGLReadBufferUtil(gl.getGLProfile(), true);
+        // Get image (given image if reusable) and read pixels into it
+        int pixW = getPixelWidth();
+        int pixH = getPixelHeight();
+        BufferedImage img = anImage;
+        if (img == null || img.getType() != BufferedImage.TYPE_INT_ARGB || img.getWidth() != pixW || img.getHeight() != pixH)
+            img = new BufferedImage(pixW, pixH, BufferedImage.TYPE_INT_ARGB);
+        int[] imgPixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        readPixels(imgPixels, 0, pixW);
 
-        // Read to image
-        BufferedImage img = _glReadUtil.readPixelsToBufferedImage(gl, true);
+        // Return
         return img;
     }
 
+    /**
+     * Reads current rendering as ARGB ints (top row first) into given array at given offset and row stride. Does
+     * nothing if nothing rendered yet, and reads at most the allocated framebuffer size (e.g. after growing setSize()
+     * with no render since).
+     */
+    public void readPixels(int[] thePixels, int anOffset, int aScanSize)
+    {
+        // If nothing rendered yet, just return
+        if (_framebuffer == null) return;
+
+        // Get GL and context and pixel size (clamped to framebuffer)
+        GL2 gl = getGL2();
+        GLContext glc = gl.getContext();
+        int pixW = Math.min(getPixelWidth(), _framebuffer.getWidth());
+        int pixH = Math.min(getPixelHeight(), _framebuffer.getHeight());
+
+        // Read pixels (with context current)
+        IntBuffer pixelBuffer;
+        glc.makeCurrent();
+        try { pixelBuffer = readPixels(gl, pixW, pixH); }
+        finally { glc.release(); }
+
+        // Copy rows, flipping from GL bottom-up order
+        for (int row = 0; row < pixH; row++) {
+            pixelBuffer.position((pixH - row - 1) * pixW);
+            pixelBuffer.get(thePixels, anOffset + row * aScanSize, pixW);
+        }
+    }
+
+    /**
+     * Reads pixels from framebuffer (resolving multi-sampling) to pixel buffer as ARGB ints in GL row order.
+     */
+    protected IntBuffer readPixels(GL2 gl, int aPixW, int aPixH)
+    {
+        // Make sure pixel buffer is big enough
+        long readStart = System.nanoTime();
+        int pixelCount = aPixW * aPixH;
+        if (_pixelBuffer == null || _pixelBuffer.capacity() < pixelCount)
+            _pixelBuffer = Buffers.newDirectIntBuffer(pixelCount);
+
+        // Resolve (or post-process) and read
+        JGLFramebuffer outputFramebuffer = getOutputFramebuffer(gl);
+        outputFramebuffer.bindForRead(gl, aPixW, aPixH);
+        _pixelBuffer.clear();
+        gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+        gl.glReadPixels(0, 0, aPixW, aPixH, GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, _pixelBuffer);
+
+        // Restore draw framebuffer
+        _framebuffer.bindForDraw(gl);
+        _pixelBuffer.rewind();
+
+        // Add readback time to renderer stats and return
+        if (_renderer != null)
+            _renderer.getStats().addReadbackTime(System.nanoTime() - readStart);
+        return _pixelBuffer;
+    }
+
+    /**
+     * Returns the framebuffer that holds the final image, running post-process pass if needed.
+     */
+    private JGLFramebuffer getOutputFramebuffer(GL2 gl)
+    {
+        // If no post-process, just return framebuffer
+        if (_antiAlias != AntiAlias.FXAA)
+            return _framebuffer;
+
+        // If post-process not yet applied to this frame, render FXAA pass to post framebuffer
+        if (!_postProcessed) {
+            int allocW = _framebuffer.getWidth();
+            int allocH = _framebuffer.getHeight();
+            if (_postFramebuffer == null)
+                _postFramebuffer = new JGLFramebuffer(0);
+            if (_postProcess == null)
+                _postProcess = new JGLPostProcess("FXAA");
+            _postFramebuffer.setSize(gl, allocW, allocH);
+            _postFramebuffer.bindForDraw(gl);
+            _postProcess.render(gl, _framebuffer.getColorTextureId(), getPixelWidth(), getPixelHeight(), allocW, allocH);
+            _postProcessed = true;
+        }
+
+        // Return post framebuffer
+        return _postFramebuffer;
+    }
+
     /**
      * Paints 3D to Graphics2D.
      */
@@ -87,26 +320,33 @@ public class RenderImage implements GLEventListener {
     }
 
     /**
-     * Triggers render.
+     * Triggers render (errors are printed, so image keeps last rendered pixels).
      */
     public void renderAll()
     {
-        try {
-            GLAutoDrawable drawable = getDrawable();
-            drawable.display();
-        }
+        try { renderOrThrow(); }
         catch (Exception e) {
             System.err.println("RenderImage.renderAll: " + e);
         }
     }
 
+    /**
+     * Triggers render, throwing if render fails (JOGL rethrows renderer exceptions as GLException). For callers that
+     * must not return stale pixels, like batch jobs and exports.
+     */
+    public void renderOrThrow()
+    {
+        GLAutoDrawable drawable = getDrawable();
+        drawable.display();
+    }
+
     /**
      * Paints 3D to Graphics2D.
      */
     public void paintToGraphics2D(Graphics2D aGfx)
     {
-        // Get image for 3D and paint to graphics
-        BufferedImage img = getImage();
+        // Get image for 3D (reusing last paint image) and paint to graphics
+        BufferedImage img = _paintImage = getImage(_paintImage);
         if (img == null) {
             System.err.println("RenderImage.paint3DToGraphics2D: Image is null"); return; }
 
@@ -122,18 +362,26 @@ public class RenderImage implements GLEventListener {
         // If already set, just return
         if (_drawable != null) return _drawable;
 
-        // Create Drawable, add GLEventListener, set and return
+        // Create Drawable, add framebuffer listener (to run first), this GLEventListener, then frame ring listener
         GLAutoDrawable drawable = createDrawable();
+        if (_sharedDrawable != null && drawable instanceof GLSharedContextSetter)
+            ((GLSharedContextSetter) drawable).setSharedAutoDrawable(_sharedDrawable);
+        drawable.setAutoSwapBufferMode(false);
+        drawable.addGLEventListener(new FramebufferListener());
         drawable.addGLEventListener(this);
+        drawable.addGLEventListener(new FrameRingListener());
+
+        // Set and return
         return _drawable = drawable;
     }
 
     /**
-     * Creates the drawable.
+     * Creates the drawable. Since rendering goes to framebuffer, drawable is minimal and not multi-sampled.
      */
     protected GLAutoDrawable createDrawable()
     {
-        GLAutoDrawable drawable = DrawableUtils.createOffScreenDrawableDefault(null, _width, _height);
+        GLCapabilities glCaps = DrawableUtils.getOffscreenCapabilities(0);
+        GLAutoDrawable drawable = DrawableUtils.createOffScreenDrawableDefault(glCaps, 1, 1);
         return drawable;
     }
 
@@ -162,10 +410,14 @@ public class RenderImage implements GLEventListener {
     }
 
     /**
-     * Override to do custom rendering.
+     * Override to do custom rendering. Default version renders with renderer (if set).
      */
     @Override
-    public void display(GLAutoDrawable drawable)  { }
+    public void display(GLAutoDrawable drawable)
+    {
+        if (_renderer != null)
+            _renderer.renderAll();
+    }
 
     /**
      * Override for custom resize code.
@@ -178,4 +430,139 @@ public class RenderImage implements GLEventListener {
      */
     @Override
     public void dispose(GLAutoDrawable drawable)  { }
+
+    /**
+     * A GLEventListener that makes sure framebuffer is allocated, sized and bound before display.
+     */
+    private class FramebufferListener implements GLEventListener {
+
+        /**
+         * Override to bind framebuffer (recreating if sample count changed) and set viewport.
+         */
+        @Override
+        public void display(GLAutoDrawable drawable)
+        {
+            // Get sample count and color texture for anti-alias mode
+            GL2 gl = getGL2();
+            int sampleCount = _antiAlias == AntiAlias.MSAA ? _sampleCount : 0;
+            boolean colorTexture = _antiAlias == AntiAlias.FXAA;
+
+            // If sample count or color texture changed, release framebuffer
+            if (_framebuffer != null && (_framebuffer.getSampleCount() != sampleCount ||
+                    _framebuffer.isColorTexture() != colorTexture)) {
+                _framebuffer.dispose(gl);
+                _framebuffer = null;
+            }
+
+            // Make sure framebuffer exists
+            if (_framebuffer == null)
+                _framebuffer = colorTexture ? new JGLFramebuffer(true) : new JGLFramebuffer(sampleCount);
+
+            // Make sure framebuffer is allocated to fit pixel size (with hysteresis)
+            int pixW = getPixelWidth();
+            int pixH = getPixelHeight();
+            if (isReallocNeeded(pixW, pixH)) {
+                _framebuffer.setSize(gl, getBucketSize(pixW), getBucketSize(pixH));
+                _reallocCount++;
+            }
+
+            // Bind and limit viewport and scissor to pixel size
+            _framebuffer.bindForDraw(gl);
+            gl.glViewport(0, 0, pixW, pixH);
+            gl.glEnable(GL.GL_SCISSOR_TEST);
+            gl.glScissor(0, 0, pixW, pixH);
+            _postProcessed = false;
+        }
+
+        /**
+         * Returns whether framebuffer needs to be reallocated for given pixel size. Grows immediately, but only
+         * shrinks to smaller bucket when size has been stable for SHRINK_DELAY.
+         */
+        private boolean isReallocNeeded(int pixW, int pixH)
+        {
+            // If not allocated or too small, return true
+            int allocW = _framebuffer.getWidth();
+            int allocH = _framebuffer.getHeight();
+            if (!_framebuffer.isAllocated() || allocW < pixW || allocH < pixH)
+                return true;
+
+            // If bigger than needed bucket, return true if size has been stable
+            boolean oversized = allocW > getBucketSize(pixW) || allocH > getBucketSize(pixH);
+            return oversized && System.currentTimeMillis() - _sizeChangeTime > SHRINK_DELAY;
+        }
+
+        /**
+         * Returns given size rounded up to size bucket.
+         */
+        private int getBucketSize(int aSize)
+        {
+            int bucketCount = (Math.max(aSize, 1) + SIZE_BUCKET - 1) / SIZE_BUCKET;
+            return bucketCount * SIZE_BUCKET;
+        }
+
+        /**
+         * Override to release framebuffer.
+         */
+        @Override
+        public void dispose(GLAutoDrawable drawable)
+        {
+            GL2 gl = getGL2();
+            if (_framebuffer != null)
+                _framebuffer.dispose(gl);
+            if (_postFramebuffer != null)
+                _postFramebuffer.dispose(gl);
+            if (_postProcess != null)
+                _postProcess.dispose(gl);
+            _framebuffer = _postFramebuffer = null;
+            _postProcess = null;
+        }
+
+        @Override
+        public void init(GLAutoDrawable drawable)  { }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height)  { }
+    }
+
+    /**
+     * A GLEventListener that writes each completed frame to frame ring (if set).
+     */
+    private class FrameRingListener implements GLEventListener {
+
+        /**
+         * Override to read frame pixels directly into next frame ring slot.
+         */
+        @Override
+        public void display(GLAutoDrawable drawable)
+        {
+            // If no frame ring, just return
+            if (_frameRing == null) return;
+
+            // Get slot pixel region for frame (just return if frame doesn't fit)
+            int pixW = getPixelWidth();
+            int pixH = getPixelHeight();
+            ByteBuffer slotPixels = _frameRing.beginFrame(pixW, pixH);
+            if (slotPixels == null) return;
+
+            // Resolve (or post-process) and read into slot (in GL bottom-up row order)
+            GL2 gl = getGL2();
+            JGLFramebuffer outputFramebuffer = getOutputFramebuffer(gl);
+            outputFramebuffer.bindForRead(gl, pixW, pixH);
+            gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+            gl.glReadPixels(0, 0, pixW, pixH, GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, slotPixels);
+            _framebuffer.bindForDraw(gl);
+
+            // Publish frame
+            _frameRing.endFrame();
+        }
+
+        @Override
+        public void init(GLAutoDrawable drawable)  { }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height)  { }
+
+        @Override
+        public void dispose(GLAutoDrawable drawable)  { }
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * This class collects per-frame rendering counters and times for a JGLRenderer and keeps a rolling window of recent
+ * frames for percentiles. Counters are updated on the render thread without locking and copied to the window at
+ * frame end, so stats can be read from other threads (e.g., via JMX) while rendering.
+ *
+ * Readback and GPU times arrive after their frame has ended (readback happens after render, GPU timer query results
+ * a few frames later), so they are added to the window entry of their frame. Frames without them (e.g., timer query
+ * skipped or result not collected yet) keep NOT_MEASURED and are left out of percentiles.
+ */
+public class RenderStats implements RenderStatsMBean {
+
+    // Current frame counters
+    private int  _drawCalls, _triangles, _programSwitches, _textureBinds, _shapesCulled;
+    private long  _uploadBytes;
+
+    // Current frame times (in nanos)
+    private long  _frameStart, _submitTime;
+
+    // The number of completed frames
+    private long  _frameCount;
+
+    // The rolling window of frame values, per metric
+    private long[][]  _history = new long[Metric.values().length][HISTORY_SIZE];
+
+    // Whether GPU times come from GL timer queries
+    private volatile boolean  _gpuTimerAvailable;
+
+    // The name this instance is registered with in platform MBeanServer (if registered)
+    private ObjectName  _objectName;
+
+    // Constant for number of frames in rolling window
+    public static final int HISTORY_SIZE = 256;
+
+    // Constant for value of frames where a metric wasn't measured
+    public static final long NOT_MEASURED = -1;
+
+    // Constants for metrics
+    public enum Metric {
+        FrameTime, TraversalTime, SubmitTime, ReadbackTime, GPUTime,
+        DrawCalls, Triangles, ProgramSwitches, TextureBinds, UploadBytes, ShapesCulled
+    }
+
+    /**
+     * Constructor.
+     */
+    public RenderStats()
+    {
+        reset();
+    }
+
+    /**
+     * Starts a new frame.
+     */
+    public void beginFrame()
+    {
+        _drawCalls = _triangles = _programSwitches = _textureBinds = _shapesCulled = 0;
+        _uploadBytes = _submitTime = 0;
+        _frameStart = System.nanoTime();
+    }
+
+    /**
+     * Adds a draw call with given number of triangles.
+     */
+    public void addDrawCall(int aTriangleCount)
+    {
+        _drawCalls++;
+        _triangles += aTriangleCount;
+    }
+
+    /**
+     * Adds a program switch.
+     */
+    public void addProgramSwitch()  { _programSwitches++; }
+
+    /**
+     * Adds a texture bind.
+     */
+    public void addTextureBind()  { _textureBinds++; }
+
+    /**
+     * Adds given number of uploaded bytes.
+     */
+    public void addUploadBytes(long aCount)  { _uploadBytes += aCount; }
+
+    /**
+     * Adds a culled shape.
+     */
+    public void addShapeCulled()  { _shapesCulled++; }
+
+    /**
+     * Adds given time spent submitting draws (in nanos).
+     */
+    public void addSubmitTime(long aTime)  { _submitTime += aTime; }
+
+    /**
+     * Ends current frame and adds it to rolling window. Traversal time is frame time minus submit time.
+     */
+    public synchronized void endFrame()
+    {
+        // Get frame times
+        long frameTime = System.nanoTime() - _frameStart;
+        long traversalTime = Math.max(frameTime - _submitTime, 0);
+
+        // Add to window
+        int index = (int) (_frameCount % HISTORY_SIZE);
+        setValue(Metric.FrameTime, index, frameTime);
+        setValue(Metric.TraversalTime, index, traversalTime);
+        setValue(Metric.SubmitTime, index, _submitTime);
+        setValue(Metric.ReadbackTime, index, NOT_MEASURED);
+        setValue(Metric.GPUTime, index, NOT_MEASURED);
+        setValue(Metric.DrawCalls, index, _drawCalls);
+        setValue(Metric.Triangles, index, _triangles);
+        setValue(Metric.ProgramSwitches, index, _programSwitches);
+        setValue(Metric.TextureBinds, index, _textureBinds);
+        setValue(Metric.UploadBytes, index, _uploadBytes);
+        setValue(Metric.ShapesCulled, index, _shapesCulled);
+        _frameCount++;
+    }
+
+    /**
+     * Adds given readback time (in nanos) to last completed frame.
+     */
+    public synchronized void addReadbackTime(long aTime)
+    {
+        if (_frameCount == 0) return;
+        int index = (int) ((_frameCount - 1) % HISTORY_SIZE);
+        long[] values = _history[Metric.ReadbackTime.ordinal()];
+        values[index] = values[index] == NOT_MEASURED ? aTime : values[index] + aTime;
+    }
+
+    /**
+     * Sets the GPU time (in nanos) for given frame number (ignored if frame no longer in window).
+     */
+    public synchronized void setGPUTime(long aFrameNumber, long aTime)
+    {
+        if (aFrameNumber >= _frameCount || aFrameNumber < _frameCount - HISTORY_SIZE) return;
+        int index = (int) (aFrameNumber % HISTORY_SIZE);
+        _history[Metric.GPUTime.ordinal()][index] = aTime;
+    }
+
+    /**
+     * Sets whether GPU times come from GL timer queries.
+     */
+    public void setGPUTimerAvailable(boolean aValue)  { _gpuTimerAvailable = aValue; }
+
+    /**
+     * Returns the number of the current (or next) frame.
+     */
+    public long getFrameNumber()  { return _frameCount; }
+
+    /**
+     * Returns the value of given metric for last completed frame (or NOT_MEASURED).
+     */
+    public synchronized long getLastValue(Metric aMetric)
+    {
+        if (_frameCount == 0) return 0;
+        int index = (int) ((_frameCount - 1) % HISTORY_SIZE);
+        return _history[aMetric.ordinal()][index];
+    }
+
+    /**
+     * Returns the given percentile (0-100) of given metric over measured frames in rolling window (nearest rank), or
+     * NOT_MEASURED if no frames were measured.
+     */
+    public synchronized long getPercentile(Metric aMetric, double aPercentile)
+    {
+        // Get measured values in window (just return if none)
+        long[] history = _history[aMetric.ordinal()];
+        long[] values = new long[(int) Math.min(_frameCount, HISTORY_SIZE)];
+        int count = 0;
+        for (int i = 0; i < values.length; i++)
+            if (history[i] != NOT_MEASURED)
+                values[count++] = history[i];
+        if (count == 0) return NOT_MEASURED;
+        values = Arrays.copyOf(values, count);
+
+        // Sort and return value at rank
+        Arrays.sort(values);
+        int rank = (int) Math.ceil(aPercentile / 100 * count);
+        return values[Math.min(Math.max(rank, 1), count) - 1];
+    }
+
+    /**
+     * Returns the given percentile (0-100) of given time metric in millis (or NaN if no frames were measured).
+     */
+    public double getPercentileMillis(Metric aMetric, double aPercentile)
+    {
+        long value = getPercentile(aMetric, aPercentile);
+        return value != NOT_MEASURED ? value / 1e6 : Double.NaN;
+    }
+
+    /**
+     * Sets value of given metric at given window index.
+     */
+    private void setValue(Metric aMetric, int anIndex, long aValue)
+    {
+        _history[aMetric.ordinal()][anIndex] = aValue;
+    }
+
+    /**
+     * RenderStatsMBean methods.
+     */
+    public synchronized long getFrameCount()  { return _frameCount; }
+    public long getDrawCalls()  { return getLastValue(Metric.DrawCalls); }
+    public long getTriangles()  { return getLastValue(Metric.Triangles); }
+    public long getProgramSwitches()  { return getLastValue(Metric.ProgramSwitches); }
+    public long getTextureBinds()  { return getLastValue(Metric.TextureBinds); }
+    public long getUploadBytes()  { return getLastValue(Metric.UploadBytes); }
+    public long getShapesCulled()  { return getLastValue(Metric.ShapesCulled); }
+    public boolean isGPUTimerAvailable()  { return _gpuTimerAvailable; }
+    public double getFrameTimeP50()  { return getPercentileMillis(Metric.FrameTime, 50); }
+    public double getFrameTimeP95()  { return getPercentileMillis(Metric.FrameTime, 95); }
+    public double getFrameTimeP99()  { return getPercentileMillis(Metric.FrameTime, 99); }
+    public double getTraversalTimeP50()  { return getPercentileMillis(Metric.TraversalTime, 50); }
+    public double getTraversalTimeP95()  { return getPercentileMillis(Metric.TraversalTime, 95); }
+    public double getSubmitTimeP50()  { return getPercentileMillis(Metric.SubmitTime, 50); }
+    public double getSubmitTimeP95()  { return getPercentileMillis(Metric.SubmitTime, 95); }
+    public double getReadbackTimeP50()  { return getPercentileMillis(Metric.ReadbackTime, 50); }
+    public double getReadbackTimeP95()  { return getPercentileMillis(Metric.ReadbackTime, 95); }
+    public double getGPUTimeP50()  { return getPercentileMillis(Metric.GPUTime, 50); }
+    public double getGPUTimeP95()  { return getPercentileMillis(Metric.GPUTime, 95); }
+
+    /**
+     * Resets the stats (window values are NOT_MEASURED until frames fill them).
+     */
+    public synchronized void reset()
+    {
+        _frameCount = 0;
+        for (long[] values : _history)
+            Arrays.fill(values, NOT_MEASURED);
+    }
+
+    /**
+     * Registers this instance in platform MBeanServer with given name (e.g. "snapgl:type=RenderStats,name=Chart1").
+     */
+    public synchronized void registerMBean(String aName)
+    {
+        try {
+            unregisterMBean();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(aName);
+            server.registerMBean(this, objectName);
+            _objectName = objectName;
+        }
+        catch (Exception e) {
+            System.err.println("RenderStats.registerMBean: " + e);
+        }
+    }
+
+    /**
+     * Unregisters this instance from platform MBeanServer (if registered).
+     */
+    public synchronized void unregisterMBean()
+    {
+        if (_objectName == null) return;
+        try { ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName); }
+        catch (Exception e) { System.err.println("RenderStats.unregisterMBean: " + e); }
+        _objectName = null;
+    }
+
+    /**
+     * Returns a string of last frame counters and time percentiles.
+     */
+    public String getStatsString()
+    {
+        return String.format("Draws: %d, Tris: %d, Programs: %d, Textures: %d, Upload: %d B, Culled: %d, " +
+            "Frame p50/p95: %.2f/%.2f ms, Submit p50: %.2f ms, Readback p50: %.2f ms, GPU p50: %s",
+            getDrawCalls(), getTriangles(), getProgramSwitches(), getTextureBinds(), getUploadBytes(),
+            getShapesCulled(), getFrameTimeP50(), getFrameTimeP95(), getSubmitTimeP50(), getReadbackTimeP50(),
+            _gpuTimerAvailable ? String.format("%.2f ms", getGPUTimeP50()) : "n/a");
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2010, ReportMill Software. All rights reserved.
+ */
+package snapgl;
+
+/**
+ * The JMX management interface for RenderStats. Counters are for the last completed frame, times are percentiles
+ * in milliseconds over the rolling window of recent frames.
+ */
+public interface RenderStatsMBean {
+
+    /**
+     * Returns the number of frames rendered since reset.
+     */
+    long getFrameCount();
+
+    /**
+     * Returns the number of draw calls in last frame.
+     */
+    long getDrawCalls();
+
+    /**
+     * Returns the number of triangles in last frame.
+     */
+    long getTriangles();
+
+    /**
+     * Returns the number of program switches in last frame.
+     */
+    long getProgramSwitches();
+
+    /**
+     * Returns the number of texture binds in last frame.
+     */
+    long getTextureBinds();
+
+    /**
+     * Returns the number of bytes uploaded in last frame.
+     */
+    long getUploadBytes();
+
+    /**
+     * Returns the number of shapes culled in last frame.
+     */
+    long getShapesCulled();
+
+    /**
+     * Returns whether GPU times come from GL timer queries.
+     */
+    boolean isGPUTimerAvailable();
+
+    /**
+     * Returns the frame time percentiles.
+     */
+    double getFrameTimeP50();
+    double getFrameTimeP95();
+    double getFrameTimeP99();
+
+    /**
+     * Returns the scene traversal time percentiles.
+     */
+    double getTraversalTimeP50();
+    double getTraversalTimeP95();
+
+    /**
+     * Returns the draw submission time percentiles.
+     */
+    double getSubmitTimeP50();
+    double getSubmitTimeP95();
+
+    /**
+     * Returns the readback time percentiles (NaN if no frames were read back).
+     */
+    double getReadbackTimeP50();
+    double getReadbackTimeP95();
+
+    /**
+     * Returns the GPU time percentiles (from timer queries, NaN if no results yet).
+     */
+    double getGPUTimeP50();
+    double getGPUTimeP95();
+
+    /**
+     * Resets the stats.
+     */
+    void reset();
+}
@@ -0,0 +1,118 @@
+package snapgl;
+import com.jogamp.opengl.GLContext;
+import snap.gfx3d.Camera;
+import snap.gfx3d.Scene3D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.function.IntFunction;
+
+/**
+ * A class to check that steady-state frames of an unchanged scene don't allocate. Renders each test scene to warm up,
+ * then measures bytes allocated by this thread around RenderImage.renderAll() plus readback into a reused
+ * BufferedImage (the display path) and exits with status 1 if any scene exceeds the budget (in bytes per frame,
+ * default 0), e.g.:
+ *     LIBGL_ALWAYS_SOFTWARE=1 java -Djava.awt.headless=true snapgl.TestAllocationBudget [budget] [frameCount]
+ */
+public class TestAllocationBudget {
+
+    // The allowed bytes allocated per frame
+    private long  _budget;
+
+    // The number of measured frames per scene
+    private int  _frameCount;
+
+    // Whether any scene exceeded budget
+    private boolean  _failed;
+
+    // Constants
+    private static final int DEFAULT_FRAME_COUNT = 100;
+    private static final int WARMUP_FRAME_COUNT = 50;
+    private static final int VIEW_SIZE = 400;
+
+    /**
+     * Constructor for given budget in bytes per frame and number of measured frames.
+     */
+    public TestAllocationBudget(long aBudget, int aFrameCount)
+    {
+        _budget = aBudget;
+        _frameCount = aFrameCount;
+    }
+
+    /**
+     * Checks all test scenes and returns whether all were within budget.
+     */
+    public boolean checkAll()
+    {
+        checkScene("Bars", TestScenes::createBarScene, 100);
+        checkScene("Surface", TestScenes::createSurfaceScene, 10000);
+        checkScene("TexturedQuads", TestScenes::createTexturedQuadScene, 100);
+        checkScene("Nested", TestScenes::createNestedScene, 50);
+        return !_failed;
+    }
+
+    /**
+     * Checks scene created by given function for given size and prints result.
+     */
+    public void checkScene(String aName, IntFunction<Scene3D> aSceneFunc, int aSize)
+    {
+        // Create scene, renderer and RenderImage
+        Scene3D scene = aSceneFunc.apply(aSize);
+        Camera camera = scene.getCamera();
+        camera.setViewWidth(VIEW_SIZE);
+        camera.setViewHeight(VIEW_SIZE);
+        JGLRenderer renderer = new JGLRenderer(camera);
+        RenderImage renderImage = renderer.getRenderImage();
+        renderImage.setPixelScale(1);
+
+        // Warm up with full frames and readback (uploads buffers/textures, compiles programs, creates framebuffer)
+        BufferedImage image = null;
+        for (int i = 0; i < WARMUP_FRAME_COUNT; i++) {
+            renderImage.renderAll();
+            image = renderImage.getImage(image);
+        }
+
+        // Render and read back measured frames, tracking allocation on this thread
+        long allocStart = getAllocatedBytes();
+        for (int i = 0; i < _frameCount; i++) {
+            renderImage.renderAll();
+            image = renderImage.getImage(image);
+        }
+        long allocBytes = getAllocatedBytes() - allocStart;
+
+        // Dispose
+        GLContext glc = renderImage.getDrawable().getContext();
+        glc.makeCurrent();
+        try { renderer.disposeResources(); }
+        finally { glc.release(); }
+        renderImage.getDrawable().destroy();
+
+        // Print result and mark failed if over budget (compare totals, so stray bytes aren't lost to rounding)
+        boolean passed = allocBytes <= _budget * _frameCount;
+        System.out.printf("%s %s: %.1f bytes/frame, %d bytes total (budget %d)%n", passed ? "PASS" : "FAIL", aName,
+            allocBytes / (double) _frameCount, allocBytes, _budget);
+        if (!passed)
+            _failed = true;
+    }
+
+    /**
+     * Returns the bytes allocated by current thread (or 0 if not supported by JVM).
+     */
+    public static long getAllocatedBytes()
+    {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    /**
+     * Standard main implementation.
+     */
+    public static void main(String[] args)
+    {
+        long budget = args.length > 0 ? Long.parseLong(args[0]) : 0;
+        int frameCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FRAME_COUNT;
+        boolean passed = new TestAllocationBudget(budget, frameCount).checkAll();
+        System.exit(passed ? 0 : 1);
+    }
+}
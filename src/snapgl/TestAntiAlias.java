@@ -0,0 +1,120 @@
+package snapgl;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+import java.awt.image.BufferedImage;
+
+/**
+ * A class to compare frame time and image difference of RenderImage anti-aliasing modes (None, FXAA) against MSAA.
+ */
+public class TestAntiAlias extends RenderImage {
+
+    // Constants
+    private static final int IMAGE_WIDTH = 800;
+    private static final int IMAGE_HEIGHT = 600;
+    private static final int WARMUP_FRAMES = 20;
+    private static final int FRAME_COUNT = 100;
+    private static final int SPOKE_COUNT = 200;
+
+    /**
+     * Constructor.
+     */
+    public TestAntiAlias()
+    {
+        super(IMAGE_WIDTH, IMAGE_HEIGHT);
+    }
+
+    /**
+     * Renders given number of frames (with readback) and returns average frame time in millis.
+     */
+    public double timeFrames(int aCount)
+    {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < aCount; i++) {
+            renderAll();
+            getImage();
+        }
+        long totalTime = System.nanoTime() - startTime;
+        return totalTime / 1e6 / aCount;
+    }
+
+    /**
+     * Override to draw a star of thin triangles, which has lots of aliased edges.
+     */
+    @Override
+    public void display(GLAutoDrawable drawable)
+    {
+        GL2 gl = getGL2();
+        gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+        gl.glDisable(GL.GL_CULL_FACE);
+
+        // Draw spokes
+        float aspect = (float) getWidth() / getHeight();
+        gl.glBegin(GL.GL_TRIANGLES);
+        for (int i = 0; i < SPOKE_COUNT; i++) {
+            double angle = i * Math.PI * 2 / SPOKE_COUNT;
+            double angle2 = angle + Math.PI / SPOKE_COUNT / 2;
+            gl.glColor3f(0.4f + (i % 3) * 0.2f, 0.6f, 0.8f - (i % 5) * 0.1f);
+            gl.glVertex2f(0, 0);
+            gl.glVertex2f((float) (Math.cos(angle) * 0.9 / aspect), (float) (Math.sin(angle) * 0.9));
+            gl.glVertex2f((float) (Math.cos(angle2) * 0.9 / aspect), (float) (Math.sin(angle2) * 0.9));
+        }
+        gl.glEnd();
+        gl.glEnable(GL.GL_CULL_FACE);
+    }
+
+    /**
+     * Returns the mean absolute channel difference (0-255) between two images of the same size.
+     */
+    public static double getMeanDifference(BufferedImage anImg1, BufferedImage anImg2)
+    {
+        int width = anImg1.getWidth();
+        int height = anImg1.getHeight();
+        long totalDiff = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb1 = anImg1.getRGB(x, y);
+                int rgb2 = anImg2.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8)
+                    totalDiff += Math.abs(((rgb1 >> shift) & 0xff) - ((rgb2 >> shift) & 0xff));
+            }
+        }
+        return totalDiff / (width * height * 4d);
+    }
+
+    /**
+     * Runs benchmark for given mode and prints frame time and difference from reference image.
+     */
+    private BufferedImage runMode(AntiAlias aMode, int aSampleCount, BufferedImage aRefImage)
+    {
+        // Configure and warm up
+        setAntiAlias(aMode);
+        setSampleCount(aSampleCount);
+        timeFrames(WARMUP_FRAMES);
+
+        // Time frames and get image
+        double frameTime = timeFrames(FRAME_COUNT);
+        renderAll();
+        BufferedImage img = getImage();
+
+        // Print result
+        String modeName = aMode == AntiAlias.MSAA ? "MSAA x" + aSampleCount : aMode.toString();
+        String diffStr = aRefImage != null ? String.format("%.3f", getMeanDifference(aRefImage, img)) : "-";
+        System.out.println(String.format("%-10s %10.3f %12s", modeName, frameTime, diffStr));
+        return img;
+    }
+
+    /**
+     * Standard main implementation.
+     */
+    public static void main(String[] args)
+    {
+        TestAntiAlias test = new TestAntiAlias();
+        System.out.println(String.format("%-10s %10s %12s", "Mode", "Frame(ms)", "DiffVsMSAA4"));
+        BufferedImage refImage = test.runMode(AntiAlias.MSAA, 4, null);
+        test.runMode(AntiAlias.MSAA, 2, refImage);
+        test.runMode(AntiAlias.FXAA, 0, refImage);
+        test.runMode(AntiAlias.None, 0, refImage);
+        System.exit(0);
+    }
+}
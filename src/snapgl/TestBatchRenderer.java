@@ -0,0 +1,61 @@
+package snapgl;
+import snap.gfx3d.Scene3D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * A class to report JGLBatchRenderer jobs per second as pool size scales. Needs a display (AWT can be headless), e.g.:
+ *     LIBGL_ALWAYS_SOFTWARE=1 xvfb-run java -Djava.awt.headless=true snapgl.TestBatchRenderer
+ */
+public class TestBatchRenderer {
+
+    // Constants
+    private static final int JOB_COUNT = 200;
+    private static final int BAR_COUNT = 100;
+    private static final int THUMB_WIDTH = 200;
+    private static final int THUMB_HEIGHT = 150;
+    private static final int[] POOL_SIZES = { 1, 2, 4, 8 };
+
+    /**
+     * Runs jobs for given pool size and returns jobs per second.
+     */
+    public static double runJobs(int aPoolSize) throws Exception
+    {
+        // Create jobs (one scene per job, like a batch of distinct charts)
+        List<JGLBatchRenderer.RenderJob> jobs = new ArrayList<>();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            Scene3D scene = TestScenes.createBarScene(BAR_COUNT);
+            jobs.add(new JGLBatchRenderer.RenderJob(scene, scene.getCamera(), THUMB_WIDTH, THUMB_HEIGHT));
+        }
+
+        // Warm up workers
+        JGLBatchRenderer batchRenderer = new JGLBatchRenderer(aPoolSize);
+        for (Future<BufferedImage> future : batchRenderer.submitAll(jobs.subList(0, aPoolSize * 2)))
+            future.get();
+        batchRenderer.resetStats();
+
+        // Run jobs and wait
+        for (Future<BufferedImage> future : batchRenderer.submitAll(jobs))
+            future.get();
+
+        // Shutdown and return
+        double jobsPerSecond = batchRenderer.getJobsPerSecond();
+        batchRenderer.shutdown();
+        return jobsPerSecond;
+    }
+
+    /**
+     * Standard main implementation.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        System.out.println("PoolSize,JobsPerSecond");
+        for (int poolSize : POOL_SIZES) {
+            double jobsPerSecond = runJobs(poolSize);
+            System.out.println(poolSize + "," + String.format("%.1f", jobsPerSecond));
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,141 @@
+package snapgl;
+import snap.gfx3d.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * A class to measure JGLMeshOptimizer offline (no GL needed) on the test scenes as non-indexed triangle arrays. Prints
+ * vertex counts, average cache miss ratio (ACMR) before welding, after welding and after Tipsify reordering, and GPU
+ * buffer bytes saved as CSV, e.g.:
+ *     java snapgl.TestMeshOptimizer [cacheSize]
+ */
+public class TestMeshOptimizer {
+
+    // The vertex cache size to measure with
+    private int  _cacheSize;
+
+    /**
+     * Constructor for given cache size.
+     */
+    public TestMeshOptimizer(int aCacheSize)
+    {
+        _cacheSize = aCacheSize;
+    }
+
+    /**
+     * Runs all scene types at all sizes.
+     */
+    public void runAll()
+    {
+        System.out.println("Scene,Size,Triangles,Vertices,WeldedVertices,ACMR,ACMRWelded,ACMRTipsify,Bytes,BytesOptimized,SavedPercent");
+        runScenes("Bars", TestScenes::createBarScene, 10, 100, 1000);
+        runScenes("Surface", TestScenes::createSurfaceScene, 1000, 10000, 100000);
+        runScenes("TexturedQuads", TestScenes::createTexturedQuadScene, 10, 100, 1000);
+        runScenes("Nested", TestScenes::createNestedScene, 10, 50, 200);
+    }
+
+    /**
+     * Runs scenes created by given function for given sizes.
+     */
+    public void runScenes(String aName, IntFunction<Scene3D> aSceneFunc, int ... theSizes)
+    {
+        for (int size : theSizes) {
+            Scene3D scene = aSceneFunc.apply(size);
+            List<VertexArray> triangleArrays = new ArrayList<>();
+            findTriangleArrays(scene, triangleArrays);
+            System.out.println(aName + "," + size + "," + runArrays(triangleArrays));
+        }
+    }
+
+    /**
+     * Optimizes given triangle arrays (as non-indexed) and returns CSV result columns.
+     */
+    public String runArrays(List<VertexArray> theArrays)
+    {
+        // Iterate over arrays and sum counts, misses and bytes
+        long triCount = 0, vertexCount = 0, weldedCount = 0, bytes = 0, optimizedBytes = 0;
+        double misses = 0, weldedMisses = 0, tipsifyMisses = 0;
+        for (VertexArray vertexArray : theArrays) {
+
+            // Get non-indexed arrays (expanding indexed arrays)
+            float[] points = getNonIndexed(vertexArray, vertexArray.getPointArray(), 3);
+            float[] colors = vertexArray.isColorArraySet() ? getNonIndexed(vertexArray, vertexArray.getColorArray(), 3) : null;
+            float[] texCoords = vertexArray.isTexCoordArraySet() ? getNonIndexed(vertexArray, vertexArray.getTexCoordArray(), 2) : null;
+            int count = points.length / 3;
+            int tris = count / 3;
+            if (tris == 0) continue;
+
+            // Weld and reorder
+            JGLMeshOptimizer.Mesh mesh = JGLMeshOptimizer.weld(points, colors, texCoords);
+            int[] weldedIndexes = mesh.getIndexes();
+            int[] tipsifyIndexes = JGLMeshOptimizer.tipsify(weldedIndexes, mesh.getVertexCount(), _cacheSize);
+
+            // Add counts and misses (ACMR times triangles)
+            triCount += tris;
+            vertexCount += count;
+            weldedCount += mesh.getVertexCount();
+            misses += JGLMeshOptimizer.getACMR(getSequentialIndexes(count), count, _cacheSize) * tris;
+            weldedMisses += JGLMeshOptimizer.getACMR(weldedIndexes, mesh.getVertexCount(), _cacheSize) * tris;
+            tipsifyMisses += JGLMeshOptimizer.getACMR(tipsifyIndexes, mesh.getVertexCount(), _cacheSize) * tris;
+
+            // Add bytes
+            bytes += (points.length + (colors != null ? colors.length : 0) + (texCoords != null ? texCoords.length : 0)) * 4L;
+            optimizedBytes += mesh.getByteCount();
+        }
+
+        // Return columns
+        double savedPercent = bytes > 0 ? (bytes - optimizedBytes) * 100d / bytes : 0;
+        return String.format("%d,%d,%d,%.3f,%.3f,%.3f,%d,%d,%.1f", triCount, vertexCount, weldedCount,
+            misses / Math.max(triCount, 1), weldedMisses / Math.max(triCount, 1), tipsifyMisses / Math.max(triCount, 1),
+            bytes, optimizedBytes, savedPercent);
+    }
+
+    /**
+     * Adds triangle arrays of given shape (and its children) to given list.
+     */
+    private static void findTriangleArrays(Shape3D aShape, List<VertexArray> theArrays)
+    {
+        if (aShape instanceof ParentShape) {
+            for (Shape3D child : ((ParentShape) aShape).getChildren())
+                findTriangleArrays(child, theArrays);
+            return;
+        }
+        for (VertexArray vertexArray = aShape.getTriangleArray(); vertexArray != null; vertexArray = vertexArray.getNext())
+            theArrays.add(vertexArray);
+    }
+
+    /**
+     * Returns given per-vertex array of given VertexArray expanded by its index array (or as is if not indexed).
+     */
+    private static float[] getNonIndexed(VertexArray aVA, float[] theValues, int aSize)
+    {
+        if (!aVA.isIndexArraySet())
+            return theValues;
+        int[] indexes = aVA.getIndexArray();
+        float[] values = new float[indexes.length * aSize];
+        for (int i = 0; i < indexes.length; i++)
+            System.arraycopy(theValues, indexes[i] * aSize, values, i * aSize, aSize);
+        return values;
+    }
+
+    /**
+     * Returns indexes 0 to given count (as drawn by glDrawArrays).
+     */
+    private static int[] getSequentialIndexes(int aCount)
+    {
+        int[] indexes = new int[aCount];
+        for (int i = 0; i < aCount; i++)
+            indexes[i] = i;
+        return indexes;
+    }
+
+    /**
+     * Standard main implementation.
+     */
+    public static void main(String[] args)
+    {
+        int cacheSize = args.length > 0 ? Integer.parseInt(args[0]) : JGLMeshOptimizer.DEFAULT_CACHE_SIZE;
+        new TestMeshOptimizer(cacheSize).runAll();
+    }
+}
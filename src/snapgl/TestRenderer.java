@@ -14,6 +14,9 @@ public class TestRenderer extends RenderImage {
     // Panel
     private JPanel  _contentPane;
 
+    // The animator that renders frames
+    private RenderAnimator  _animator;
+
     // Constants
     private static final int BOX_WIDTH = 500;
     private static final int BOX_HEIGHT = 500;
@@ -42,18 +45,10 @@ public class TestRenderer extends RenderImage {
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
 
-        // Start render loop
-        SwingUtilities.invokeLater(() -> renderLoop());
-    }
-
-    /**
-     * Renders the RenderJOGL, then triggers repaint to get it in Panel.
-     */
-    void renderLoop()
-    {
-        renderAll();
-        _contentPane.repaint();
-        SwingUtilities.invokeLater(() -> renderLoop());
+        // Start animator (renders frames and repaints panel)
+        _animator = new RenderAnimator(this);
+        _animator.setComponent(_contentPane);
+        _animator.start();
     }
 
     /**
@@ -65,9 +60,8 @@ public class TestRenderer extends RenderImage {
         GL2 gl = getGL2();
 
         // Get view size and aspect
-        int scale = 2;
-        int viewW = getWidth() * scale;
-        int viewH = getHeight() * scale;
+        int viewW = getPixelWidth();
+        int viewH = getPixelHeight();
         float aspect = (float) viewW / viewH;
 
         // Get width based on current time
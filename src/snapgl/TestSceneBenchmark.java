@@ -0,0 +1,201 @@
+package snapgl;
+import com.jogamp.opengl.GLContext;
+import snap.gfx3d.Camera;
+import snap.gfx3d.Scene3D;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A class to benchmark JGLRenderer end-to-end on synthetic scenes of increasing size (bars, surfaces, textured quads,
+ * nested shapes) and primitives (line sets, lines, point clouds, streams) of increasing size. Renders each scene for a
+ * fixed number of frames and prints frame time percentiles, draw counts and allocation rates as CSV, e.g.:
+ *     LIBGL_ALWAYS_SOFTWARE=1 java -Djava.awt.headless=true snapgl.TestSceneBenchmark [frameCount]
+ */
+public class TestSceneBenchmark {
+
+    // The number of measured frames per scene
+    private int  _frameCount;
+
+    // Whether renderer uses multi-draw mode
+    private boolean  _multiDraw;
+
+    // Whether renderer uses level of detail
+    private boolean  _lod;
+
+    // The index of next sample added to stream primitives
+    private long  _streamSampleIndex;
+
+    // Constants
+    private static final int DEFAULT_FRAME_COUNT = 200;
+    private static final int WARMUP_FRAME_COUNT = 20;
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 600;
+    private static final int STREAM_SAMPLES_PER_FRAME = 16;
+
+    /**
+     * Constructor for given number of measured frames per scene.
+     */
+    public TestSceneBenchmark(int aFrameCount)
+    {
+        _frameCount = aFrameCount;
+    }
+
+    /**
+     * Runs all scene types at all sizes.
+     */
+    public void runAll()
+    {
+        System.out.println("Scene,Size,Frames,P50Ms,P95Ms,P99Ms,MaxMs,DrawCalls,Triangles,AllocBytesPerFrame,AllocMBPerSec");
+        runScenes("Bars", TestScenes::createBarScene, 10, 100, 1000, 10000);
+        _multiDraw = true;
+        runScenes("BarsMultiDraw", TestScenes::createBarScene, 10, 100, 1000, 10000);
+        _multiDraw = false;
+        runScenes("Surface", TestScenes::createSurfaceScene, 1000, 10000, 100000, 1000000);
+        _lod = true;
+        runScenes("SurfaceLOD", TestScenes::createSurfaceScene, 1000, 10000, 100000, 1000000);
+        _lod = false;
+        runScenes("TexturedQuads", TestScenes::createTexturedQuadScene, 10, 100, 1000, 10000);
+        runScenes("Nested", TestScenes::createNestedScene, 10, 50, 200, 500);
+        runPrimitives("LineSet", TestScenes::createLineSet, 1000, 10000, 100000);
+        runPrimitives("Lines", TestScenes::createLines, 10000, 100000, 1000000);
+        runPrimitives("PointCloud", TestScenes::createPointCloud, 10000, 100000, 1000000);
+        runPrimitives("StreamGeometry", TestScenes::createStreamGeometry, 1000, 100000, 1000000);
+    }
+
+    /**
+     * Runs scenes created by given function for given sizes.
+     */
+    public void runScenes(String aName, IntFunction<Scene3D> aSceneFunc, int ... theSizes)
+    {
+        for (int size : theSizes) {
+            Scene3D scene = aSceneFunc.apply(size);
+            String result = runScene(scene);
+            System.out.println(aName + "," + size + "," + result);
+        }
+    }
+
+    /**
+     * Runs primitives created by given function for given sizes, each drawn over a small surface scene (so camera
+     * framing matches the primitives' 0-400 bounds).
+     */
+    public void runPrimitives(String aName, IntFunction<JGLPrimitive> aPrimitiveFunc, int ... theSizes)
+    {
+        for (int size : theSizes) {
+            Scene3D scene = TestScenes.createSurfaceScene(100);
+            String result = runScene(scene, aPrimitiveFunc.apply(size));
+            System.out.println(aName + "," + size + "," + result);
+        }
+    }
+
+    /**
+     * Renders given scene for warmup and measured frames and returns CSV result columns.
+     */
+    public String runScene(Scene3D aScene)
+    {
+        return runScene(aScene, null);
+    }
+
+    /**
+     * Renders given scene with given primitive (optional) for warmup and measured frames and returns CSV result
+     * columns.
+     */
+    public String runScene(Scene3D aScene, JGLPrimitive aPrimitive)
+    {
+        // Set camera size and create renderer and RenderImage (pixel scale 1 so results don't depend on display)
+        Camera camera = aScene.getCamera();
+        camera.setViewWidth(VIEW_WIDTH);
+        camera.setViewHeight(VIEW_HEIGHT);
+        JGLRenderer renderer = new JGLRenderer(camera);
+        renderer.setMultiDraw(_multiDraw);
+        renderer.setLOD(_lod);
+        if (aPrimitive != null)
+            renderer.addPrimitive(aPrimitive);
+        RenderImage renderImage = renderer.getRenderImage();
+        renderImage.setPixelScale(1);
+        _streamSampleIndex = 0;
+
+        // Warm up
+        for (int i = 0; i < WARMUP_FRAME_COUNT; i++) {
+            updatePrimitive(aPrimitive);
+            renderFrame(renderImage);
+        }
+
+        // Render measured frames, tracking allocation on this thread
+        long[] frameTimes = new long[_frameCount];
+        long allocStart = TestAllocationBudget.getAllocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < _frameCount; i++) {
+            updatePrimitive(aPrimitive);
+            long frameStart = System.nanoTime();
+            renderFrame(renderImage);
+            frameTimes[i] = System.nanoTime() - frameStart;
+        }
+        long totalTime = System.nanoTime() - startTime;
+        long allocBytes = TestAllocationBudget.getAllocatedBytes() - allocStart;
+
+        // Get stats
+        Arrays.sort(frameTimes);
+        RenderStats stats = renderer.getStats();
+        double allocPerFrame = allocBytes / (double) _frameCount;
+        double allocMBPerSec = allocBytes / 1e6 / (totalTime / 1e9);
+
+        // Dispose
+        GLContext glc = renderImage.getDrawable().getContext();
+        glc.makeCurrent();
+        try { renderer.disposeResources(); }
+        finally { glc.release(); }
+        renderImage.getDrawable().destroy();
+
+        // Return columns
+        return String.format("%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%.0f,%.1f", _frameCount,
+            getPercentileMillis(frameTimes, 50), getPercentileMillis(frameTimes, 95),
+            getPercentileMillis(frameTimes, 99), frameTimes[_frameCount - 1] / 1e6,
+            stats.getDrawCalls(), stats.getTriangles(), allocPerFrame, allocMBPerSec);
+    }
+
+    /**
+     * Updates given primitive (if any) for next frame: streams get a fixed number of new samples, so frame time should
+     * stay flat as window size grows.
+     */
+    private void updatePrimitive(JGLPrimitive aPrimitive)
+    {
+        if (aPrimitive instanceof JGLStreamGeometry) {
+            JGLStreamGeometry stream = (JGLStreamGeometry) aPrimitive;
+            if (_streamSampleIndex < stream.getWindowSize())
+                _streamSampleIndex = stream.getWindowSize();
+            TestScenes.addStreamSamples(stream, _streamSampleIndex, STREAM_SAMPLES_PER_FRAME);
+            _streamSampleIndex += STREAM_SAMPLES_PER_FRAME;
+        }
+    }
+
+    /**
+     * Renders a frame and waits for GL to finish.
+     */
+    private void renderFrame(RenderImage aRenderImage)
+    {
+        aRenderImage.renderAll();
+        GLContext glc = aRenderImage.getDrawable().getContext();
+        glc.makeCurrent();
+        try { glc.getGL().glFinish(); }
+        finally { glc.release(); }
+    }
+
+    /**
+     * Returns the given percentile (nearest rank) of given sorted times in millis.
+     */
+    private static double getPercentileMillis(long[] theSortedTimes, double aPercentile)
+    {
+        int rank = (int) Math.ceil(aPercentile / 100 * theSortedTimes.length);
+        return theSortedTimes[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    /**
+     * Standard main implementation.
+     */
+    public static void main(String[] args)
+    {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAME_COUNT;
+        new TestSceneBenchmark(frameCount).runAll();
+        System.exit(0);
+    }
+}
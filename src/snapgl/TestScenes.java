@@ -0,0 +1,327 @@
+package snapgl;
+import snap.gfx.Color;
+import snap.gfx.Image;
+import snap.gfx3d.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * This class creates synthetic Scene3Ds for tests and benchmarks.
+ */
+public class TestScenes {
+
+    /**
+     * Returns a scene with a square grid of given number of bars (each its own shape).
+     */
+    public static Scene3D createBarScene(int aBarCount)
+    {
+        // Create scene
+        Scene3D scene = new Scene3D();
+        int gridSize = (int) Math.ceil(Math.sqrt(aBarCount));
+
+        // Add bars
+        for (int i = 0; i < aBarCount; i++) {
+            int col = i % gridSize;
+            int row = i / gridSize;
+            double barH = 20 + (i * 37 % 80);
+            VertexArray vertexArray = new VertexArray();
+            vertexArray.setColor(getColor(i));
+            addBox(vertexArray, col * 20, 0, row * 20, col * 20 + 15, barH, row * 20 + 15);
+            scene.addChild(new VertexArrayShape(vertexArray));
+        }
+
+        // Return
+        return scene;
+    }
+
+    /**
+     * Returns a scene with a single indexed surface (height field) of about given number of vertices,
+     * with a color per vertex.
+     */
+    public static Scene3D createSurfaceScene(int aVertexCount)
+    {
+        // Get grid size (vertices per side)
+        int gridSize = Math.max((int) Math.round(Math.sqrt(aVertexCount)), 2);
+        double cellSize = 400d / (gridSize - 1);
+
+        // Add vertices with height and color
+        VertexArray vertexArray = new VertexArray();
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                double x = col * cellSize;
+                double z = row * cellSize;
+                double y = 40 * Math.sin(x * 0.03) * Math.cos(z * 0.03);
+                vertexArray.addPoint(x, y, z);
+                vertexArray.addColor(getColor((int) Math.round(y + 40)));
+            }
+        }
+
+        // Add two triangles per grid cell (counter-clockwise from above)
+        for (int row = 0; row < gridSize - 1; row++) {
+            for (int col = 0; col < gridSize - 1; col++) {
+                int i0 = row * gridSize + col;
+                int i1 = i0 + 1;
+                int i2 = i0 + gridSize;
+                int i3 = i2 + 1;
+                vertexArray.addIndex(i0, i2, i1);
+                vertexArray.addIndex(i1, i2, i3);
+            }
+        }
+
+        // Create scene and return
+        Scene3D scene = new Scene3D();
+        scene.addChild(new VertexArrayShape(vertexArray));
+        return scene;
+    }
+
+    /**
+     * Returns a scene with a grid of given number of textured quads (each its own shape), using a few textures.
+     */
+    public static Scene3D createTexturedQuadScene(int aQuadCount)
+    {
+        // Create textures
+        Texture[] textures = new Texture[4];
+        for (int i = 0; i < textures.length; i++)
+            textures[i] = createCheckerTexture(64, getColor(i));
+
+        // Add quads
+        Scene3D scene = new Scene3D();
+        int gridSize = (int) Math.ceil(Math.sqrt(aQuadCount));
+        for (int i = 0; i < aQuadCount; i++) {
+            double x = i % gridSize * 20;
+            double y = i / gridSize * 20;
+            VertexArray vertexArray = new VertexArray();
+            vertexArray.setColor(Color.WHITE);
+            vertexArray.setTexture(textures[i % textures.length]);
+            addQuad(vertexArray, x, y, 0, x + 18, y, 0, x + 18, y + 18, 0, x, y + 18, 0);
+            addQuadTexCoords(vertexArray);
+            scene.addChild(new VertexArrayShape(vertexArray));
+        }
+
+        // Return
+        return scene;
+    }
+
+    /**
+     * Returns a scene of ParentShapes nested to given depth, with a bar at each level.
+     */
+    public static Scene3D createNestedScene(int aDepth)
+    {
+        // Create scene
+        Scene3D scene = new Scene3D();
+        ParentShape parent = scene;
+
+        // Add a bar and a nested parent per level
+        for (int i = 0; i < aDepth; i++) {
+            VertexArray vertexArray = new VertexArray();
+            vertexArray.setColor(getColor(i));
+            addBox(vertexArray, i * 20, 0, 0, i * 20 + 15, 20 + (i * 37 % 80), 15);
+            parent.addChild(new VertexArrayShape(vertexArray));
+            ParentShape child = new ParentShape();
+            parent.addChild(child);
+            parent = child;
+        }
+
+        // Return
+        return scene;
+    }
+
+    /**
+     * Adds triangles for box with given min/max points to given VertexArray (counter-clockwise from outside).
+     */
+    public static void addBox(VertexArray aVA, double x0, double y0, double z0, double x1, double y1, double z1)
+    {
+        addQuad(aVA, x0, y0, z1, x1, y0, z1, x1, y1, z1, x0, y1, z1); // Front
+        addQuad(aVA, x1, y0, z0, x0, y0, z0, x0, y1, z0, x1, y1, z0); // Back
+        addQuad(aVA, x1, y0, z1, x1, y0, z0, x1, y1, z0, x1, y1, z1); // Right
+        addQuad(aVA, x0, y0, z0, x0, y0, z1, x0, y1, z1, x0, y1, z0); // Left
+        addQuad(aVA, x0, y1, z1, x1, y1, z1, x1, y1, z0, x0, y1, z0); // Top
+        addQuad(aVA, x0, y0, z0, x1, y0, z0, x1, y0, z1, x0, y0, z1); // Bottom
+    }
+
+    /**
+     * Adds two triangles for quad with given counter-clockwise points to given VertexArray.
+     */
+    public static void addQuad(VertexArray aVA, double ax, double ay, double az, double bx, double by, double bz,
+                               double cx, double cy, double cz, double dx, double dy, double dz)
+    {
+        aVA.addPoint(ax, ay, az);
+        aVA.addPoint(bx, by, bz);
+        aVA.addPoint(cx, cy, cz);
+        aVA.addPoint(ax, ay, az);
+        aVA.addPoint(cx, cy, cz);
+        aVA.addPoint(dx, dy, dz);
+    }
+
+    /**
+     * Adds texture coords for the two triangles of the last quad added with addQuad().
+     */
+    public static void addQuadTexCoords(VertexArray aVA)
+    {
+        aVA.addTexCoord(0, 0);
+        aVA.addTexCoord(1, 0);
+        aVA.addTexCoord(1, 1);
+        aVA.addTexCoord(0, 0);
+        aVA.addTexCoord(1, 1);
+        aVA.addTexCoord(0, 1);
+    }
+
+    /**
+     * Returns a checkerboard texture of given size and color.
+     */
+    public static Texture createCheckerTexture(int aSize, Color aColor)
+    {
+        // Create image and get AWT image
+        Image image = Image.getImageForSize(aSize, aSize, true);
+        BufferedImage awtImage = (BufferedImage) image.getNative();
+
+        // Fill checkerboard
+        int color = 0xFF000000 | (int) Math.round(aColor.getRed() * 255) << 16 |
+            (int) Math.round(aColor.getGreen() * 255) << 8 | (int) Math.round(aColor.getBlue() * 255);
+        int cellSize = Math.max(aSize / 8, 1);
+        for (int y = 0; y < aSize; y++)
+            for (int x = 0; x < aSize; x++)
+                awtImage.setRGB(x, y, ((x / cellSize + y / cellSize) % 2 == 0) ? color : 0xFFFFFFFF);
+
+        // Return texture for image
+        return new Texture(image);
+    }
+
+    /**
+     * Returns a line set of given number of random edges between nodes in the surface scene bounds (like a network
+     * chart), with a color per edge.
+     */
+    public static JGLLineSet createLineSet(int aLineCount)
+    {
+        // Get random nodes
+        Random random = new Random(1);
+        int nodeCount = Math.max(aLineCount / 4, 2);
+        float[] nodes = new float[nodeCount * 3];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = random.nextFloat() * 400;
+
+        // Add edges between random nodes
+        float[] points = new float[aLineCount * 6];
+        float[] colors = new float[aLineCount * 3];
+        for (int i = 0; i < aLineCount; i++) {
+            System.arraycopy(nodes, random.nextInt(nodeCount) * 3, points, i * 6, 3);
+            System.arraycopy(nodes, random.nextInt(nodeCount) * 3, points, i * 6 + 3, 3);
+            Color color = getColor(i);
+            colors[i * 3] = (float) color.getRed();
+            colors[i * 3 + 1] = (float) color.getGreen();
+            colors[i * 3 + 2] = (float) color.getBlue();
+        }
+
+        // Create line set and return
+        JGLLineSet lineSet = new JGLLineSet();
+        lineSet.setPoints(points);
+        lineSet.setColors(colors);
+        lineSet.setRadius(0.5);
+        return lineSet;
+    }
+
+    /**
+     * Returns screen-space lines of given number of segments: a ground grid in the surface scene bounds (extending
+     * past them, like a grid running past the camera) with the remaining segments as a random walk above it.
+     */
+    public static JGLLines createLines(int aSegmentCount)
+    {
+        // Add ground grid lines (each spanning twice the scene bounds)
+        float[] points = new float[aSegmentCount * 6];
+        int gridCount = Math.min(aSegmentCount, 200);
+        for (int i = 0; i < gridCount; i++) {
+            float offset = (i / 2) * 400f / 99;
+            int index = i * 6;
+            boolean alongX = i % 2 == 0;
+            points[index] = alongX ? -400 : offset;
+            points[index + 2] = alongX ? offset : -400;
+            points[index + 3] = alongX ? 800 : offset;
+            points[index + 5] = alongX ? offset : 800;
+        }
+
+        // Add random walk segments
+        Random random = new Random(1);
+        float x = 200, y = 50, z = 200;
+        for (int i = gridCount; i < aSegmentCount; i++) {
+            int index = i * 6;
+            points[index] = x;
+            points[index + 1] = y;
+            points[index + 2] = z;
+            x = Math.min(Math.max(x + random.nextFloat() * 8 - 4, 0), 400);
+            y = Math.min(Math.max(y + random.nextFloat() * 8 - 4, 0), 100);
+            z = Math.min(Math.max(z + random.nextFloat() * 8 - 4, 0), 400);
+            points[index + 3] = x;
+            points[index + 4] = y;
+            points[index + 5] = z;
+        }
+
+        // Create lines and return
+        JGLLines lines = new JGLLines();
+        lines.setPoints(points);
+        lines.setLineWidth(1.5);
+        return lines;
+    }
+
+    /**
+     * Returns a point cloud of given number of random points in the surface scene bounds (like a 3D scatter plot),
+     * with a color and size per point.
+     */
+    public static JGLPointCloud createPointCloud(int aPointCount)
+    {
+        // Get random points, colors and sizes
+        Random random = new Random(1);
+        float[] points = new float[aPointCount * 3];
+        float[] colors = new float[aPointCount * 3];
+        float[] sizes = new float[aPointCount];
+        for (int i = 0; i < aPointCount; i++) {
+            points[i * 3] = random.nextFloat() * 400;
+            points[i * 3 + 1] = random.nextFloat() * 100;
+            points[i * 3 + 2] = random.nextFloat() * 400;
+            Color color = getColor(i);
+            colors[i * 3] = (float) color.getRed();
+            colors[i * 3 + 1] = (float) color.getGreen();
+            colors[i * 3 + 2] = (float) color.getBlue();
+            sizes[i] = 2 + random.nextFloat() * 4;
+        }
+
+        // Create point cloud and return
+        JGLPointCloud pointCloud = new JGLPointCloud();
+        pointCloud.setPoints(points);
+        pointCloud.setColors(colors);
+        pointCloud.setSizes(sizes);
+        return pointCloud;
+    }
+
+    /**
+     * Returns a line stream with given window size (in samples), filled with a window of samples.
+     */
+    public static JGLStreamGeometry createStreamGeometry(int aWindowSize)
+    {
+        JGLStreamGeometry stream = new JGLStreamGeometry(JGLStreamGeometry.StreamMode.Line, aWindowSize);
+        addStreamSamples(stream, 0, aWindowSize);
+        return stream;
+    }
+
+    /**
+     * Adds given number of samples to given stream, starting at given sample index (x wraps across surface scene
+     * bounds every window).
+     */
+    public static void addStreamSamples(JGLStreamGeometry aStream, long aStart, int aCount)
+    {
+        int windowSize = aStream.getWindowSize();
+        for (long i = aStart, iMax = aStart + aCount; i < iMax; i++) {
+            double x = (i % windowSize) * 400d / windowSize;
+            double y = 50 + 40 * Math.sin(i * 0.01) * Math.cos(i * 0.0037);
+            aStream.addPoint(x, y, 200, Color.BLUE);
+        }
+    }
+
+    /**
+     * Returns a color for given index.
+     */
+    public static Color getColor(int anIndex)
+    {
+        double hue = (anIndex * 0.618034) % 1;
+        return new Color(0.3 + 0.6 * hue, 0.5 + 0.4 * (1 - hue), 0.9 - 0.5 * hue);
+    }
+}
@@ -0,0 +1,60 @@
+
+// Parameters: fragTexture, texelSize, texCoordScale (portion of texture that is rendered area)
+uniform sampler2D fragTexture;
+uniform vec2 texelSize;
+uniform vec2 texCoordScale;
+
+// Attributes: fragTexCoord
+varying vec2 fragTexCoord;
+
+// Constants for edge detection and search span
+#define FXAA_REDUCE_MIN (1.0 / 128.0)
+#define FXAA_REDUCE_MUL (1.0 / 8.0)
+#define FXAA_SPAN_MAX 8.0
+
+// Returns texture color at given coord, clamped to rendered area (texels past it hold stale content)
+vec3 sampleRendered(vec2 aCoord)
+{
+    vec2 coord = clamp(aCoord, 0.5 * texelSize, texCoordScale - 0.5 * texelSize);
+    return texture2D(fragTexture, coord).rgb;
+}
+
+void main()
+{
+    // Sample center and diagonal neighbors
+    vec4 colorM = texture2D(fragTexture, fragTexCoord);
+    vec3 rgbNW = sampleRendered(fragTexCoord + vec2(-1.0, -1.0) * texelSize);
+    vec3 rgbNE = sampleRendered(fragTexCoord + vec2(1.0, -1.0) * texelSize);
+    vec3 rgbSW = sampleRendered(fragTexCoord + vec2(-1.0, 1.0) * texelSize);
+    vec3 rgbSE = sampleRendered(fragTexCoord + vec2(1.0, 1.0) * texelSize);
+
+    // Get luma for samples
+    vec3 luma = vec3(0.299, 0.587, 0.114);
+    float lumaM = dot(colorM.rgb, luma);
+    float lumaNW = dot(rgbNW, luma);
+    float lumaNE = dot(rgbNE, luma);
+    float lumaSW = dot(rgbSW, luma);
+    float lumaSE = dot(rgbSE, luma);
+    float lumaMin = min(lumaM, min(min(lumaNW, lumaNE), min(lumaSW, lumaSE)));
+    float lumaMax = max(lumaM, max(max(lumaNW, lumaNE), max(lumaSW, lumaSE)));
+
+    // Get edge direction
+    vec2 dir;
+    dir.x = -((lumaNW + lumaNE) - (lumaSW + lumaSE));
+    dir.y = ((lumaNW + lumaSW) - (lumaNE + lumaSE));
+    float dirReduce = max((lumaNW + lumaNE + lumaSW + lumaSE) * (0.25 * FXAA_REDUCE_MUL), FXAA_REDUCE_MIN);
+    float rcpDirMin = 1.0 / (min(abs(dir.x), abs(dir.y)) + dirReduce);
+    dir = clamp(dir * rcpDirMin, vec2(-FXAA_SPAN_MAX), vec2(FXAA_SPAN_MAX)) * texelSize;
+
+    // Blend along edge
+    vec3 rgbA = 0.5 * (sampleRendered(fragTexCoord + dir * (1.0 / 3.0 - 0.5)) +
+        sampleRendered(fragTexCoord + dir * (2.0 / 3.0 - 0.5)));
+    vec3 rgbB = rgbA * 0.5 + 0.25 * (sampleRendered(fragTexCoord + dir * -0.5) +
+        sampleRendered(fragTexCoord + dir * 0.5));
+
+    // If wide blend went outside local luma range, use narrow blend
+    float lumaB = dot(rgbB, luma);
+    if (lumaB < lumaMin || lumaB > lumaMax)
+        gl_FragColor = vec4(rgbA, colorM.a);
+    else gl_FragColor = vec4(rgbB, colorM.a);
+}
@@ -0,0 +1,15 @@
+
+// Parameters: TexCoordScale (portion of texture that is rendered area)
+uniform vec2 texCoordScale;
+
+// Attributes: VertPoint (in clip space)
+attribute vec2 vertPoint;
+
+// Output: fragTexCoord
+varying vec2 fragTexCoord;
+
+void main()
+{
+    gl_Position = vec4(vertPoint, 0.0, 1.0);
+    fragTexCoord = (vertPoint * 0.5 + 0.5) * texCoordScale;
+}
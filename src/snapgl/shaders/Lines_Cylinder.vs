@@ -0,0 +1,31 @@
+// Parameters: ProjMatrix, ViewMatrix
+uniform mat4 projMatrix;
+uniform mat4 viewMatrix;
+
+// Attributes: VertPoint (unit cylinder: radius 1 around Z, Z from 0 to 1)
+attribute vec3 vertPoint;
+
+// Instance attributes: InstStart, InstEnd, InstRadius, InstColor
+attribute vec3 instStart;
+attribute vec3 instEnd;
+attribute float instRadius;
+attribute vec3 instColor;
+
+// Output: fragColor
+varying vec3 fragColor;
+
+void main()
+{
+    // Get basis with axis along line
+    vec3 dir = instEnd - instStart;
+    float len = length(dir);
+    vec3 axis = len > 0.000001 ? dir / len : vec3(0.0, 0.0, 1.0);
+    vec3 up = abs(axis.y) < 0.99 ? vec3(0.0, 1.0, 0.0) : vec3(1.0, 0.0, 0.0);
+    vec3 side = normalize(cross(up, axis));
+    up = cross(axis, side);
+
+    // Transform unit cylinder point to line cylinder
+    vec3 point = instStart + (side * vertPoint.x + up * vertPoint.y) * instRadius + dir * vertPoint.z;
+    gl_Position = projMatrix * viewMatrix * vec4(point, 1.0);
+    fragColor = instColor;
+}
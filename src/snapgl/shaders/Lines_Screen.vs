@@ -0,0 +1,54 @@
+// Parameters: ProjMatrix, ViewMatrix, ViewSize (pixels), LineWidth (pixels), LineColor
+uniform mat4 projMatrix;
+uniform mat4 viewMatrix;
+uniform vec2 viewSize;
+uniform float lineWidth;
+uniform vec3 lineColor;
+
+// Attributes: VertPoint (quad corner: x is 0 at segment start, 1 at end; y is -1/1 for side)
+attribute vec3 vertPoint;
+
+// Instance attributes: InstStart, InstEnd
+attribute vec3 instStart;
+attribute vec3 instEnd;
+
+// Output: fragColor
+varying vec3 fragColor;
+
+void main()
+{
+    // Get segment ends in clip space
+    mat4 projViewMatrix = projMatrix * viewMatrix;
+    vec4 clip0 = projViewMatrix * vec4(instStart, 1.0);
+    vec4 clip1 = projViewMatrix * vec4(instEnd, 1.0);
+
+    // Get distances of ends in front of near plane (z = -w): if both behind, collapse quad outside clip volume
+    float near0 = clip0.z + clip0.w;
+    float near1 = clip1.z + clip1.w;
+    if (near0 < 0.0 && near1 < 0.0) {
+        gl_Position = vec4(0.0, 0.0, -2.0, 1.0);
+        fragColor = lineColor;
+        return;
+    }
+
+    // Clip segment to near plane (move end behind it along segment to plane), so screen direction doesn't flip
+    if (near0 < 0.0)
+        clip0 = mix(clip0, clip1, near0 / (near0 - near1));
+    else if (near1 < 0.0)
+        clip1 = mix(clip1, clip0, near1 / (near1 - near0));
+    clip0.w = max(clip0.w, 0.000001);
+    clip1.w = max(clip1.w, 0.000001);
+
+    // Get segment direction in pixels and its normal
+    vec2 pix0 = clip0.xy / clip0.w * viewSize;
+    vec2 pix1 = clip1.xy / clip1.w * viewSize;
+    vec2 dir = pix1 - pix0;
+    dir = length(dir) > 0.000001 ? normalize(dir) : vec2(1.0, 0.0);
+    vec2 normal = vec2(-dir.y, dir.x);
+
+    // Offset corner by half line width in pixels (converted to clip space)
+    vec4 clip = vertPoint.x < 0.5 ? clip0 : clip1;
+    clip.xy += normal * vertPoint.y * lineWidth / viewSize * clip.w;
+    gl_Position = clip;
+    fragColor = lineColor;
+}
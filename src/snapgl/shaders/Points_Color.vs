@@ -1,7 +1,8 @@
 
-// Parameters: ProjMatrix, ViewMatrix, VertColor
+// Parameters: ProjMatrix, ViewMatrix, ModelMatrix, VertColor
 uniform mat4 projMatrix;
 uniform mat4 viewMatrix;
+uniform mat4 modelMatrix;
 uniform vec3 vertColor;
 
 // Attributes: VertPoint
@@ -12,6 +13,6 @@ varying vec3 fragColor;
 
 void main()
 {
-    gl_Position = projMatrix * viewMatrix * vec4(vertPoint, 1.0);
+    gl_Position = projMatrix * viewMatrix * modelMatrix * vec4(vertPoint, 1.0);
     fragColor = vertColor;
 }
@@ -1,7 +1,8 @@
 
-// Parameters: ProjMatrix, ViewMatrix
+// Parameters: ProjMatrix, ViewMatrix, ModelMatrix
 uniform mat4 projMatrix;
 uniform mat4 viewMatrix;
+uniform mat4 modelMatrix;
 
 // Attributes: VertPoint, VertColor
 attribute vec3 vertPoint;
@@ -12,6 +13,6 @@ varying vec3 fragColor;
 
 void main()
 {
-    gl_Position = projMatrix * viewMatrix * vec4(vertPoint, 1.0);
+    gl_Position = projMatrix * viewMatrix * modelMatrix * vec4(vertPoint, 1.0);
     fragColor = vertColor;
 }
@@ -0,0 +1,10 @@
+varying vec3 fragColor;
+
+void main()
+{
+    // Discard outside of circle to make round marker
+    vec2 offset = gl_PointCoord - vec2(0.5);
+    if (dot(offset, offset) > 0.25)
+        discard;
+    gl_FragColor = vec4(fragColor, 1.0);
+}
@@ -0,0 +1,18 @@
+// Parameters: ProjMatrix, ViewMatrix
+uniform mat4 projMatrix;
+uniform mat4 viewMatrix;
+
+// Attributes: VertPoint, VertColor, VertSize (pixels)
+attribute vec3 vertPoint;
+attribute vec3 vertColor;
+attribute float vertSize;
+
+// Output: fragColor
+varying vec3 fragColor;
+
+void main()
+{
+    gl_Position = projMatrix * viewMatrix * vec4(vertPoint, 1.0);
+    gl_PointSize = vertSize;
+    fragColor = vertColor;
+}